@@ -0,0 +1,50 @@
+package ru.aloyenz.t501.driver.benchmark;
+
+import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.device.ConfigSnapshot;
+import ru.aloyenz.t501.driver.device.KeyCodesFetcher;
+import ru.aloyenz.t501.driver.exception.InvalidSpecialConfigException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Keycodes, default configuration and bindings loaded the same way as on driver start,
+ * but from temporary files, so benchmarks never touch files of the installed driver.
+ */
+final class BenchmarkEnvironment {
+
+    private static Path directory;
+
+    private BenchmarkEnvironment() {}
+
+    static synchronized Path init() throws IOException {
+        if (directory != null) {
+            return directory;
+        }
+
+        directory = Files.createTempDirectory("t501_benchmark");
+        directory.toFile().deleteOnExit();
+
+        String keycodesCache = directory.resolve("keycodes.json").toString();
+        KeyCodesFetcher.saveKeycodeCacheFromResources(keycodesCache);
+        KeyCodesFetcher.loadKeycodesFromCache(keycodesCache);
+
+        try {
+            Configuration.init(directory.resolve("config.json").toFile());
+        } catch (InvalidSpecialConfigException e) {
+            throw new IOException("Default configuration is invalid", e);
+        }
+        ConfigSnapshot.publish(ConfigSnapshot.compile(Configuration.getInstance()));
+
+        return directory;
+    }
+
+    static File file(String name) throws IOException {
+        File file = init().resolve(name).toFile();
+        file.deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,37 @@
+package ru.aloyenz.t501.driver.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.exception.InvalidSpecialConfigException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading of an existing configuration file: parsing, validation and writing it back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigurationBenchmark {
+
+    private File configFile;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkEnvironment.init();
+
+        configFile = BenchmarkEnvironment.file("config_benchmark.json");
+        Configuration.save(configFile);
+    }
+
+    @Benchmark
+    public Configuration init() throws IOException, InvalidSpecialConfigException {
+        Configuration.init(configFile);
+        return Configuration.getInstance();
+    }
+}
@@ -0,0 +1,86 @@
+package ru.aloyenz.t501.driver.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.aloyenz.t501.driver.device.KeyCode;
+import ru.aloyenz.t501.driver.device.KeyCodesFetcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of keycodes: parsing input-event-codes.h, loading the JSON and binary caches
+ * and the index bundled into the jar.
+ * The header is generated from bundled keycodes, so system headers are not needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyCodesFetcherBenchmark {
+
+    private String headerPath;
+    private String cachePath;
+    private String binaryCachePath;
+    private String parsedCachePath;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkEnvironment.init();
+
+        cachePath = BenchmarkEnvironment.file("keycodes_cache.json").getPath();
+        KeyCodesFetcher.saveKeycodeCacheFromResources(cachePath);
+
+        StringBuilder header = new StringBuilder("#ifndef _INPUT_EVENT_CODES_H\n#define _INPUT_EVENT_CODES_H\n\n");
+        for (Map.Entry<String, KeyCode> entry : KeyCodesFetcher.getKeycodes().entrySet()) {
+            header.append("#define ").append(entry.getKey()).append("\t\t")
+                    .append(entry.getValue().keyCode());
+            if (entry.getValue().comment() != null) {
+                header.append("\t/* ").append(entry.getValue().comment()).append(" */");
+            }
+            header.append('\n');
+        }
+        header.append("\n#endif\n");
+
+        File headerFile = BenchmarkEnvironment.file("input-event-codes.h");
+        Files.writeString(headerFile.toPath(), header, StandardCharsets.UTF_8);
+        headerPath = headerFile.getPath();
+
+        binaryCachePath = BenchmarkEnvironment.file("keycodes_cache.bin").getPath();
+        KeyCodesFetcher.storeIndexToFile(new File(binaryCachePath));
+
+        parsedCachePath = BenchmarkEnvironment.file("keycodes_parsed.bin").getPath();
+    }
+
+    /** Parses the header and stores the cache, as with --force-fetch-keycodes */
+    @Benchmark
+    public int parseHeader() {
+        KeyCodesFetcher.fetch(headerPath, parsedCachePath);
+        return KeyCodesFetcher.getIndex().size();
+    }
+
+    /** JSON cache, as with --keycodes-cache keycodes.json */
+    @Benchmark
+    public int loadCache() throws IOException {
+        KeyCodesFetcher.loadKeycodesFromCache(cachePath);
+        return KeyCodesFetcher.getIndex().size();
+    }
+
+    @Benchmark
+    public int loadBinaryCache() throws IOException {
+        KeyCodesFetcher.loadKeycodesFromCache(binaryCachePath);
+        return KeyCodesFetcher.getIndex().size();
+    }
+
+    /** Regular start without cache */
+    @Benchmark
+    public int loadBundled() {
+        KeyCodesFetcher.loadBundled();
+        return KeyCodesFetcher.getIndex().size();
+    }
+}
@@ -0,0 +1,58 @@
+package ru.aloyenz.t501.driver.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.aloyenz.t501.driver.device.KeyEvents;
+import ru.aloyenz.t501.driver.device.KeyboardManager;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of tablet button states to key events, over all 65536 states of the 16-bit mask.
+ * Score is time per single transition.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyEventsBenchmark {
+
+    private static final int STATES = 1 << 16;
+
+    private KeyboardManager keyboardManager;
+    private KeyEvents keyEvents;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkEnvironment.init();
+
+        keyboardManager = new KeyboardManager();
+        keyEvents = new KeyEvents();
+    }
+
+    /** Consecutive values: many bits change at once on carries */
+    @Benchmark
+    @OperationsPerInvocation(STATES)
+    public int sequentialStates() {
+        int events = 0;
+        for (int state = 0; state < STATES; state++) {
+            keyboardManager.getKeyEvents((short) state, keyEvents);
+            events += keyEvents.size();
+        }
+        return events;
+    }
+
+    /** Gray code order: exactly one button changes per transition, as with a real tablet */
+    @Benchmark
+    @OperationsPerInvocation(STATES)
+    public int singleButtonTransitions() {
+        int events = 0;
+        for (int i = 0; i < STATES; i++) {
+            keyboardManager.getKeyEvents((short) (i ^ (i >>> 1)), keyEvents);
+            events += keyEvents.size();
+        }
+        return events;
+    }
+}
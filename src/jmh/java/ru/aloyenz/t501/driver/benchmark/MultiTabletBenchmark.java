@@ -0,0 +1,127 @@
+package ru.aloyenz.t501.driver.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.aloyenz.t501.driver.device.DeviceConnectionListener;
+import ru.aloyenz.t501.driver.device.DeviceInformation;
+import ru.aloyenz.t501.driver.device.DeviceReader;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.SampleEmitterThreads;
+import ru.aloyenz.t501.driver.device.T501Device;
+import ru.aloyenz.t501.driver.device.VirtualDeviceRegistry;
+import ru.aloyenz.t501.driver.virtual.InputSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency from a contact report to the sample written to the virtual pen, with eight tablets read at once.
+ * Every benchmark thread is a tablet: it applies a report and waits until the emitter thread of the tablet writes it.
+ * Sample mode reports percentiles of the latency.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(MultiTabletBenchmark.TABLETS)
+@Fork(1)
+public class MultiTabletBenchmark {
+
+    static final int TABLETS = 8;
+    private static final int RING_CAPACITY = 64;
+
+    @State(Scope.Benchmark)
+    public static class Tablets {
+
+        private final FrameSink[] sinks = new FrameSink[TABLETS];
+        private final T501Device[] devices = new T501Device[TABLETS];
+        private final AtomicInteger nextTablet = new AtomicInteger();
+
+        private VirtualDeviceRegistry registry;
+        private DeviceConnectionListener listener;
+        private DeviceReader reader;
+
+        @Setup
+        public void setup() throws IOException {
+            BenchmarkEnvironment.init();
+
+            registry = new VirtualDeviceRegistry(number -> sinks[number - 1] = new FrameSink(), 500, 30);
+            reader = new DeviceReader();
+            listener = DeviceConnectionListener.of(registry, new SampleEmitterThreads(reader, RING_CAPACITY));
+
+            for (int i = 0; i < TABLETS; i++) {
+                devices[i] = new T501Device("1-" + (i + 1), null, new DeviceInformation((byte) 1, (byte) 0x81, 64));
+                listener.onDeviceConnected(devices[i]);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            for (T501Device device : devices) {
+                listener.onDeviceDisconnected(device);
+            }
+            registry.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Tablet {
+
+        private T501Device device;
+        private FrameSink sink;
+        private ByteBuffer report;
+        private long written = 0;
+
+        @Setup
+        public void setup(Tablets tablets) {
+            int index = tablets.nextTablet.getAndIncrement();
+            device = tablets.devices[index];
+            sink = tablets.sinks[index];
+
+            report = ByteBuffer.allocateDirect(64);
+            report.put(0, ReportDecoder.STYLUS_REPORT_ID);
+            // Contact samples are never coalesced, so every one of them is written
+            report.putShort(5, (short) 900);
+            report.put(9, (byte) 0x02);
+            report.putShort(11, (short) 0xFFFF);
+            report.put(13, (byte) 0x80);
+            report.put(14, (byte) 0x80);
+        }
+    }
+
+    @Benchmark
+    public long reportToSample(Tablets tablets, Tablet tablet) {
+        tablet.written++;
+        tablet.report.putShort(1, (short) (200 + (tablet.written & 1023)));
+        tablet.report.putShort(3, (short) (200 + (tablet.written & 511)));
+        tablets.reader.applyInput(tablet.device, tablet.report, ReportDecoder.STYLUS_REPORT_LENGTH);
+
+        // Yields instead of spinning, so waiting tablets don't take cores from the emitter threads
+        while (tablet.sink.frames < tablet.written) {
+            Thread.yield();
+        }
+        return tablet.written;
+    }
+
+    /** Counts samples of a tablet, written only by its emitter thread */
+    private static final class FrameSink implements InputSink {
+
+        private volatile long frames = 0;
+
+        @Override
+        public void penFrame(int x, int y, int pressure, boolean touch, int tiltX, int tiltY,
+                             boolean stylusPlusPressed, boolean stylusMinusPressed) {
+            frames = frames + 1;
+        }
+
+        @Override
+        public void penLeave() {}
+
+        @Override
+        public void keyboardKeys(int[] keyCodes, boolean[] pressed, int count) {}
+
+        @Override
+        public void mouseEvents(int[] codes, boolean[] isRel, int[] values, int count) {}
+    }
+}
@@ -0,0 +1,65 @@
+package ru.aloyenz.t501.driver.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.aloyenz.t501.driver.virtual.NativesExtractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of native libraries extraction:
+ * <ul>
+ *     <li>{@code COLD} - empty directory, every library is extracted,</li>
+ *     <li>{@code NO_STAMP} - libraries are extracted, but the stamp is missing, so they are rehashed,</li>
+ *     <li>{@code WARM} - regular start, only the stamp is checked.</li>
+ * </ul>
+ * Needs native libraries in resources, which are built by processResources.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NativesExtractorBenchmark {
+
+    public enum CacheState { COLD, NO_STAMP, WARM }
+
+    @Param({"COLD", "NO_STAMP", "WARM"})
+    public CacheState state;
+
+    private Path directory;
+    private String prefix;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkEnvironment.init().resolve("natives-" + state);
+        Files.createDirectories(directory);
+        prefix = directory + File.separator;
+
+        NativesExtractor.extract(prefix);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() throws IOException {
+        switch (state) {
+            case COLD -> {
+                try (var files = Files.list(directory)) {
+                    for (Path file : files.toList()) {
+                        Files.delete(file);
+                    }
+                }
+            }
+            case NO_STAMP -> Files.deleteIfExists(directory.resolve("natives.stamp"));
+            case WARM -> {}
+        }
+    }
+
+    @Benchmark
+    public void extract() throws IOException {
+        NativesExtractor.extract(prefix);
+    }
+}
@@ -0,0 +1,62 @@
+package ru.aloyenz.t501.driver.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.aloyenz.t501.driver.config.SmoothingConfiguration;
+import ru.aloyenz.t501.driver.config.SmoothingType;
+import ru.aloyenz.t501.driver.device.PenFilter;
+import ru.aloyenz.t501.driver.device.PenReport;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Smoothing of a single decoded report with every filter type applied to all axes.
+ * Decoding is included, compare with the NONE score to get the cost of the filter itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PenFilterBenchmark {
+
+    private static final int CORPUS_SIZE = 1024;
+    // 200 reports per second
+    private static final long PERIOD_NANOS = 5_000_000L;
+
+    @Param({"NONE", "EMA", "ONE_EURO"})
+    public SmoothingType type;
+
+    private SmoothingConfiguration smoothing;
+    private PenFilter filter;
+    private PenReport report;
+
+    private ByteBuffer[] corpus;
+    private int next = 0;
+    private long nanos = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkEnvironment.init();
+
+        smoothing = new SmoothingConfiguration();
+        smoothing.x.type = type;
+        smoothing.y.type = type;
+        smoothing.pressure.type = type;
+        smoothing.tilt.type = type;
+
+        filter = new PenFilter();
+        report = new PenReport();
+        corpus = SyntheticReports.corpus(CORPUS_SIZE);
+    }
+
+    @Benchmark
+    public int filterReport() {
+        ReportDecoder.decode(corpus[next++ & (CORPUS_SIZE - 1)], report);
+        filter.apply(report, nanos += PERIOD_NANOS, smoothing);
+        return report.x + report.pressure + report.tiltX;
+    }
+}
@@ -0,0 +1,59 @@
+package ru.aloyenz.t501.driver.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.aloyenz.t501.driver.device.DeviceInformation;
+import ru.aloyenz.t501.driver.device.DeviceReader;
+import ru.aloyenz.t501.driver.device.MouseScheduler;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.T501Device;
+import ru.aloyenz.t501.driver.virtual.CountingSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode and processing of a single report, from the raw buffer to the calls of the input sink.
+ * Device has no sample ring, so processHID runs right on the benchmark thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessHidBenchmark {
+
+    private static final int CORPUS_SIZE = 1024;
+
+    private CountingSink sink;
+    private MouseScheduler mouseScheduler;
+    private DeviceReader reader;
+    private T501Device device;
+
+    private ByteBuffer[] corpus;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkEnvironment.init();
+
+        sink = new CountingSink();
+        mouseScheduler = new MouseScheduler(sink);
+        mouseScheduler.start(250, 20);
+        reader = new DeviceReader(sink, mouseScheduler);
+        device = new T501Device("benchmark", null, new DeviceInformation((byte) 1, (byte) 0x81, 64));
+
+        corpus = SyntheticReports.corpus(CORPUS_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mouseScheduler.stop();
+    }
+
+    @Benchmark
+    public void processReport() {
+        reader.applyInput(device, corpus[next++ & (CORPUS_SIZE - 1)], ReportDecoder.STYLUS_REPORT_LENGTH);
+    }
+}
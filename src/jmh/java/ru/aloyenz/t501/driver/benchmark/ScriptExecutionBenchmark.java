@@ -0,0 +1,46 @@
+package ru.aloyenz.t501.driver.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.aloyenz.t501.driver.bash.ScriptSupervisor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Press-to-completion latency of a trivial BASH_SCRIPT script:
+ * a new process for every script ({@code shellWorkers = 0}) against a warm shell worker.
+ * {@code true} is a shell builtin, {@code /bin/true} is started by the shell as a new process.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScriptExecutionBenchmark {
+
+    @Param({"0", "1"})
+    public int shellWorkers;
+
+    @Param({"true", "/bin/true"})
+    public String command;
+
+    private String[] script;
+
+    private ScriptSupervisor supervisor;
+
+    @Setup
+    public void setup() {
+        supervisor = new ScriptSupervisor(1, shellWorkers);
+        script = new String[] { command };
+    }
+
+    @TearDown
+    public void tearDown() {
+        supervisor.shutdown();
+    }
+
+    @Benchmark
+    public int execute() throws InterruptedException {
+        return supervisor.execute(script, 0);
+    }
+}
@@ -0,0 +1,86 @@
+package ru.aloyenz.t501.driver.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.aloyenz.t501.driver.device.PenReport;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.SharedPenState;
+import ru.aloyenz.t501.driver.shared.SharedPenStateReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishing a decoded report to the shared state file. Decoding is included,
+ * compare with the decode score to get the cost of publishing itself.
+ * The contended group publishes while another thread keeps reading the state, like a busy overlay.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SharedPenStateBenchmark {
+
+    private static final int CORPUS_SIZE = 1024;
+
+    private Path file;
+    private SharedPenState state;
+    private SharedPenStateReader reader;
+    private PenReport report;
+
+    private ByteBuffer[] corpus;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        // The same tmpfs as of the driver, if there is one
+        Path shm = Path.of("/dev/shm");
+        Path directory = Files.isDirectory(shm) ? shm : BenchmarkEnvironment.init();
+        file = directory.resolve("t501_pen_benchmark_" + ProcessHandle.current().pid());
+
+        state = SharedPenState.create(file);
+        reader = SharedPenStateReader.open(file);
+        report = new PenReport();
+        corpus = SyntheticReports.corpus(CORPUS_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @Group("decode")
+    public int decode() {
+        ReportDecoder.decode(corpus[next++ & (CORPUS_SIZE - 1)], report);
+        report.sequence++;
+        return report.x + report.pressure;
+    }
+
+    @Benchmark
+    @Group("publish")
+    public int publish() {
+        ReportDecoder.decode(corpus[next++ & (CORPUS_SIZE - 1)], report);
+        report.sequence++;
+        state.publish(report);
+        return report.x + report.pressure;
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public int publishWhileRead() {
+        return publish();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public SharedPenStateReader.State read() {
+        return reader.read();
+    }
+}
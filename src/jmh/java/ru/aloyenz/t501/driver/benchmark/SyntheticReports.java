@@ -0,0 +1,75 @@
+package ru.aloyenz.t501.driver.benchmark;
+
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Generates T501 stylus reports: strokes with hover approach, contact pressure ramp and tilt sweep,
+ * stylus button presses, tablet button transitions and leaving the hover range.
+ */
+final class SyntheticReports {
+
+    // Pressed bits of tablet buttons (1 = released): Ctrl, mouse scroll, B
+    private static final int[] TABLET_BUTTONS = {0x0010, 0x0004, 0x0800};
+
+    private static final int STROKE_LENGTH = 128;
+
+    private SyntheticReports() {}
+
+    static ByteBuffer[] corpus(int size) {
+        ByteBuffer[] reports = new ByteBuffer[size];
+
+        for (int i = 0; i < size; i++) {
+            int stroke = i / STROKE_LENGTH;
+            int step = i % STROKE_LENGTH;
+
+            // 0..31 hover approach, 32..95 contact, 96..123 hover, 124..127 out of range
+            int rawPressure;
+            if (step < 32) {
+                rawPressure = 1390 - step;
+            } else if (step < 96) {
+                int depth = step < 64 ? step - 32 : 95 - step;
+                rawPressure = 1300 - depth * 19;
+            } else if (step < 124) {
+                rawPressure = 1380;
+            } else {
+                rawPressure = 0;
+            }
+
+            int x = 200 + (stroke * 397 + step * 23) % 3600;
+            // Y stays below the special buttons strip
+            int y = 200 + (stroke * 211 + step * 17) % 3600;
+
+            int tiltX = 128 + (step % 64) - 32;
+            int tiltY = 128 - (step % 48) + 24;
+
+            int stylusButtons = (stroke % 4 == 1 && step >= 40 && step < 80) ? 0x04 : 0x02;
+
+            int tabletButtons = 0xFFFF;
+            if (stroke % 3 == 2 && step >= 16 && step < 48) {
+                tabletButtons &= ~TABLET_BUTTONS[stroke % TABLET_BUTTONS.length];
+            }
+
+            reports[i] = report(x, y, rawPressure, tiltX, tiltY, stylusButtons, tabletButtons);
+        }
+
+        return reports;
+    }
+
+    private static ByteBuffer report(int x, int y, int rawPressure, int tiltX, int tiltY,
+                                     int stylusButtons, int tabletButtons) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+
+        buffer.put(0, ReportDecoder.STYLUS_REPORT_ID);
+        buffer.putShort(1, (short) x);
+        buffer.putShort(3, (short) y);
+        buffer.putShort(5, (short) rawPressure);
+        buffer.put(9, (byte) stylusButtons);
+        buffer.putShort(11, (short) tabletButtons);
+        buffer.put(13, (byte) tiltX);
+        buffer.put(14, (byte) tiltY);
+
+        return buffer;
+    }
+}
@@ -72,7 +72,7 @@ JNIEXPORT jlong JNICALL Java_ru_aloyenz_t501_driver_virtual_VKeyboard_initialize
 }
 
 JNIEXPORT jint JNICALL Java_ru_aloyenz_t501_driver_virtual_VKeyboard_keyboardKeyEvent
-  (JNIEnv *env, jclass class, jlong fdPointer, jintArray keyCodes, jbooleanArray keyStates) {
+  (JNIEnv *env, jclass class, jlong fdPointer, jintArray keyCodes, jbooleanArray keyStates, jint count) {
 
     struct input_event ev;
     memset(&ev, 0, sizeof(ev));
@@ -83,7 +83,7 @@ JNIEXPORT jint JNICALL Java_ru_aloyenz_t501_driver_virtual_VKeyboard_keyboardKey
     jsize statesCount = (*env)->GetArrayLength(env, keyStates);
     jboolean *states = (*env)->GetBooleanArrayElements(env, keyStates, NULL);
 
-    for (jsize i = 0; i < keyCount && i < statesCount; i++) {
+    for (jsize i = 0; i < count && i < keyCount && i < statesCount; i++) {
         ev.type = EV_KEY;
         ev.code = keys[i];
         ev.value = states[i] ? 1 : 0;
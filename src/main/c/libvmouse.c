@@ -65,26 +65,29 @@ JNIEXPORT jlong JNICALL Java_ru_aloyenz_t501_driver_virtual_VMouse_initialize
 }
 
 JNIEXPORT jint JNICALL Java_ru_aloyenz_t501_driver_virtual_VMouse_mouseEvent
-    (JNIEnv *env, jclass class, jlong fdPointer, jintArray keyCodes, jbooleanArray isRel, jintArray values) {
+    (JNIEnv *env, jclass class, jlong fdPointer, jintArray keyCodes, jbooleanArray isRel, jintArray values, jint count) {
 
     struct input_event ev;
     memset(&ev, 0, sizeof(ev));
 
     jsize keyCount = (*env)->GetArrayLength(env, keyCodes);
+    jsize relCount = (*env)->GetArrayLength(env, isRel);
+    jsize valueCount = (*env)->GetArrayLength(env, values);
+
     jint *keys = (*env)->GetIntArrayElements(env, keyCodes, NULL);
     jboolean *rels = (*env)->GetBooleanArrayElements(env, isRel, NULL);
     jint *vals = (*env)->GetIntArrayElements(env, values, NULL);
 
-    for (jsize i = 0; i < keyCount; i++) {
+    for (jsize i = 0; i < count && i < keyCount && i < relCount && i < valueCount; i++) {
         ev.type = rels[i] ? EV_REL : EV_KEY;
         ev.code = keys[i];
         ev.value = vals[i];
 
         if (write((int)fdPointer, &ev, sizeof(ev)) < 0) {
             // Release resources
-            (*env)->ReleaseIntArrayElements(env, keyCodes, keys, 0);
-            (*env)->ReleaseBooleanArrayElements(env, isRel, rels, 0);
-            (*env)->ReleaseIntArrayElements(env, values, vals, 0);
+            (*env)->ReleaseIntArrayElements(env, keyCodes, keys, JNI_ABORT);
+            (*env)->ReleaseBooleanArrayElements(env, isRel, rels, JNI_ABORT);
+            (*env)->ReleaseIntArrayElements(env, values, vals, JNI_ABORT);
             return -1; // Error while writing event
         }
     }
@@ -94,12 +97,17 @@ JNIEXPORT jint JNICALL Java_ru_aloyenz_t501_driver_virtual_VMouse_mouseEvent
     ev.code = SYN_REPORT;
     ev.value = 0;
     if (write((int)fdPointer, &ev, sizeof(ev)) < 0) {
-        (*env)->ReleaseIntArrayElements(env, keyCodes, keys, 0);
-        (*env)->ReleaseBooleanArrayElements(env, isRel, rels, 0);
-        (*env)->ReleaseIntArrayElements(env, values, vals, 0);
+        (*env)->ReleaseIntArrayElements(env, keyCodes, keys, JNI_ABORT);
+        (*env)->ReleaseBooleanArrayElements(env, isRel, rels, JNI_ABORT);
+        (*env)->ReleaseIntArrayElements(env, values, vals, JNI_ABORT);
         return -2; // Error writing sync
     }
 
+    // Releasing... Arrays are only read, so nothing to copy back
+    (*env)->ReleaseIntArrayElements(env, keyCodes, keys, JNI_ABORT);
+    (*env)->ReleaseBooleanArrayElements(env, isRel, rels, JNI_ABORT);
+    (*env)->ReleaseIntArrayElements(env, values, vals, JNI_ABORT);
+
     return 0;
 }
 
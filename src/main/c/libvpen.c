@@ -11,6 +11,65 @@
 
 #include "ru_aloyenz_t501_driver_virtual_VPen.h"
 
+// Max events in one frame: tool, X, Y, pressure, tilt X, tilt Y, touch, 2 stylus buttons and sync
+#define MAX_FRAME_EVENTS 10
+
+// File descriptors above this limit are written without state tracking
+#define MAX_TRACKED_FDS 1024
+
+// Last emitted state of the virtual pen, so writeFrame sends only changed values
+struct pen_state {
+    int valid;
+    int inRange;
+    int x;
+    int y;
+    int pressure;
+    int tiltX;
+    int tiltY;
+    int touch;
+    int plusPressed;
+    int minusPressed;
+};
+
+static struct pen_state pen_states[MAX_TRACKED_FDS];
+
+static void reset_state(jlong fd) {
+    if (fd >= 0 && fd < MAX_TRACKED_FDS) {
+        memset(&pen_states[fd], 0, sizeof(struct pen_state));
+    }
+}
+
+static void add_event(struct input_event *frame, int *count, int type, int code, int value) {
+    frame[*count].type = type;
+    frame[*count].code = code;
+    frame[*count].value = value;
+    (*count)++;
+}
+
+// Adds event if value differs from the last emitted one (or if there is no state yet)
+static void add_changed(struct input_event *frame, int *count, int valid, int *last,
+                        int type, int code, int value) {
+    if (!valid || *last != value) {
+        add_event(frame, count, type, code, value);
+        *last = value;
+    }
+}
+
+static int write_frame(jlong fd, struct input_event *frame, int count) {
+    ssize_t size = (ssize_t) (count * sizeof(struct input_event));
+    ssize_t written = write((int)fd, frame, size);
+
+    if (written < 0) {
+        return -2; // Error writing frame
+    }
+
+    if (written != size) {
+        return -3; // Frame was written partially
+    }
+
+    return 0;
+}
+
 JNIEXPORT jlong JNICALL Java_ru_aloyenz_t501_driver_virtual_VPen_initialize
         (JNIEnv *env, jclass clazz, jstring deviceName) {
     const char *name = (*env)->GetStringUTFChars(env, deviceName, NULL);
@@ -105,6 +164,7 @@ JNIEXPORT jlong JNICALL Java_ru_aloyenz_t501_driver_virtual_VPen_initialize
     }
 
     (*env)->ReleaseStringUTFChars(env, deviceName, name);
+    reset_state(fd);
     return (jlong)fd; // Return file descriptor as jlong
 }
 
@@ -115,6 +175,8 @@ JNIEXPORT jint JNICALL Java_ru_aloyenz_t501_driver_virtual_VPen_writePosition
         return -1; // Invalid file descriptor
     }
 
+    // This function writes everything, so writeFrame must not rely on its state anymore
+    reset_state(fd);
 
     struct input_event ev;
     memset(&ev, 0, sizeof(ev));
@@ -196,9 +258,82 @@ JNIEXPORT jint JNICALL Java_ru_aloyenz_t501_driver_virtual_VPen_writePosition
     return 0; // Success
 }
 
+JNIEXPORT jint JNICALL Java_ru_aloyenz_t501_driver_virtual_VPen_writeFrame
+        (JNIEnv *env, jclass clazz, jlong fd, jint x, jint y, jint pressure, jboolean touch, jint tiltX, jint tiltY,
+        jboolean plusPressed, jboolean minusPressed) {
+    if (fd <= 0) {
+        return -1; // Invalid file descriptor
+    }
+
+    struct input_event frame[MAX_FRAME_EVENTS];
+    memset(frame, 0, sizeof(frame));
+    int count = 0;
+
+    struct pen_state untracked;
+    memset(&untracked, 0, sizeof(untracked));
+    struct pen_state *state = fd < MAX_TRACKED_FDS ? &pen_states[fd] : &untracked;
+    int valid = state->valid;
+
+    // Stylus always present while writing position
+    add_changed(frame, &count, valid && state->inRange, &state->inRange, EV_KEY, BTN_TOOL_PEN, 1);
+
+    add_changed(frame, &count, valid, &state->x, EV_ABS, ABS_X, x);
+    add_changed(frame, &count, valid, &state->y, EV_ABS, ABS_Y, y);
+    add_changed(frame, &count, valid, &state->pressure, EV_ABS, ABS_PRESSURE, pressure);
+    add_changed(frame, &count, valid, &state->tiltX, EV_ABS, ABS_TILT_X, tiltX);
+    add_changed(frame, &count, valid, &state->tiltY, EV_ABS, ABS_TILT_Y, tiltY);
+
+    add_changed(frame, &count, valid, &state->touch, EV_KEY, BTN_TOUCH, touch ? 1 : 0);
+    add_changed(frame, &count, valid, &state->plusPressed, EV_KEY, BTN_STYLUS, plusPressed ? 1 : 0);
+    add_changed(frame, &count, valid, &state->minusPressed, EV_KEY, BTN_STYLUS2, minusPressed ? 1 : 0);
+
+    if (count == 0) {
+        return 0; // Nothing changed, nothing to send
+    }
+
+    state->valid = 1;
+
+    // Synchronize events
+    add_event(frame, &count, EV_SYN, SYN_REPORT, 0);
+
+    int result = write_frame(fd, frame, count);
+    if (result < 0) {
+        // Kernel state is unknown now, next frame will be sent in full
+        state->valid = 0;
+    }
+
+    return result;
+}
+
+JNIEXPORT jint JNICALL Java_ru_aloyenz_t501_driver_virtual_VPen_penLeave
+        (JNIEnv *env, jclass clazz, jlong fd) {
+    if (fd <= 0) {
+        return -1; // Invalid file descriptor
+    }
+
+    struct input_event frame[MAX_FRAME_EVENTS];
+    memset(frame, 0, sizeof(frame));
+    int count = 0;
+
+    // Releasing everything and removing the tool from proximity
+    add_event(frame, &count, EV_ABS, ABS_PRESSURE, 0);
+    add_event(frame, &count, EV_KEY, BTN_TOUCH, 0);
+    add_event(frame, &count, EV_KEY, BTN_STYLUS, 0);
+    add_event(frame, &count, EV_KEY, BTN_STYLUS2, 0);
+    add_event(frame, &count, EV_KEY, BTN_TOOL_PEN, 0);
+    add_event(frame, &count, EV_SYN, SYN_REPORT, 0);
+
+    // Next frame will be sent in full
+    reset_state(fd);
+
+    return write_frame(fd, frame, count);
+}
+
 JNIEXPORT void JNICALL Java_ru_aloyenz_t501_driver_virtual_VPen_shutdown(
     JNIEnv *env, jclass class, jlong fdPointer) {
   if (fdPointer > 0) {
+    reset_state(fdPointer);
+
     // Destroy uinput device
     ioctl((int)fdPointer, UI_DEV_DESTROY);
     // Close
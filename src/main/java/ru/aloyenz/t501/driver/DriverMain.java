@@ -4,19 +4,44 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usb4java.*;
 import ru.aloyenz.t501.driver.bash.ProcessManager;
+import ru.aloyenz.t501.driver.config.ConfigWatcher;
 import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.device.AsyncDeviceReader;
+import ru.aloyenz.t501.driver.device.BindingTable;
+import ru.aloyenz.t501.driver.device.ConfigSnapshot;
+import ru.aloyenz.t501.driver.device.DeviceConnectionListener;
 import ru.aloyenz.t501.driver.device.DeviceReader;
+import ru.aloyenz.t501.driver.device.DeviceReaderThreads;
 import ru.aloyenz.t501.driver.device.KeyCodesFetcher;
+import ru.aloyenz.t501.driver.device.PenSampleRing;
+import ru.aloyenz.t501.driver.device.PredictionEvaluator;
+import ru.aloyenz.t501.driver.device.ReportRecorder;
+import ru.aloyenz.t501.driver.device.ReportReplayer;
+import ru.aloyenz.t501.driver.device.SampleEmitterThreads;
+import ru.aloyenz.t501.driver.device.SharedPenStates;
+import ru.aloyenz.t501.driver.device.T501Device;
 import ru.aloyenz.t501.driver.device.T501DevicesHandler;
+import ru.aloyenz.t501.driver.device.VirtualDeviceRegistry;
 import ru.aloyenz.t501.driver.exception.InvalidSpecialConfigException;
+import ru.aloyenz.t501.driver.metrics.Metrics;
+import ru.aloyenz.t501.driver.metrics.MetricsServer;
+import ru.aloyenz.t501.driver.profiling.Profiler;
 import ru.aloyenz.t501.driver.virtual.NativesExtractor;
+import ru.aloyenz.t501.driver.virtual.UinputSink;
 import ru.aloyenz.t501.driver.virtual.VKeyboard;
 import ru.aloyenz.t501.driver.virtual.VMouse;
 import ru.aloyenz.t501.driver.virtual.VPen;
+import ru.aloyenz.t501.driver.window.GraphRing;
+import ru.aloyenz.t501.driver.window.RealTimeGraph;
 
 import javax.swing.*;
+import java.awt.AWTError;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
 
 public class DriverMain {
 
@@ -25,34 +50,38 @@ public class DriverMain {
     public static final String DRIVER_VERSION = "1.0.0";
     public static final String HID = "08f2";
     public static final String VID = "6811";
+    // The same ids as numbers, libusb filters hotplug events by them
+    private static final int VENDOR_ID = Integer.parseInt(HID, 16);
+    private static final int PRODUCT_ID = Integer.parseInt(VID, 16);
+
+    private static final String PROFILE_FILE = "t501_driver_profile.jfr";
+    // Samples waiting for the diagnostics window, about 15 seconds of a single tablet
+    private static final int DIAGNOSTICS_CAPACITY = 4096;
 
 //    public static final String HID = "046d";
 //    public static final String VID = "c52f";
 
     private static Thread hotplugThread;
-    private static Thread readThread;
-    private static Thread replicationThread;
+    private static volatile boolean hotplugRunning = false;
+    private static HotplugCallbackHandle hotplugHandle;
 
     private static final T501DevicesHandler HANDLER = new T501DevicesHandler();
-    private static final DeviceReader READER = new DeviceReader(HANDLER);
-
-    private static long virtualPenHandle = -1;
-    private static long virtualKeyboardHandle = -1;
-    private static long virtualMouseHandle = -1;
-
-    private static String nativePathPrefix = "native/ru/aloyenz/t501/driver/virtual/";
+    // Every tablet writes to its own virtual devices
+    private static final DeviceReader READER = new DeviceReader();
+    private static VirtualDeviceRegistry virtualDevices;
 
-    public static long getVirtualPenHandle() {
-        return virtualPenHandle;
-    }
+    private static AsyncDeviceReader asyncReader;
+    private static DeviceReaderThreads readerThreads;
+    private static ReportRecorder recorder;
+    private static ConfigWatcher configWatcher;
+    private static MetricsServer metricsServer;
+    private static SharedPenStates sharedStates;
+    private static boolean usbInitialized = false;
 
-    public static long getVirtualKeyboardHandle() {
-        return virtualKeyboardHandle;
-    }
+    // Keycodes of virtual keyboards, they are recreated when bindings need more
+    private static volatile int[] keyboardKeycodes = new int[0];
 
-    public static long getVirtualMouseHandle() {
-        return virtualMouseHandle;
-    }
+    private static String nativePathPrefix = "native/ru/aloyenz/t501/driver/virtual/";
 
     public static String getNativePathPrefix() {
         return nativePathPrefix;
@@ -66,11 +95,17 @@ public class DriverMain {
         // Reading args
         String configPath = "t501_driver_config.json";
         String userHeadersPath = null;
-        String userKeycodesCachePath = "keycodes.json";
+        String userKeycodesCachePath = "keycodes.bin";
         String nativeLibPathPrefix = "native/ru/aloyenz/t501/driver/virtual/";
         boolean forceFetchKeycodes = false;
-
-        for (int i = 0; i < args.length - 1; i++) {
+        String recordPath = null;
+        String replayPath = null;
+        double replaySpeed = 1;
+        String evaluatePredictionPath = null;
+        int profileSeconds = 0;
+        boolean diagnostics = false;
+
+        for (int i = 0; i < args.length; i++) {
             if (args[i].equalsIgnoreCase("--config")) {
                 if (i + 1 < args.length) {
                     configPath = args[i + 1];
@@ -107,9 +142,70 @@ public class DriverMain {
                 }
             }
 
+            if (args[i].equalsIgnoreCase("--record")) {
+                if (i + 1 < args.length) {
+                    recordPath = args[i + 1];
+                } else {
+                    logger.error("No recording file path provided after --record");
+                    return;
+                }
+            }
+
+            if (args[i].equalsIgnoreCase("--replay")) {
+                if (i + 1 < args.length) {
+                    replayPath = args[i + 1];
+                } else {
+                    logger.error("No recording file path provided after --replay");
+                    return;
+                }
+            }
+
+            if (args[i].equalsIgnoreCase("--replay-speed")) {
+                if (i + 1 >= args.length) {
+                    logger.error("No replay speed provided after --replay-speed");
+                    return;
+                }
+                if (args[i + 1].equalsIgnoreCase("max")) {
+                    replaySpeed = 0;
+                } else {
+                    try {
+                        replaySpeed = Double.parseDouble(args[i + 1]);
+                    } catch (NumberFormatException e) {
+                        logger.error("Invalid replay speed: {}. Expected a multiplier or 'max'", args[i + 1]);
+                        return;
+                    }
+                }
+            }
+
+            if (args[i].equalsIgnoreCase("--evaluate-prediction")) {
+                if (i + 1 < args.length) {
+                    evaluatePredictionPath = args[i + 1];
+                } else {
+                    logger.error("No recording file path provided after --evaluate-prediction");
+                    return;
+                }
+            }
+
+            if (args[i].equalsIgnoreCase("--profile")) {
+                if (i + 1 >= args.length) {
+                    logger.error("No profiling duration provided after --profile");
+                    return;
+                }
+                try {
+                    profileSeconds = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException e) {
+                    logger.error("Invalid profiling duration: {}. Expected seconds", args[i + 1]);
+                    return;
+                }
+            }
+
             if (args[i].equalsIgnoreCase("--force-fetch-keycodes")) {
                 forceFetchKeycodes = true;
             }
+
+            if (args[i].equalsIgnoreCase("--diagnostics")) {
+                diagnostics = true;
+            }
         }
 
         if (!nativeLibPathPrefix.endsWith("/")) {
@@ -125,6 +221,15 @@ public class DriverMain {
             }
         }
 
+        if (profileSeconds > 0) {
+            try {
+                Profiler.start(profileSeconds, Path.of(PROFILE_FILE));
+            } catch (IOException e) {
+                logger.error("Failed to start profiling: {}", e.getMessage(), e);
+                return;
+            }
+        }
+
         // Extracting native libraries
         try {
             NativesExtractor.extract();
@@ -162,16 +267,31 @@ public class DriverMain {
             }
         }
 
+        // Resolving key names of bindings and building pressure and tilt tables, again on every config change
+        ConfigSnapshot.publish(ConfigSnapshot.compile(Configuration.getInstance()));
+
+        if (evaluatePredictionPath != null) {
+            // Offline tool, virtual devices and tablets are not needed
+            try {
+                PredictionEvaluator.report(Path.of(evaluatePredictionPath), Configuration.getInstance().prediction);
+            } catch (IOException e) {
+                logger.error("Failed to evaluate prediction on {}: {}", evaluatePredictionPath, e.getMessage(), e);
+            }
+            return;
+        }
+
+        // Shell workers, if enabled, are started before the first button press
+        ProcessManager.init();
+
         // Initializing virtual pen
         logger.info("Initializing virtual pen, keyboard and mouse...");
+        keyboardKeycodes = BindingTable.getInstance().neededKeycodes();
+        virtualDevices = new VirtualDeviceRegistry(DriverMain::createVirtualDevices,
+                Configuration.getInstance().mouseRepeatDelayMs, Configuration.getInstance().mouseRepeatRate);
+        boolean prepared;
         try {
-            virtualPenHandle = VPen.initialize(Configuration.getInstance().penName);
-            virtualKeyboardHandle = VKeyboard.initialize(Configuration.getInstance().keyboardName,
-                    KeyCodesFetcher.getNeededKeycodes(
-                            Configuration.getInstance().keyboardConfiguration,
-                            Configuration.getInstance().specialButtonsConfiguration
-                    ));
-            virtualMouseHandle = VMouse.initialize(Configuration.getInstance().mouseName);
+            // Devices of the first tablet, more are created when more tablets are connected
+            prepared = virtualDevices.prepare();
         } catch (UnsatisfiedLinkError e) {
             // Native library not found or failed to load
             logger.error("Native library is not found or failed to load: {}.", e.getMessage(), e);
@@ -192,27 +312,67 @@ public class DriverMain {
             logger.error("If the problem still occurs, please, write a bug report including above information.");
             return;
         }
-        if (virtualPenHandle <= -1) {
-            logger.error("Failed to initialize virtual pen. Error code: {}", virtualPenHandle);
+        if (!prepared) {
             return;
         }
 
-        if (virtualKeyboardHandle <= -1) {
-            logger.error("Failed to initialize virtual keyboard. Error code: {}", virtualKeyboardHandle);
-            return;
+        SampleEmitterThreads emitters = null;
+        if (Configuration.getInstance().sampleRingCapacity > 0) {
+            emitters = new SampleEmitterThreads(READER, Configuration.getInstance().sampleRingCapacity);
+        }
+
+        if (diagnostics) {
+            openDiagnostics();
+        }
+
+        if (Configuration.getInstance().metricsPort > 0) {
+            startMetrics(Configuration.getInstance().metricsPort);
         }
 
-        if (virtualMouseHandle <= -1) {
-            logger.error("Failed to initialize virtual mouse. Error code: {}", virtualMouseHandle);
+        String sharedStateDirectory = Configuration.getInstance().sharedStateDirectory;
+        if (sharedStateDirectory != null && !sharedStateDirectory.isEmpty()) {
+            sharedStates = new SharedPenStates(Path.of(sharedStateDirectory));
+        }
+
+        if (replayPath != null) {
+            replay(replayPath, replaySpeed, emitters);
             return;
         }
 
+        if (recordPath != null) {
+            try {
+                recorder = new ReportRecorder(Path.of(recordPath));
+            } catch (IOException e) {
+                logger.error("Failed to create recording file {}: {}", recordPath, e.getMessage(), e);
+                return;
+            }
+            READER.setRecorder(recorder);
+        }
+
         int code = LibUsb.init(null);
         if (code != LibUsb.SUCCESS) {
             throw new RuntimeException("Unable to initialize libusb: " + LibUsb.strError(code));
         }
+        usbInitialized = true;
 
-        // Initializing virtual pen
+        // Readers must know about devices found by findDevice() and hotplug.
+        // Virtual devices and emitters go first: they must exist before the first report is read
+        HANDLER.addConnectionListener(virtualDevices);
+        if (emitters != null) {
+            HANDLER.addConnectionListener(emitters);
+        }
+        if (sharedStates != null) {
+            HANDLER.addConnectionListener(sharedStates);
+        }
+
+        if (Configuration.getInstance().asyncTransfers) {
+            logger.info("Using asynchronous transfers, queue depth: {}", Configuration.getInstance().transferQueueDepth);
+            asyncReader = new AsyncDeviceReader(READER::applyInput, Configuration.getInstance().transferQueueDepth);
+            HANDLER.addConnectionListener(asyncReader);
+        } else {
+            readerThreads = new DeviceReaderThreads(READER);
+            HANDLER.addConnectionListener(readerThreads);
+        }
 
         findDevice();
         if (HANDLER.isEmpty()) {
@@ -222,8 +382,10 @@ public class DriverMain {
         }
 
         logger.info("Registering hotplug...");
+        // Called only for T501 devices, libusb filters events by vendor and product ids
         HotplugCallback callback = (Context context, Device device, int event,
                                     Object userData) -> {
+            long eventNanos = System.nanoTime();
 
             DeviceDescriptor descriptor = new DeviceDescriptor();
             int result = LibUsb.getDeviceDescriptor(device, descriptor);
@@ -232,67 +394,207 @@ public class DriverMain {
                 return 0;
             }
 
-            String vid = String.format("%04x", descriptor.idProduct() & 0xffff);
-            String hid = String.format("%04x", descriptor.idVendor() & 0xffff);
-
-            if (vid.equals(VID) && hid.equals(HID)) {
-                if (event == LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED) {
-                    logger.info("T501 device connected via hotplug: VID={} PID={}", vid, hid);
-                    HANDLER.onDeviceConnected(device, descriptor);
-                } else if (event == LibUsb.HOTPLUG_EVENT_DEVICE_LEFT) {
-                    logger.info("T501 device disconnected via hotplug: VID={} PID={}", vid, hid);
-                    HANDLER.onDeviceDisconnected(descriptor);
-                }
+            if (event == LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED) {
+                logger.info("T501 device connected via hotplug: VID={} PID={}", VID, HID);
+                HANDLER.onDeviceConnected(device, descriptor, eventNanos, true);
+            } else if (event == LibUsb.HOTPLUG_EVENT_DEVICE_LEFT) {
+                logger.info("T501 device disconnected via hotplug: VID={} PID={}", VID, HID);
+                HANDLER.onDeviceDisconnected(device, descriptor);
             }
 
             return 0; // Do not unregister!
         };
 
-        LibUsb.hotplugRegisterCallback(null,
+        // Devices found by findDevice() are enumerated again, and skipped by the handler
+        hotplugHandle = new HotplugCallbackHandle();
+        int hotplugResult = LibUsb.hotplugRegisterCallback(null,
                 LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED | LibUsb.HOTPLUG_EVENT_DEVICE_LEFT,
                 LibUsb.HOTPLUG_ENUMERATE,
-                LibUsb.HOTPLUG_MATCH_ANY,
-                LibUsb.HOTPLUG_MATCH_ANY,
+                VENDOR_ID,
+                PRODUCT_ID,
                 LibUsb.HOTPLUG_MATCH_ANY,
                 callback,
                 null,
-                null);
+                hotplugHandle);
+        if (hotplugResult != LibUsb.SUCCESS) {
+            logger.error("Failed to register hotplug callback, plugged tablets are not connected: {}",
+                    LibUsb.strError(hotplugResult));
+            hotplugHandle = null;
+        }
 
-        hotplugThread = new Thread(() -> {
-            while (true) {
-                int c = LibUsb.handleEventsTimeoutCompleted(null, 500000, null);
-                if (c != LibUsb.SUCCESS) {
-                    logger.error("Error handling USB events: {}", LibUsb.strError(c));
+        if (asyncReader != null) {
+            // Event thread of async reader handles hotplug events too
+            asyncReader.start();
+        } else {
+            hotplugRunning = true;
+            hotplugThread = new Thread(() -> {
+                // Blocks until an event arrives, so plugged tablet is connected right away. Woken by stop()
+                while (hotplugRunning) {
+                    int c = LibUsb.handleEventsCompleted(null, null);
+                    if (c != LibUsb.SUCCESS && c != LibUsb.ERROR_INTERRUPTED) {
+                        logger.error("Error handling USB events: {}", LibUsb.strError(c));
+                        Metrics.usbError(c);
+                    }
                 }
+            }, "T501 hotplug");
+            hotplugThread.start();
+        }
 
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    logger.error("Hotplug thread interrupted, exiting.");
-                    break;
-                }
+        try {
+            configWatcher = new ConfigWatcher(configFile, DriverMain::applyConfiguration);
+            configWatcher.start();
+        } catch (IOException e) {
+            logger.error("Failed to watch configuration file, its changes are applied only after restart: {}",
+                    e.getMessage(), e);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(DriverMain::stop));
+    }
+
+    /**
+     * Makes reloaded configuration current. Called by the configuration watcher thread.
+     */
+    private static void applyConfiguration(Configuration configuration) {
+        List<String> restartRequired = Configuration.getInstance().restartRequiredChanges(configuration);
+        if (!restartRequired.isEmpty()) {
+            logger.warn("Changes of {} are applied only after restart", String.join(", ", restartRequired));
+        }
+
+        ConfigSnapshot snapshot = ConfigSnapshot.compile(configuration);
+
+        // New bindings may need keys which the virtual keyboard can't send
+        if (!snapshot.bindings().isCoveredBy(keyboardKeycodes)) {
+            recreateKeyboard(snapshot.bindings().neededKeycodes());
+        }
+
+        ConfigSnapshot.publish(snapshot);
+        Configuration.setInstance(configuration);
+
+        logger.info("Configuration reloaded.");
+    }
+
+    private static void recreateKeyboard(int[] keycodes) {
+        // Devices created from now on get new keycodes, ones created before are recreated
+        keyboardKeycodes = keycodes;
+        virtualDevices.forEachSink((sink, number) -> {
+            if (!(sink instanceof UinputSink uinputSink)) {
+                return;
+            }
+
+            long handle = VKeyboard.initialize(virtualDeviceName(Configuration.getInstance().keyboardName, number),
+                    keycodes);
+            if (handle <= -1) {
+                logger.error("Failed to recreate virtual keyboard for new keys. Error code: {}", handle);
+                return;
             }
+
+            uinputSink.replaceKeyboard(handle);
         });
-        hotplugThread.start();
 
-        replicationThread = READER.getReplicationThread();
-        replicationThread.start();
+        logger.info("Virtual keyboards recreated with {} keys", keycodes.length);
+    }
 
-        readThread = new Thread(() -> {
-            while (true) {
-                READER.read();
+    /**
+     * Creates virtual pen, keyboard and mouse of a tablet.
+     *
+     * @return null if any of the devices could not be created
+     */
+    private static UinputSink createVirtualDevices(int number) {
+        Configuration configuration = Configuration.getInstance();
+
+        long pen = VPen.initialize(virtualDeviceName(configuration.penName, number));
+        if (pen <= -1) {
+            logger.error("Failed to initialize virtual pen #{}. Error code: {}", number, pen);
+            return null;
+        }
 
-                try {
-                    Thread.sleep(Configuration.getInstance().readThreadDelayMs);
-                } catch (InterruptedException e) {
-                    logger.error("Read thread interrupted, exiting.");
-                    break;
-                }
+        long keyboard = VKeyboard.initialize(virtualDeviceName(configuration.keyboardName, number), keyboardKeycodes);
+        if (keyboard <= -1) {
+            logger.error("Failed to initialize virtual keyboard #{}. Error code: {}", number, keyboard);
+            VPen.shutdown(pen);
+            return null;
+        }
+
+        long mouse = VMouse.initialize(virtualDeviceName(configuration.mouseName, number));
+        if (mouse <= -1) {
+            logger.error("Failed to initialize virtual mouse #{}. Error code: {}", number, mouse);
+            VPen.shutdown(pen);
+            VKeyboard.shutdown(keyboard);
+            return null;
+        }
+
+        return new UinputSink(pen, keyboard, mouse);
+    }
+
+    // Devices of the first tablet have configured names, next ones get their number appended
+    private static String virtualDeviceName(String name, int number) {
+        return number == 1 ? name : name + " #" + number;
+    }
+
+    private static void openDiagnostics() {
+        if (GraphicsEnvironment.isHeadless()) {
+            logger.error("Diagnostics window can't be opened without a display");
+            return;
+        }
+
+        GraphRing graph = new GraphRing(DIAGNOSTICS_CAPACITY, RealTimeGraph.CHANNELS);
+        READER.setGraph(graph);
+
+        SwingUtilities.invokeLater(() -> {
+            try {
+                RealTimeGraph.open(graph, () -> {
+                    // Samples are not copied anymore
+                    READER.setGraph(null);
+                    logger.info("Diagnostics window is closed");
+                });
+            } catch (HeadlessException | AWTError e) {
+                READER.setGraph(null);
+                logger.error("Failed to open diagnostics window: {}", e.getMessage());
             }
         });
-        readThread.start();
+    }
+
+    private static void startMetrics(int port) {
+        Metrics.gauge("t501_devices_connected", "Connected tablets", () -> HANDLER.devices().length);
+        Metrics.gauge("t501_sample_ring_occupancy", "Samples waiting for emitter threads of all tablets",
+                DriverMain::sampleRingOccupancy);
+        Metrics.gauge("t501_scripts_running", "Scripts running now", ProcessManager::runningCount);
+        Metrics.gauge("t501_scripts_waiting", "Scripts waiting for a free slot of max_threads_for_scripts",
+                ProcessManager::waitingCount);
+        Metrics.gauge("t501_scripts_queued", "Button presses waiting for running scripts of the button",
+                ProcessManager::queuedCount);
+
+        try {
+            metricsServer = MetricsServer.start(port);
+        } catch (IOException e) {
+            // The driver works without them
+            logger.error("Failed to serve metrics on port {}: {}", port, e.getMessage(), e);
+        }
+    }
+
+    private static long sampleRingOccupancy() {
+        long occupancy = 0;
+        for (T501Device device : HANDLER.devices()) {
+            PenSampleRing samples = device.samples();
+            if (samples != null) {
+                occupancy += samples.occupancy();
+            }
+        }
+        return occupancy;
+    }
 
+    private static void replay(String replayPath, double replaySpeed, SampleEmitterThreads emitters) {
         Runtime.getRuntime().addShutdownHook(new Thread(DriverMain::stop));
+
+        try {
+            new ReportReplayer(Path.of(replayPath), READER::applyInput,
+                    DeviceConnectionListener.of(virtualDevices, emitters, sharedStates), replaySpeed).replay();
+        } catch (IOException e) {
+            logger.error("Failed to replay {}: {}", replayPath, e.getMessage(), e);
+        }
+
+        // Shutdown hook stops everything
+        System.exit(0);
     }
 
     private static void findDevice() {
@@ -315,11 +617,8 @@ public class DriverMain {
                     throw new RuntimeException("Unable to read device descriptor: " + LibUsb.strError(code));
                 }
 
-                String vid = String.format("%04x", descriptor.idProduct() & 0xffff);
-                String hid = String.format("%04x", descriptor.idVendor() & 0xffff);
-
-                if (vid.equals(VID) && hid.equals(HID)) {
-                    logger.info("T501 device found: VID={} PID={}", vid, hid);
+                if ((descriptor.idVendor() & 0xffff) == VENDOR_ID && (descriptor.idProduct() & 0xffff) == PRODUCT_ID) {
+                    logger.info("T501 device found: VID={} PID={}", VID, HID);
 
                     HANDLER.onDeviceConnected(device, descriptor);
                 }
@@ -332,40 +631,80 @@ public class DriverMain {
     public static void stop() {
         logger.info("Stopping all devices...");
 
+        if (configWatcher != null) {
+            try {
+                configWatcher.close();
+            } catch (IOException e) {
+                logger.error("Failed to stop configuration watcher: {}", e.getMessage(), e);
+            }
+        }
+
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+
         // Stopping thread
-        hotplugThread.interrupt();
-        try {
-            hotplugThread.join();
-        } catch (InterruptedException ignored) {}
+        if (asyncReader != null) {
+            asyncReader.stop();
+        }
 
-        readThread.interrupt();
-        try {
-            readThread.join();
-        } catch (InterruptedException ignored) {}
+        if (readerThreads != null) {
+            readerThreads.stop();
+        }
 
-        replicationThread.interrupt();
-        try {
-            replicationThread.join();
-        } catch (InterruptedException ignored) {}
+        if (hotplugHandle != null) {
+            LibUsb.hotplugDeregisterCallback(null, hotplugHandle);
+        }
+
+        if (hotplugThread != null) {
+            hotplugRunning = false;
+            LibUsb.interruptEventHandler(null);
+            stopThread(hotplugThread);
+        }
 
         // Reattaching kernel drivers for alive devices
         HANDLER.reattachKernelDrivers();
 
-        // Removing virtual devices
-        if (virtualPenHandle > -1) {
-            VPen.shutdown(virtualPenHandle);
-        } else if (virtualKeyboardHandle > -1) {
-            VKeyboard.shutdown(virtualKeyboardHandle);
-        } else if (virtualMouseHandle > -1) {
-            VMouse.shutdown(virtualMouseHandle);
+        // After tablets are marked as disconnected in them
+        if (sharedStates != null) {
+            sharedStates.close();
+        }
+
+        if (recorder != null) {
+            READER.setRecorder(null);
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                logger.error("Failed to finish recording: {}", e.getMessage(), e);
+            }
+        }
+
+        // After emitters are stopped: releases held mouse buttons and removes virtual devices
+        if (virtualDevices != null) {
+            virtualDevices.close();
         }
 
         // Cleaning up processes
         ProcessManager.shutdown();
 
         // Cleaning up libusb
-        LibUsb.exit(null);
+        if (usbInitialized) {
+            LibUsb.exit(null);
+        }
+
+        Profiler.stop();
 
         logger.info("Driver stopped.");
     }
+
+    private static void stopThread(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException ignored) {}
+    }
 }
@@ -0,0 +1,22 @@
+package ru.aloyenz.t501.driver.bash;
+
+import ru.aloyenz.t501.driver.config.special.ScriptOverflowPolicy;
+import ru.aloyenz.t501.driver.config.special.SpecialAction;
+
+/**
+ * Scripts of a BASH_SCRIPT button with their run settings.
+ *
+ * @param scripts commands run one after another on every run. Must not be modified
+ * @param maxQueuedRuns presses which may wait with {@link ScriptOverflowPolicy#QUEUE}
+ * @param timeoutMs time after which every script is killed, 0 - no timeout
+ */
+public record ScriptAction(String[][] scripts, ScriptOverflowPolicy overflowPolicy, int maxQueuedRuns, long timeoutMs) {
+
+    public static final ScriptAction EMPTY = new ScriptAction(new String[0][], ScriptOverflowPolicy.DROP, 0, 0);
+
+    public static ScriptAction of(SpecialAction action) {
+        return new ScriptAction(action.scripts,
+                action.overflowPolicy == null ? ScriptOverflowPolicy.COALESCE : action.overflowPolicy,
+                Math.max(0, action.maxQueuedRuns), Math.max(0, action.timeoutMs));
+    }
+}
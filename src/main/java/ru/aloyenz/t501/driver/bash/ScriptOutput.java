@@ -0,0 +1,44 @@
+package ru.aloyenz.t501.driver.bash;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Last lines of a script output stream. Older lines are overwritten, so a chatty script
+ * never holds more than {@link #capacity} lines.
+ */
+public final class ScriptOutput {
+
+    private final String[] lines;
+    private long written = 0;
+
+    public ScriptOutput(int capacity) {
+        this.lines = new String[capacity];
+    }
+
+    public synchronized void add(String line) {
+        lines[(int) (written % lines.length)] = line;
+        written++;
+    }
+
+    /** Kept lines, oldest first */
+    public synchronized List<String> lines() {
+        int count = (int) Math.min(written, lines.length);
+
+        List<String> result = new ArrayList<>(count);
+        for (long i = written - count; i < written; i++) {
+            result.add(lines[(int) (i % lines.length)]);
+        }
+
+        return result;
+    }
+
+    /** Count of overwritten lines */
+    public synchronized long dropped() {
+        return Math.max(0, written - lines.length);
+    }
+
+    public int capacity() {
+        return lines.length;
+    }
+}
@@ -0,0 +1,388 @@
+package ru.aloyenz.t501.driver.bash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aloyenz.t501.driver.config.special.ScriptOverflowPolicy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs scripts of BASH_SCRIPT buttons.
+ * <p>
+ * Runs of buttons and output pumps of scripts are virtual threads, so a press never waits for scripts
+ * and a burst of presses costs almost nothing. A button has at most one run at a time, presses during
+ * the run are dropped, coalesced or queued as its {@link ScriptOverflowPolicy} says.
+ * Output of every script is kept in bounded {@link ScriptOutput} rings and logged when the script exits.
+ * <p>
+ * Scripts are new processes, or, with shell workers, commands of warm {@code /bin/sh} processes ({@link ShellWorkers}).
+ */
+public class ScriptSupervisor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScriptSupervisor.class);
+
+    // Kept lines of every output stream of a script
+    static final int OUTPUT_LINES = 32;
+    // Longer lines are cut
+    static final int MAX_LINE_LENGTH = 1024;
+
+    // Time between SIGTERM and SIGKILL of a timed out script
+    private static final long KILL_GRACE_MS = 1000;
+    // Children of a script may keep its output open after it exits
+    private static final long PUMP_JOIN_MS = 1000;
+
+    /** Exit code of a script which could not be started */
+    public static final int NOT_STARTED = -1;
+
+    // Scripts running at the same time
+    private final Semaphore permits;
+    // Null if every script is a new process
+    private final ShellWorkers shells;
+
+    private final ConcurrentHashMap<Integer, ButtonRuns> buttons = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Process> processes = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    // Buttons with a run, scripts holding a permit, scripts waiting for one and presses waiting for runs
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param maxRunning max count of scripts running at the same time, others wait for them
+     */
+    public ScriptSupervisor(int maxRunning) {
+        this(maxRunning, 0);
+    }
+
+    /**
+     * @param maxRunning max count of scripts running at the same time, others wait for them
+     * @param shellWorkers count of warm shells running the scripts, 0 - start a new process for every script
+     */
+    public ScriptSupervisor(int maxRunning, int shellWorkers) {
+        this.permits = new Semaphore(Math.max(1, maxRunning));
+        this.shells = shellWorkers > 0 ? new ShellWorkers(shellWorkers) : null;
+    }
+
+    /**
+     * Runs scripts of the button or handles the press with the overflow policy if they are running.
+     * Never blocks.
+     *
+     * @return false if the press is dropped
+     */
+    public boolean run(int button, ScriptAction action) {
+        if (closed || action.scripts() == null || action.scripts().length == 0) {
+            return false;
+        }
+
+        ButtonRuns runs = buttons.computeIfAbsent(button, b -> new ButtonRuns());
+        synchronized (runs) {
+            if (!runs.running) {
+                runs.running = true;
+                active.incrementAndGet();
+                Thread.ofVirtual().name("T501 scripts of button #" + button)
+                        .start(() -> runLoop(runs, action));
+                return true;
+            }
+
+            switch (action.overflowPolicy()) {
+                case COALESCE -> {
+                    if (runs.pending.isEmpty()) {
+                        runs.pending.add(action);
+                        queued.incrementAndGet();
+                    } else {
+                        // The same single run, with settings of the latest press
+                        runs.pending.pollLast();
+                        runs.pending.add(action);
+                    }
+                    return true;
+                }
+                case QUEUE -> {
+                    if (runs.pending.size() < action.maxQueuedRuns()) {
+                        runs.pending.add(action);
+                        queued.incrementAndGet();
+                        return true;
+                    }
+
+                    LOGGER.warn("Too many runs of special button #{} are queued. Ignoring the press", button);
+                    return false;
+                }
+                default -> {
+                    LOGGER.debug("Scripts of special button #{} are running. Ignoring the press", button);
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Count of buttons with a run, whose script is running or waiting for other scripts to exit.
+     * A button runs one script at a time.
+     */
+    public int activeCount() {
+        return active.get();
+    }
+
+    /** Count of scripts running now, at most max running */
+    public int runningCount() {
+        return running.get();
+    }
+
+    /** Count of scripts waiting until fewer than max running scripts are running */
+    public int waitingCount() {
+        return waiting.get();
+    }
+
+    /** Count of button presses waiting for the current runs of their buttons */
+    public int queuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * Forgets queued runs and kills running scripts with their children.
+     */
+    public void shutdown() {
+        closed = true;
+
+        for (ButtonRuns runs : buttons.values()) {
+            synchronized (runs) {
+                queued.addAndGet(-runs.pending.size());
+                runs.pending.clear();
+            }
+        }
+
+        for (Process process : processes.values()) {
+            destroy(process, true);
+        }
+
+        if (shells != null) {
+            shells.close();
+        }
+    }
+
+    private void runLoop(ButtonRuns runs, ScriptAction action) {
+        while (action != null) {
+            try {
+                for (String[] script : action.scripts()) {
+                    if (closed) {
+                        break;
+                    }
+                    execute(script, action.timeoutMs());
+                }
+            } catch (InterruptedException e) {
+                // Exiting thread immediately
+                synchronized (runs) {
+                    runs.running = false;
+                    active.decrementAndGet();
+                }
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to run scripts", e);
+            }
+
+            synchronized (runs) {
+                action = closed ? null : runs.pending.poll();
+                if (action == null) {
+                    runs.running = false;
+                    active.decrementAndGet();
+                } else {
+                    queued.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the script on the calling thread and logs its output.
+     *
+     * @param timeoutMs time after which the script is killed, 0 - no timeout
+     * @return exit code of the script, {@link #NOT_STARTED} if it could not be started
+     */
+    public int execute(String[] script, long timeoutMs) throws InterruptedException {
+        waiting.incrementAndGet();
+        try {
+            permits.acquire();
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        running.incrementAndGet();
+        try {
+            long id = nextId.incrementAndGet();
+            ScriptOutput out = new ScriptOutput(OUTPUT_LINES);
+            ScriptOutput err = new ScriptOutput(OUTPUT_LINES);
+
+            int exitCode = shells != null
+                    ? shells.execute(id, script, timeoutMs, out, err)
+                    : spawn(id, script, timeoutMs, out, err);
+
+            if (exitCode != NOT_STARTED) {
+                report(id, exitCode, out, err);
+            }
+            return exitCode;
+        } finally {
+            running.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    private int spawn(long id, String[] script, long timeoutMs, ScriptOutput out, ScriptOutput err)
+            throws InterruptedException {
+        Process process;
+        try {
+            process = new ProcessBuilder(script).start();
+        } catch (IOException e) {
+            LOGGER.error("Failed to start script #{} ({}): {}", id, String.join(" ", script), e.getMessage());
+            return NOT_STARTED;
+        }
+
+        processes.put(id, process);
+        try {
+            if (closed) {
+                destroy(process, true);
+            }
+
+            LOGGER.debug("Started script #{}: {}", id, String.join(" ", script));
+
+            Thread outPump = pump(process.getInputStream(), out, id);
+            Thread errPump = pump(process.getErrorStream(), err, id);
+
+            boolean exited = await(process, timeoutMs);
+            if (!exited) {
+                LOGGER.error("Script #{} timed out after {} ms. Killing it", id, timeoutMs);
+                kill(process);
+            }
+
+            outPump.join(PUMP_JOIN_MS);
+            errPump.join(PUMP_JOIN_MS);
+
+            return process.exitValue();
+        } catch (InterruptedException e) {
+            destroy(process, true);
+            throw e;
+        } finally {
+            processes.remove(id);
+        }
+    }
+
+    // Waits without blocking a carrier thread. Returns false on timeout
+    static boolean await(Process process, long timeoutMs) throws InterruptedException {
+        try {
+            if (timeoutMs > 0) {
+                process.onExit().get(timeoutMs, TimeUnit.MILLISECONDS);
+            } else {
+                process.onExit().get();
+            }
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            // Never completes exceptionally
+            return true;
+        }
+    }
+
+    static void kill(Process process) throws InterruptedException {
+        destroy(process, false);
+
+        if (!await(process, KILL_GRACE_MS)) {
+            destroy(process, true);
+            await(process, 0);
+        }
+    }
+
+    static void destroy(Process process, boolean forcibly) {
+        // Children are known only while the script is alive. It's killed first, so it doesn't go on after them
+        List<ProcessHandle> children = process.descendants().toList();
+
+        if (forcibly) {
+            process.destroyForcibly();
+            children.forEach(ProcessHandle::destroyForcibly);
+        } else {
+            process.destroy();
+            children.forEach(ProcessHandle::destroy);
+        }
+    }
+
+    private static void report(long id, int exitCode, ScriptOutput out, ScriptOutput err) {
+        if (out.dropped() > 0) {
+            LOGGER.warn("Script #{} printed {} more lines to stdout", id, out.dropped());
+        }
+        for (String line : out.lines()) {
+            LOGGER.info("OUT #{}: {}", id, line);
+        }
+
+        if (err.dropped() > 0) {
+            LOGGER.warn("Script #{} printed {} more lines to stderr", id, err.dropped());
+        }
+        for (String line : err.lines()) {
+            LOGGER.error("ERR #{}: {}", id, line);
+        }
+
+        if (exitCode != 0) {
+            LOGGER.error("Script #{} exited with code {}", id, exitCode);
+        }
+    }
+
+    private static Thread pump(InputStream stream, ScriptOutput output, long id) {
+        return Thread.ofVirtual().name("T501 script #" + id + " output").start(() -> {
+            try {
+                readLines(stream, output::add);
+            } catch (IOException ignored) {
+                // Stream is closed when the script is killed
+            }
+        });
+    }
+
+    /**
+     * Reads lines of the stream until its end. Lines longer than {@link #MAX_LINE_LENGTH} are cut.
+     */
+    static void readLines(InputStream stream, Consumer<String> consumer) throws IOException {
+        try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[512];
+            StringBuilder line = new StringBuilder();
+            boolean cut = false;
+
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    char c = buffer[i];
+                    if (c == '\n') {
+                        consumer.accept(cut ? line.append("...").toString() : line.toString());
+                        line.setLength(0);
+                        cut = false;
+                    } else if (line.length() < MAX_LINE_LENGTH) {
+                        line.append(c);
+                    } else {
+                        cut = true;
+                    }
+                }
+            }
+
+            if (!line.isEmpty()) {
+                consumer.accept(cut ? line.append("...").toString() : line.toString());
+            }
+        }
+    }
+
+    private static final class ButtonRuns {
+
+        private boolean running = false;
+        private final ArrayDeque<ScriptAction> pending = new ArrayDeque<>();
+    }
+}
@@ -0,0 +1,202 @@
+package ru.aloyenz.t501.driver.bash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived {@code /bin/sh} running scripts sent to its stdin, one at a time.
+ * <p>
+ * After every script the shell prints a marker with the exit code to stdout and the marker to stderr,
+ * so output of scripts is told apart without restarting the shell. A timed out script is killed
+ * with the whole shell, which is restarted by {@link ShellWorkers}.
+ */
+final class ShellWorker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShellWorker.class);
+
+    private static final String SHELL = "/bin/sh";
+    private static final String MARKER = "__T501_SCRIPT_DONE_";
+
+    // Output left after the shell is killed
+    private static final long DRAIN_MS = 1000;
+
+    private final int index;
+
+    // Used by the thread running a script, process is also read on shutdown
+    private volatile Process process;
+    private Writer stdin;
+    private long scripts = 0;
+
+    // Read by output pumps
+    private volatile Execution current;
+
+    ShellWorker(int index) {
+        this.index = index;
+    }
+
+    int index() {
+        return index;
+    }
+
+    boolean isAlive() {
+        Process process = this.process;
+        return process != null && process.isAlive();
+    }
+
+    void start() throws IOException {
+        Process process = new ProcessBuilder(SHELL).start();
+
+        stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        pump(process, process.getInputStream(), false);
+        pump(process, process.getErrorStream(), true);
+        this.process = process;
+
+        LOGGER.debug("Started shell worker #{} (pid {})", index, process.pid());
+    }
+
+    void stop() {
+        Process process = this.process;
+        if (process != null) {
+            ScriptSupervisor.destroy(process, true);
+        }
+    }
+
+    /**
+     * Runs the script in the shell. The worker must be alive.
+     *
+     * @return exit code of the script or of the shell if it's died
+     */
+    int execute(long id, String[] script, long timeoutMs, ScriptOutput out, ScriptOutput err)
+            throws IOException, InterruptedException {
+        Process process = this.process;
+        Execution execution = new Execution(process, MARKER + index + "_" + (++scripts) + "__", out, err);
+
+        current = execution;
+        try {
+            stdin.write(command(script, execution.marker));
+            stdin.flush();
+
+            boolean completed;
+            if (timeoutMs > 0) {
+                completed = execution.done.await(timeoutMs, TimeUnit.MILLISECONDS);
+            } else {
+                execution.done.await();
+                completed = true;
+            }
+
+            if (!completed) {
+                LOGGER.error("Script #{} timed out after {} ms. Killing it with shell worker #{}", id, timeoutMs, index);
+                ScriptSupervisor.kill(process);
+                execution.done.await(DRAIN_MS, TimeUnit.MILLISECONDS);
+            }
+
+            if (execution.exitCode == Execution.SHELL_DIED) {
+                if (completed) {
+                    LOGGER.warn("Shell worker #{} exited while running script #{}", index, id);
+                }
+                return ScriptSupervisor.await(process, DRAIN_MS) ? process.exitValue() : 1;
+            }
+
+            return execution.exitCode;
+        } catch (InterruptedException e) {
+            ScriptSupervisor.destroy(process, true);
+            throw e;
+        } finally {
+            current = null;
+        }
+    }
+
+    /**
+     * Script arguments quoted for the shell, followed by the markers.
+     * The script runs in a subshell, so builtins like cd, export, umask or exec don't change the shell
+     * for the next scripts. Its stdin is /dev/null, so it never reads commands sent to the shell.
+     */
+    static String command(String[] script, String marker) {
+        StringBuilder command = new StringBuilder("(");
+        for (String argument : script) {
+            command.append(' ');
+            command.append('\'').append(argument.replace("'", "'\\''")).append('\'');
+        }
+
+        command.append(" ) </dev/null; printf '%s %d\\n' '").append(marker).append("' \"$?\"; ")
+                .append("printf '%s\\n' '").append(marker).append("' >&2\n");
+
+        return command.toString();
+    }
+
+    private void pump(Process process, InputStream stream, boolean isErr) {
+        Thread.ofVirtual().name("T501 shell worker #" + index + (isErr ? " stderr" : " stdout")).start(() -> {
+            try {
+                ScriptSupervisor.readLines(stream, line -> onLine(process, line, isErr));
+            } catch (IOException ignored) {
+                // Stream is closed when the shell is killed
+            }
+
+            // Shell is dead, nothing else is printed for the current script
+            Execution execution = current;
+            if (execution != null && execution.process == process) {
+                execution.done.countDown();
+            }
+        });
+    }
+
+    private void onLine(Process process, String line, boolean isErr) {
+        Execution execution = current;
+        if (execution == null || execution.process != process) {
+            // For example, output of a background job between scripts
+            return;
+        }
+
+        ScriptOutput output = isErr ? execution.err : execution.out;
+
+        int marker = line.indexOf(execution.marker);
+        if (marker < 0) {
+            output.add(line);
+            return;
+        }
+
+        // Last line of the script without line break
+        if (marker > 0) {
+            output.add(line.substring(0, marker));
+        }
+
+        if (!isErr) {
+            try {
+                execution.exitCode = Integer.parseInt(line.substring(marker + execution.marker.length()).trim());
+            } catch (NumberFormatException e) {
+                execution.exitCode = 1;
+            }
+        }
+        execution.done.countDown();
+    }
+
+    private static final class Execution {
+
+        static final int SHELL_DIED = Integer.MIN_VALUE;
+
+        private final Process process;
+        private final String marker;
+        private final ScriptOutput out;
+        private final ScriptOutput err;
+
+        // Both stdout and stderr markers, published by the latch
+        private final CountDownLatch done = new CountDownLatch(2);
+        private int exitCode = SHELL_DIED;
+
+        private Execution(Process process, String marker, ScriptOutput out, ScriptOutput err) {
+            this.process = process;
+            this.marker = marker;
+            this.out = out;
+            this.err = err;
+        }
+    }
+}
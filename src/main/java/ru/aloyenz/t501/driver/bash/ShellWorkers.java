@@ -0,0 +1,74 @@
+package ru.aloyenz.t501.driver.bash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Warm shells running scripts instead of a new process for every script, which saves
+ * process and shell startup on every button press. A dead shell is restarted when it's taken next time.
+ */
+final class ShellWorkers {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShellWorkers.class);
+
+    private final ShellWorker[] workers;
+    private final ArrayBlockingQueue<ShellWorker> idle;
+
+    private volatile boolean closed = false;
+
+    ShellWorkers(int count) {
+        workers = new ShellWorker[count];
+        idle = new ArrayBlockingQueue<>(count);
+
+        for (int i = 0; i < count; i++) {
+            workers[i] = new ShellWorker(i + 1);
+            try {
+                workers[i].start();
+            } catch (IOException e) {
+                LOGGER.error("Failed to start shell worker #{}: {}", i + 1, e.getMessage());
+            }
+            idle.add(workers[i]);
+        }
+    }
+
+    /**
+     * Runs the script in the first idle shell, waiting for one if all are busy.
+     *
+     * @return exit code of the script, {@link ScriptSupervisor#NOT_STARTED} if no shell could run it
+     */
+    int execute(long id, String[] script, long timeoutMs, ScriptOutput out, ScriptOutput err)
+            throws InterruptedException {
+        ShellWorker worker = idle.take();
+        try {
+            if (closed) {
+                return ScriptSupervisor.NOT_STARTED;
+            }
+
+            if (!worker.isAlive()) {
+                LOGGER.warn("Shell worker #{} is not running. Restarting it", worker.index());
+                worker.start();
+            }
+
+            LOGGER.debug("Running script #{} in shell worker #{}: {}", id, worker.index(), String.join(" ", script));
+            return worker.execute(id, script, timeoutMs, out, err);
+        } catch (IOException e) {
+            LOGGER.error("Failed to run script #{} in shell worker #{}: {}", id, worker.index(), e.getMessage());
+            // Restarted by the next script
+            worker.stop();
+            return ScriptSupervisor.NOT_STARTED;
+        } finally {
+            idle.add(worker);
+        }
+    }
+
+    void close() {
+        closed = true;
+
+        for (ShellWorker worker : workers) {
+            worker.stop();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package ru.aloyenz.t501.driver.config;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Filter of a single axis of the pen. Only the parameters of the selected type are used.
+ */
+public class AxisSmoothing {
+
+    public AxisSmoothing() {}
+
+    public AxisSmoothing(double minCutoff, double beta) {
+        this.minCutoff = minCutoff;
+        this.beta = beta;
+    }
+
+    @SerializedName("type")
+    public SmoothingType type = SmoothingType.NONE;
+
+    /** EMA: weight of the new value, 0 ~ 1. Lower is smoother but lags more */
+    @SerializedName("alpha")
+    public double alpha = 0.5;
+
+    /** One Euro: cutoff frequency (Hz) at rest. Lower removes more jitter of the resting pen */
+    @SerializedName("min_cutoff")
+    public double minCutoff = 1.0;
+
+    /** One Euro: cutoff increase per unit/s of speed. Higher lags less on fast movements */
+    @SerializedName("beta")
+    public double beta = 0.007;
+
+    /** One Euro: cutoff frequency (Hz) of the speed estimate */
+    @SerializedName("derivative_cutoff")
+    public double derivativeCutoff = 1.0;
+}
@@ -0,0 +1,133 @@
+package ru.aloyenz.t501.driver.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aloyenz.t501.driver.exception.InvalidSpecialConfigException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the configuration file and passes every valid new version of it to the listener.
+ * <p>
+ * The file is parsed and validated on the watcher thread, invalid versions are only reported.
+ * Editors often save a file in several writes, so it's read when there were no writes for {@link #SETTLE_MS}.
+ */
+public class ConfigWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigWatcher.class);
+
+    private static final long SETTLE_MS = 200;
+
+    private final Path file;
+    private final Consumer<Configuration> listener;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    // Content of the last read version, unchanged file is not parsed again
+    private String lastContent;
+
+    /**
+     * @param listener called on the watcher thread with a new configuration, which is not current yet
+     */
+    public ConfigWatcher(File file, Consumer<Configuration> listener) throws IOException {
+        this.file = file.getAbsoluteFile().toPath();
+        this.listener = listener;
+        this.lastContent = Files.exists(this.file) ? Files.readString(this.file, StandardCharsets.UTF_8) : null;
+
+        // Directory is watched: editors may replace the file instead of writing it
+        Path directory = this.file.getParent();
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        this.thread = new Thread(this::run, "T501 config watcher");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+        LOGGER.info("Watching {} for changes", file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                if (!isFileChanged(watchService.take())) {
+                    continue;
+                }
+
+                // Waiting for the last write
+                WatchKey key;
+                while ((key = watchService.poll(SETTLE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    isFileChanged(key);
+                }
+
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOGGER.info("Configuration watcher stopped.");
+        }
+    }
+
+    private boolean isFileChanged(WatchKey key) {
+        boolean changed = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+
+        return changed;
+    }
+
+    private void reload() {
+        String content;
+        try {
+            content = Files.readString(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read changed configuration {}: {}", file, e.getMessage());
+            return;
+        }
+
+        if (content.equals(lastContent)) {
+            return;
+        }
+        lastContent = content;
+
+        Configuration configuration;
+        try {
+            configuration = Configuration.parse(new StringReader(content));
+        } catch (IOException | InvalidSpecialConfigException e) {
+            LOGGER.error("Changed configuration {} is not applied: {}", file, e.getMessage());
+            return;
+        }
+
+        LOGGER.info("Configuration {} changed, applying it", file);
+        try {
+            listener.accept(configuration);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to apply changed configuration: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -2,27 +2,24 @@ package ru.aloyenz.t501.driver.config;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.annotations.SerializedName;
 import ru.aloyenz.t501.driver.config.special.SpecialButtonsConfig;
 import ru.aloyenz.t501.driver.exception.InvalidSpecialConfigException;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
 public class Configuration {
 
-    private static Configuration instance;
+    private static volatile Configuration instance;
 
     public static void init(File file) throws IOException, InvalidSpecialConfigException {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-
         if (file.exists()) {
-
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
-                instance = gson.fromJson(reader, Configuration.class);
-                instance.specialButtonsConfiguration.validate();
-            }
+            instance = load(file);
         } else {
             instance = new Configuration();
         }
@@ -31,6 +28,35 @@ public class Configuration {
         save(file);
     }
 
+    /**
+     * Reads and validates the configuration file without making it current.
+     * Missing fields get their default values.
+     */
+    public static Configuration load(File file) throws IOException, InvalidSpecialConfigException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            return parse(reader);
+        }
+    }
+
+    public static Configuration parse(Reader reader) throws IOException, InvalidSpecialConfigException {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+        Configuration configuration;
+        try {
+            configuration = gson.fromJson(reader, Configuration.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed configuration: " + e.getMessage(), e);
+        }
+
+        if (configuration == null) {
+            throw new IOException("Configuration is empty");
+        }
+
+        configuration.specialButtonsConfiguration.validate();
+        return configuration;
+    }
+
     public static void save(File file) throws IOException {
         Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
@@ -45,6 +71,48 @@ public class Configuration {
         return instance;
     }
 
+    /** Replaces the current configuration, for example with a reloaded one. It's not saved */
+    public static void setInstance(Configuration configuration) {
+        instance = configuration;
+    }
+
+    /**
+     * Deep copy made the same way as the file is saved and loaded, so later changes of this configuration
+     * are not seen by the copy.
+     */
+    public Configuration copy() {
+        Gson gson = new Gson();
+        return gson.fromJson(gson.toJsonTree(this), Configuration.class);
+    }
+
+    /**
+     * Names of the changed settings which are used only on driver start.
+     */
+    public List<String> restartRequiredChanges(Configuration other) {
+        List<String> changes = new ArrayList<>();
+
+        addIf(changes, !Objects.equals(penName, other.penName), "pen_name");
+        addIf(changes, !Objects.equals(keyboardName, other.keyboardName), "keyboard_name");
+        addIf(changes, !Objects.equals(mouseName, other.mouseName), "mouse_name");
+        addIf(changes, maxThreadsForScripts != other.maxThreadsForScripts, "max_threads_for_scripts");
+        addIf(changes, scriptShellWorkers != other.scriptShellWorkers, "script_shell_workers");
+        addIf(changes, mouseRepeatDelayMs != other.mouseRepeatDelayMs, "mouse_repeat_delay_ms");
+        addIf(changes, mouseRepeatRate != other.mouseRepeatRate, "mouse_repeat_rate");
+        addIf(changes, asyncTransfers != other.asyncTransfers, "async_transfers");
+        addIf(changes, transferQueueDepth != other.transferQueueDepth, "transfer_queue_depth");
+        addIf(changes, sampleRingCapacity != other.sampleRingCapacity, "sample_ring_capacity");
+        addIf(changes, metricsPort != other.metricsPort, "metrics_port");
+        addIf(changes, !Objects.equals(sharedStateDirectory, other.sharedStateDirectory), "shared_state_directory");
+
+        return changes;
+    }
+
+    private static void addIf(List<String> changes, boolean changed, String name) {
+        if (changed) {
+            changes.add(name);
+        }
+    }
+
     @SerializedName("pen_name")
     public String penName = "T501 Virtual Pen (Aloyenz's Driver)";
 
@@ -63,18 +131,79 @@ public class Configuration {
     @SerializedName("full_pressure_value")
     public int fullPressureValue = 677;
 
+    /** Response of the normalized pressure between hover_after_raw_pressure and full_pressure_value */
+    @SerializedName("pressure_curve")
+    public ResponseCurve pressureCurve = new ResponseCurve();
+
+    /** Response of the tilt, applied to the tilt angle in both directions */
+    @SerializedName("tilt_curve")
+    public ResponseCurve tiltCurve = new ResponseCurve();
+
     @SerializedName("keyboard_keycodes")
     public KeyboardConfiguration keyboardConfiguration = new KeyboardConfiguration();
 
     @SerializedName("special_buttons")
     public SpecialButtonsConfig specialButtonsConfiguration = new SpecialButtonsConfig();
 
+    /** Max count of BASH_SCRIPT scripts running at the same time, others wait for them */
     @SerializedName("max_threads_for_scripts")
     public int maxThreadsForScripts = Runtime.getRuntime().availableProcessors();
 
-    @SerializedName("replication_thread_delay_ms")
-    public int replicationThreadDelayMs = 50;
+    /**
+     * Count of warm /bin/sh processes running BASH_SCRIPT scripts.
+     * 0 - start a new process for every script
+     */
+    @SerializedName("script_shell_workers")
+    public int scriptShellWorkers = 0;
+
+    /** Delay between mouse wheel (REL_) binding press and its first repeat */
+    @SerializedName("mouse_repeat_delay_ms")
+    public int mouseRepeatDelayMs = 250;
+
+    /** Repeats of held mouse wheel (REL_) bindings per second */
+    @SerializedName("mouse_repeat_rate")
+    public int mouseRepeatRate = 20;
 
     @SerializedName("read_thread_delay_ms")
     public int readThreadDelayMs = 0;
+
+    /** Read tablets with queued asynchronous transfers instead of blocking interruptTransfer polling */
+    @SerializedName("async_transfers")
+    public boolean asyncTransfers = true;
+
+    /** Count of interrupt transfers kept submitted for every device in async mode */
+    @SerializedName("transfer_queue_depth")
+    public int transferQueueDepth = 4;
+
+    /**
+     * Count of decoded samples which may wait between reading and writing virtual devices.
+     * 0 - write virtual devices right from the reading thread
+     */
+    @SerializedName("sample_ring_capacity")
+    public int sampleRingCapacity = 256;
+
+    /**
+     * Max count of hover-only pen samples written per second, like the refresh rate of the display.
+     * Samples with contact or button changes are always written. 0 - write every sample
+     */
+    @SerializedName("hover_output_rate")
+    public int hoverOutputRate = 0;
+
+    /** Port of Prometheus metrics on the loopback interface, 0 - metrics are not served */
+    @SerializedName("metrics_port")
+    public int metricsPort = 0;
+
+    /**
+     * Directory the decoded pen state of every tablet is published to, like /dev/shm. Empty - it's not published
+     */
+    @SerializedName("shared_state_directory")
+    public String sharedStateDirectory = "";
+
+    /** Per-axis smoothing of pen position, pressure and tilt */
+    @SerializedName("smoothing")
+    public SmoothingConfiguration smoothing = new SmoothingConfiguration();
+
+    /** Extrapolation of pen position, applied after smoothing */
+    @SerializedName("prediction")
+    public PredictionConfiguration prediction = new PredictionConfiguration();
 }
@@ -0,0 +1,18 @@
+package ru.aloyenz.t501.driver.config;
+
+import com.google.gson.annotations.SerializedName;
+
+public enum CurveType {
+
+    @SerializedName("LINEAR")
+    LINEAR,
+    /** {@code output = input ^ gamma} */
+    @SerializedName("GAMMA")
+    GAMMA,
+    /** Straight lines between {@code points} */
+    @SerializedName("PIECEWISE")
+    PIECEWISE,
+    /** Cubic Bézier from (0, 0) to (1, 1) with control points {@code bezier}, like CSS cubic-bezier() */
+    @SerializedName("BEZIER")
+    BEZIER;
+}
@@ -0,0 +1,26 @@
+package ru.aloyenz.t501.driver.config;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Extrapolation of the pen position ahead of reports, so the cursor trails the nib less.
+ * Applied after smoothing. Disabled by default.
+ */
+public class PredictionConfiguration {
+
+    /** How far ahead the position is predicted, ms. 0 - prediction is disabled */
+    @SerializedName("lookahead_ms")
+    public double lookaheadMs = 0;
+
+    /** Weight of acceleration, 0 ~ 1. 0 - the pen is assumed to keep its speed */
+    @SerializedName("acceleration_weight")
+    public double accelerationWeight = 0.5;
+
+    /** Max distance between reported and predicted position, position units */
+    @SerializedName("max_distance")
+    public int maxDistance = 64;
+
+    /** Slower pen is not predicted, position units per second. Keeps the resting pen still */
+    @SerializedName("min_speed")
+    public double minSpeed = 200;
+}
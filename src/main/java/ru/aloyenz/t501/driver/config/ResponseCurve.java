@@ -0,0 +1,24 @@
+package ru.aloyenz.t501.driver.config;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Maps normalized input (0 ~ 1) to normalized output (0 ~ 1). Only the parameters of the selected type are used.
+ */
+public class ResponseCurve {
+
+    @SerializedName("type")
+    public CurveType type = CurveType.LINEAR;
+
+    /** GAMMA: above 1 - softer start, below 1 - harder start */
+    @SerializedName("gamma")
+    public double gamma = 1.0;
+
+    /** PIECEWISE: [input, output] pairs sorted by input */
+    @SerializedName("points")
+    public double[][] points = { {0.0, 0.0}, {0.5, 0.35}, {1.0, 1.0} };
+
+    /** BEZIER: x1, y1, x2, y2 of the control points, x must be within 0 ~ 1 */
+    @SerializedName("bezier")
+    public double[] bezier = { 0.5, 0.1, 0.8, 0.6 };
+}
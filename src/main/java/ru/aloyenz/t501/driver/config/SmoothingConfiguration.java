@@ -0,0 +1,24 @@
+package ru.aloyenz.t501.driver.config;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Filters applied to decoded reports before they reach virtual devices. Every axis is disabled by default.
+ */
+public class SmoothingConfiguration {
+
+    /** Position units */
+    @SerializedName("x")
+    public AxisSmoothing x = new AxisSmoothing();
+
+    @SerializedName("y")
+    public AxisSmoothing y = new AxisSmoothing();
+
+    /** Normalized pressure units (0 ~ 1024) */
+    @SerializedName("pressure")
+    public AxisSmoothing pressure = new AxisSmoothing(1.0, 0.05);
+
+    /** Degrees, used for both tilt axes */
+    @SerializedName("tilt")
+    public AxisSmoothing tilt = new AxisSmoothing(0.5, 0.05);
+}
@@ -0,0 +1,16 @@
+package ru.aloyenz.t501.driver.config;
+
+import com.google.gson.annotations.SerializedName;
+
+public enum SmoothingType {
+
+    /** Values are passed as is */
+    @SerializedName("NONE")
+    NONE,
+    /** Exponential moving average with the constant {@code alpha} */
+    @SerializedName("EMA")
+    EMA,
+    /** One Euro filter: strong smoothing at rest, low lag on fast movements */
+    @SerializedName("ONE_EURO")
+    ONE_EURO;
+}
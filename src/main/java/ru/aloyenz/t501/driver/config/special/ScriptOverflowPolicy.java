@@ -0,0 +1,19 @@
+package ru.aloyenz.t501.driver.config.special;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * What happens when a BASH_SCRIPT button is pressed while its scripts are still running.
+ */
+public enum ScriptOverflowPolicy {
+
+    /** The press is ignored */
+    @SerializedName("DROP")
+    DROP,
+    /** Scripts run once more after the current run, however many times the button was pressed */
+    @SerializedName("COALESCE")
+    COALESCE,
+    /** Every press runs the scripts, up to max_queued_runs presses wait */
+    @SerializedName("QUEUE")
+    QUEUE;
+}
@@ -45,5 +45,17 @@ public class SpecialAction {
     @SerializedName("scripts")
     public String[][] scripts;
 
+    /** BASH_SCRIPT: what to do with presses while the scripts are running */
+    @SerializedName("overflow_policy")
+    public ScriptOverflowPolicy overflowPolicy = ScriptOverflowPolicy.COALESCE;
+
+    /** BASH_SCRIPT: max count of presses waiting for the current run with the QUEUE policy */
+    @SerializedName("max_queued_runs")
+    public int maxQueuedRuns = 4;
+
+    /** BASH_SCRIPT: every script is killed after this time. 0 - no timeout */
+    @SerializedName("timeout_ms")
+    public long timeoutMs = 0;
+
     private SpecialAction() {}
 }
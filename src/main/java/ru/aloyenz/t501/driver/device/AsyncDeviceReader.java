@@ -0,0 +1,286 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usb4java.DeviceHandle;
+import org.usb4java.LibUsb;
+import org.usb4java.Transfer;
+import org.usb4java.TransferCallback;
+import ru.aloyenz.t501.driver.metrics.Metrics;
+import ru.aloyenz.t501.driver.profiling.TransferEvent;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads tablets using the libusb asynchronous API.
+ * <p>
+ * Every connected device gets {@code queueDepth} interrupt transfers which are submitted
+ * at once and resubmitted right from the completion callback, so there is always a transfer
+ * waiting in the kernel when the tablet sends the next report.
+ * <p>
+ * All callbacks (including hotplug callbacks) are dispatched from the single event thread
+ * started by {@link #start()}, so the consumer is never called concurrently. Devices are still
+ * independent: every device has its own transfers, so an idle tablet never delays reports of another one.
+ */
+public class AsyncDeviceReader implements DeviceConnectionListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncDeviceReader.class);
+
+    // Failed transfers in a row after which the device is not read anymore, a stalled endpoint fails every one
+    private static final int MAX_CONSECUTIVE_ERRORS = 8;
+
+    private final ReportConsumer consumer;
+    private final int queueDepth;
+
+    // Device id - transfers of this device
+    private final HashMap<String, DeviceTransfers> devices = new HashMap<>();
+    private final AtomicInteger transfersInFlight = new AtomicInteger();
+
+    private final TransferCallback callback = this::onTransferCompleted;
+
+    private volatile boolean running = false;
+    private Thread eventThread;
+
+    public AsyncDeviceReader(ReportConsumer consumer, int queueDepth) {
+        this.consumer = consumer;
+        this.queueDepth = Math.max(1, queueDepth);
+    }
+
+    public void start() {
+        running = true;
+
+        eventThread = new Thread(() -> {
+            while (running || transfersInFlight.get() > 0) {
+                // Blocks until a transfer completes or a device is plugged. Woken by stop()
+                int code = LibUsb.handleEventsCompleted(null, null);
+                if (code != LibUsb.SUCCESS && code != LibUsb.ERROR_INTERRUPTED) {
+                    LOGGER.error("Error handling USB events: {}", LibUsb.strError(code));
+                    Metrics.usbError(code);
+                }
+            }
+
+            LOGGER.info("USB event thread stopped.");
+        }, "T501 USB events");
+        eventThread.start();
+    }
+
+    public void stop() {
+        running = false;
+
+        synchronized (devices) {
+            for (DeviceTransfers transfers : devices.values()) {
+                transfers.cancel();
+            }
+            devices.clear();
+        }
+
+        if (eventThread != null) {
+            LibUsb.interruptEventHandler(null);
+            try {
+                eventThread.join();
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    @Override
+    public void onDeviceConnected(T501Device device) {
+        DeviceHandle handle = device.handle();
+        DeviceInformation information = device.information();
+        DeviceTransfers transfers = new DeviceTransfers(device);
+
+        synchronized (devices) {
+            if (devices.containsKey(device.id())) {
+                return;
+            }
+
+            devices.put(device.id(), transfers);
+        }
+
+        // Released when the last transfer is freed
+        device.retainHandle();
+        for (int i = 0; i < queueDepth; i++) {
+            Transfer transfer = LibUsb.allocTransfer(0);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(information.packetSize());
+
+            // Timeout 0 - the transfer waits for the next report as long as needed
+            LibUsb.fillInterruptTransfer(transfer, handle, information.entryPoint(), buffer,
+                    callback, transfers, 0);
+
+            transfers.add(i, transfer);
+            submit(transfers, transfer);
+        }
+        transfers.setUpFinished();
+
+        LOGGER.info("Submitted {} interrupt transfers for device {}", queueDepth, device);
+    }
+
+    /**
+     * Cancels transfers of the device. Its handle is closed once they all are finished,
+     * and no report of the device is consumed from now on.
+     */
+    @Override
+    public void onDeviceDisconnected(T501Device device) {
+        DeviceTransfers transfers;
+        synchronized (devices) {
+            transfers = devices.remove(device.id());
+        }
+
+        if (transfers != null) {
+            transfers.cancel();
+        }
+    }
+
+    private void onTransferCompleted(Transfer transfer) {
+        transfersInFlight.decrementAndGet();
+        DeviceTransfers transfers = (DeviceTransfers) transfer.userData();
+
+        switch (transfer.status()) {
+            case LibUsb.TRANSFER_COMPLETED -> {
+                if (transfers.cancelled) {
+                    // Outputs of the device may be released already
+                    transfers.release(transfer);
+                    return;
+                }
+                transfers.errors = 0;
+
+                ByteBuffer buffer = transfer.buffer();
+                buffer.rewind();
+
+                // Async transfer has no meaningful duration, event only marks completion
+                TransferEvent event = TransferEvent.start();
+                event.commit(transfers.device.id(), transfers.device.nextSequence(System.nanoTime()), transfer.actualLength());
+
+                consumer.onReport(transfers.device, buffer, transfer.actualLength());
+            }
+            case LibUsb.TRANSFER_TIMED_OUT -> {
+                // Nothing to do, just waiting again
+                Metrics.TRANSFER_TIMEOUTS.increment();
+                transfers.errors = 0;
+            }
+            case LibUsb.TRANSFER_CANCELLED -> {
+                transfers.release(transfer);
+                return;
+            }
+            case LibUsb.TRANSFER_NO_DEVICE -> {
+                if (!transfers.disconnected) {
+                    LOGGER.info("Device {} has been disconnected", transfers.device);
+                    Metrics.usbError(LibUsb.ERROR_NO_DEVICE);
+                    transfers.disconnected = true;
+                }
+
+                transfers.release(transfer);
+                return;
+            }
+            default -> {
+                // Counted as the same errors as failed blocking transfers
+                Metrics.usbError(switch (transfer.status()) {
+                    case LibUsb.TRANSFER_ERROR -> LibUsb.ERROR_IO;
+                    case LibUsb.TRANSFER_STALL -> LibUsb.ERROR_PIPE;
+                    case LibUsb.TRANSFER_OVERFLOW -> LibUsb.ERROR_OVERFLOW;
+                    default -> LibUsb.ERROR_OTHER;
+                });
+
+                transfers.errors++;
+                if (transfers.errors < MAX_CONSECUTIVE_ERRORS) {
+                    LOGGER.error("Interrupt transfer of device {} failed with status {}", transfers.device, transfer.status());
+                } else {
+                    // Halt can't be cleared from a callback: it's a synchronous control transfer
+                    if (transfers.errors == MAX_CONSECUTIVE_ERRORS) {
+                        LOGGER.error("Interrupt transfers of device {} failed {} times in a row, last status {}. "
+                                        + "It's not read anymore, plug it again",
+                                transfers.device, MAX_CONSECUTIVE_ERRORS, transfer.status());
+                    }
+                    transfers.release(transfer);
+                    return;
+                }
+            }
+        }
+
+        if (!running || transfers.cancelled) {
+            transfers.release(transfer);
+            return;
+        }
+
+        submit(transfers, transfer);
+    }
+
+    private void submit(DeviceTransfers transfers, Transfer transfer) {
+        int result = LibUsb.submitTransfer(transfer);
+        if (result == LibUsb.SUCCESS) {
+            transfersInFlight.incrementAndGet();
+        } else {
+            if (result != LibUsb.ERROR_NO_DEVICE) {
+                LOGGER.error("Failed to submit interrupt transfer: {}", LibUsb.strError(result));
+                Metrics.usbError(result);
+            }
+
+            transfers.release(transfer);
+        }
+    }
+
+    private final class DeviceTransfers {
+
+        private final T501Device device;
+        private final Transfer[] transfers = new Transfer[queueDepth];
+
+        private volatile boolean cancelled = false;
+        private boolean disconnected = false;
+        // Failed transfers in a row. Used only by the event thread
+        private int errors = 0;
+
+        // Allocated and not yet freed transfers, plus one while they are being set up
+        private int live = 1;
+
+        private DeviceTransfers(T501Device device) {
+            this.device = device;
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+
+            for (Transfer transfer : transfers) {
+                if (transfer != null) {
+                    // Transfer will be freed from the callback with TRANSFER_CANCELLED status.
+                    // Transfers which are already completed just return an error here.
+                    LibUsb.cancelTransfer(transfer);
+                }
+            }
+        }
+
+        private synchronized void add(int index, Transfer transfer) {
+            transfers[index] = transfer;
+            live++;
+        }
+
+        private void setUpFinished() {
+            released();
+        }
+
+        private void release(Transfer transfer) {
+            synchronized (this) {
+                for (int i = 0; i < transfers.length; i++) {
+                    if (transfers[i] == transfer) {
+                        transfers[i] = null;
+                    }
+                }
+
+                LibUsb.freeTransfer(transfer);
+            }
+            released();
+        }
+
+        private void released() {
+            boolean last;
+            synchronized (this) {
+                last = --live == 0;
+            }
+
+            // libusb must not close a handle with transfers in flight
+            if (last) {
+                device.releaseHandle();
+            }
+        }
+    }
+}
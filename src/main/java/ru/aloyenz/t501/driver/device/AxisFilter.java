@@ -0,0 +1,59 @@
+package ru.aloyenz.t501.driver.device;
+
+import ru.aloyenz.t501.driver.config.AxisSmoothing;
+import ru.aloyenz.t501.driver.config.SmoothingType;
+
+/**
+ * Filter state of a single axis. Parameters are passed on every call, so configuration changes apply
+ * to the next value without losing the state.
+ */
+final class AxisFilter {
+
+    private boolean initialized = false;
+    private double value;
+    // One Euro: filtered speed, units per second
+    private double derivative;
+
+    /**
+     * @param period seconds since the previous value, must be positive
+     */
+    double filter(AxisSmoothing smoothing, double raw, double period) {
+        SmoothingType type = smoothing.type;
+
+        if (type == null || type == SmoothingType.NONE) {
+            initialized = false;
+            return raw;
+        }
+
+        if (!initialized) {
+            value = raw;
+            derivative = 0;
+            initialized = true;
+            return raw;
+        }
+
+        if (type == SmoothingType.EMA) {
+            value += smoothing.alpha * (raw - value);
+        } else {
+            double speed = (raw - value) / period;
+            derivative += alpha(smoothing.derivativeCutoff, period) * (speed - derivative);
+
+            double cutoff = smoothing.minCutoff + smoothing.beta * Math.abs(derivative);
+            value += alpha(cutoff, period) * (raw - value);
+        }
+
+        return value;
+    }
+
+    /** Next value is passed as is and starts the filter again */
+    void reset() {
+        initialized = false;
+    }
+
+    // Smoothing factor of a first order low-pass filter with the cutoff frequency
+    // (1 / (1 + tau / period) with tau = 1 / (2 * PI * cutoff), one division instead of three)
+    private static double alpha(double cutoff, double period) {
+        double scaled = 2 * Math.PI * cutoff * period;
+        return scaled / (scaled + 1);
+    }
+}
@@ -0,0 +1,244 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aloyenz.t501.driver.bash.ScriptAction;
+import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.config.KeyBinding;
+import ru.aloyenz.t501.driver.config.KeyboardConfiguration;
+import ru.aloyenz.t501.driver.config.special.SpecialAction;
+import ru.aloyenz.t501.driver.config.special.SpecialActionType;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Key bindings of tablet buttons and special buttons resolved to key codes.
+ * <p>
+ * Compiled once when configuration is loaded, so reading thread only indexes arrays
+ * instead of looking up key names for every button press.
+ */
+public final class BindingTable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BindingTable.class);
+
+    public static final int TABLET_BUTTONS = 16;
+
+    static final BindingTable EMPTY = new BindingTable(
+            emptyKeys(TABLET_BUTTONS), new SpecialActionType[0], new CompiledKeys[0], new ScriptAction[0], new int[0]);
+
+    private final CompiledKeys[] tabletButtons;
+
+    private final SpecialActionType[] specialTypes;
+    private final CompiledKeys[] specialKeys;
+    private final ScriptAction[] specialScripts;
+
+    private final int[] neededKeycodes;
+
+    private BindingTable(CompiledKeys[] tabletButtons,
+                         SpecialActionType[] specialTypes, CompiledKeys[] specialKeys, ScriptAction[] specialScripts,
+                         int[] neededKeycodes) {
+        this.tabletButtons = tabletButtons;
+        this.specialTypes = specialTypes;
+        this.specialKeys = specialKeys;
+        this.specialScripts = specialScripts;
+        this.neededKeycodes = neededKeycodes;
+    }
+
+    /** Bindings of the current {@link ConfigSnapshot} */
+    public static BindingTable getInstance() {
+        return ConfigSnapshot.current().bindings();
+    }
+
+    /**
+     * Compiles bindings of the configuration, see {@link ConfigSnapshot#compile}.
+     * Keycodes must be loaded before. Unknown key names are reported here and skipped.
+     */
+    static BindingTable build(Configuration configuration) {
+        KeycodeIndex keycodes = KeyCodesFetcher.getIndex();
+        Set<Integer> needed = new LinkedHashSet<>();
+
+        KeyBinding[][] bindingsByBit = getBindingsByBitNumber(configuration.keyboardConfiguration);
+        CompiledKeys[] tabletButtons = new CompiledKeys[TABLET_BUTTONS];
+        for (int bit = 0; bit < TABLET_BUTTONS; bit++) {
+            tabletButtons[bit] = compileKeys(bindingsByBit[bit], "tablet button #" + bit, keycodes, needed);
+        }
+
+        List<SpecialAction> actions = configuration.specialButtonsConfiguration.getAllActions();
+        SpecialActionType[] specialTypes = new SpecialActionType[actions.size()];
+        CompiledKeys[] specialKeys = new CompiledKeys[actions.size()];
+        ScriptAction[] specialScripts = new ScriptAction[actions.size()];
+
+        for (int i = 0; i < actions.size(); i++) {
+            SpecialAction action = actions.get(i);
+
+            specialTypes[i] = action.type;
+            specialKeys[i] = action.type == SpecialActionType.KEY_INPUT
+                    ? compileKeys(action.keycodes, "special button #" + (i + 1), keycodes, needed)
+                    : CompiledKeys.EMPTY;
+            specialScripts[i] = action.type == SpecialActionType.BASH_SCRIPT
+                    ? ScriptAction.of(action)
+                    : ScriptAction.EMPTY;
+        }
+
+        return new BindingTable(tabletButtons, specialTypes, specialKeys, specialScripts,
+                needed.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * @param bitNumber number of the tablet button bit (see {@link #getBindingsByBitNumber})
+     */
+    public CompiledKeys tabletButton(int bitNumber) {
+        return tabletButtons[bitNumber];
+    }
+
+    public int specialButtonsCount() {
+        return specialTypes.length;
+    }
+
+    public SpecialActionType specialType(int button) {
+        return specialTypes[button];
+    }
+
+    public CompiledKeys specialKeys(int button) {
+        return specialKeys[button];
+    }
+
+    public ScriptAction specialScripts(int button) {
+        return specialScripts[button];
+    }
+
+    /** Keyboard keycodes used by all bindings. Must not be modified */
+    public int[] neededKeycodes() {
+        return neededKeycodes;
+    }
+
+    /** True if a virtual keyboard with the given keycodes can send every keyboard key of the bindings */
+    public boolean isCoveredBy(int[] keycodes) {
+        for (int needed : neededKeycodes) {
+            boolean found = false;
+            for (int keycode : keycodes) {
+                if (keycode == needed) {
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static KeyBinding[][] getBindingsByBitNumber(KeyboardConfiguration configuration) {
+        /*
+         * In this bit mask...
+         *
+         * Bit 0:   Ctrl -
+         * Bit 1:   [
+         * Bit 2:   Mouse scroll up
+         * Bit 3:   Mouse scroll down
+         * Bit 4:   Ctrl
+         * Bit 5:   Alt
+         * Bit 6:   Space
+         * Bit 7:   Tab
+         * Bit 8:   Unused
+         * Bit 9:   Unused
+         * Bit 10:  ]
+         * Bit 11:  B
+         * Bit 12:  Unused
+         * Bit 13:  Unused
+         * Bit 14:  E
+         * Bit 15:  Ctrl +
+         *
+         * Laboratoricaly determined mapping based on debugging. 1 = pressed.
+         */
+        KeyBinding[][] bindings = new KeyBinding[TABLET_BUTTONS][];
+
+        bindings[0] = configuration.ctrlMinus;
+        bindings[1] = configuration.bracketOpen;
+        bindings[2] = configuration.mouseScrollUp;
+        bindings[3] = configuration.mouseScrollDown;
+        bindings[4] = configuration.ctrl;
+        bindings[5] = configuration.alt;
+        bindings[6] = configuration.space;
+        bindings[7] = configuration.tab;
+        bindings[10] = configuration.bracketClose;
+        bindings[11] = configuration.b;
+        bindings[14] = configuration.e;
+        bindings[15] = configuration.ctrlPlus;
+
+        return bindings;
+    }
+
+    private static CompiledKeys compileKeys(KeyBinding[] bindings, String buttonName,
+                                            KeycodeIndex keycodes, Set<Integer> needed) {
+        if (bindings == null || bindings.length == 0) {
+            return CompiledKeys.EMPTY;
+        }
+
+        int[] keyCodes = new int[bindings.length];
+        int[] values = new int[bindings.length];
+        long mouseMask = 0;
+        long relMask = 0;
+        long valueMask = 0;
+        int count = 0;
+
+        for (KeyBinding binding : bindings) {
+            if (count == CompiledKeys.MAX_KEYS) {
+                LOGGER.error("Too many keys for {}. Only first {} are used", buttonName, CompiledKeys.MAX_KEYS);
+                break;
+            }
+
+            int code = binding == null || binding.key == null ? -1 : keycodes.keyCode(binding.key);
+            if (code < 0) {
+                LOGGER.error("Failed to find key code for key {} of {}. Ignoring it",
+                        binding == null ? null : binding.key, buttonName);
+                continue;
+            }
+
+            boolean isRel = binding.key.startsWith("REL_");
+            boolean isMouse = isRel || binding.key.startsWith("BTN_");
+
+            if (!isMouse) {
+                if (code == 0) {
+                    // KEY_RESERVED
+                    continue;
+                }
+
+                needed.add(code);
+            }
+
+            keyCodes[count] = code;
+            if (isMouse) {
+                mouseMask |= 1L << count;
+            }
+            if (isRel) {
+                relMask |= 1L << count;
+            }
+            if (binding.value != null) {
+                valueMask |= 1L << count;
+                values[count] = binding.value;
+            }
+
+            count++;
+        }
+
+        if (count < keyCodes.length) {
+            keyCodes = Arrays.copyOf(keyCodes, count);
+            values = Arrays.copyOf(values, count);
+        }
+
+        return new CompiledKeys(keyCodes, mouseMask, relMask, valueMask, values);
+    }
+
+    private static CompiledKeys[] emptyKeys(int count) {
+        CompiledKeys[] keys = new CompiledKeys[count];
+        Arrays.fill(keys, CompiledKeys.EMPTY);
+        return keys;
+    }
+}
@@ -0,0 +1,185 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.config.CurveType;
+import ru.aloyenz.t501.driver.config.ResponseCurve;
+
+/**
+ * Lookup tables from raw pressure and tilt values of the report to normalized ones.
+ * <p>
+ * Compiled when configuration is loaded, so decoding is only two array loads per value.
+ * A compiled instance is never modified, it's replaced as a part of {@link ConfigSnapshot}.
+ */
+public final class Calibration {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Calibration.class);
+
+    public static final int MAX_PRESSURE = 1024;
+    public static final int MAX_TILT = 90;
+
+    // Raw tilt is a byte centered around this value
+    private static final int TILT_CENTER = 128;
+
+    // Raw pressure (unsigned 16 bit) - normalized pressure 0 ~ 1024
+    private final short[] pressure = new short[1 << 16];
+    // Raw tilt (unsigned byte) - degrees -90 ~ 90
+    private final byte[] tilt = new byte[1 << 8];
+
+    private Calibration() {}
+
+    /** Tables of the current {@link ConfigSnapshot} */
+    public static Calibration getInstance() {
+        return ConfigSnapshot.current().calibration();
+    }
+
+    /** Normalized pressure 0 ~ 1024. 0 only if the stylus doesn't touch the tablet */
+    public int pressure(int rawPressure) {
+        return pressure[rawPressure & 0xFFFF];
+    }
+
+    /** Tilt in degrees: -90 ~ 90 */
+    public int tilt(byte rawTilt) {
+        return tilt[rawTilt & 0xFF];
+    }
+
+    /**
+     * Compiles tables of the configuration without making them current, see {@link ConfigSnapshot#compile}.
+     * Invalid curves are reported here and replaced with the linear one.
+     */
+    public static Calibration build(Configuration configuration) {
+        Calibration calibration = new Calibration();
+
+        int min = configuration.fullPressureValue;      // full press
+        int max = configuration.hoverAfterRawPressure;  // hover
+        if (max == min) {
+            LOGGER.error("hover_after_raw_pressure and full_pressure_value must differ. Using {} and {}",
+                    max + 1, min);
+            max++;
+        }
+
+        ResponseCurve pressureCurve = checked(configuration.pressureCurve, "pressure_curve");
+        for (int raw = 0; raw < calibration.pressure.length; raw++) {
+            // Normalizing pressure to 0 ~ 1024
+            double normalized = (max - raw) * (double) MAX_PRESSURE / (max - min);
+            int linear = (int) Math.max(0, Math.min(MAX_PRESSURE, normalized));
+
+            int value = linear;
+            if (linear > 0 && pressureCurve.type != CurveType.LINEAR) {
+                double curved = evaluate(pressureCurve, Math.min(1.0, normalized / MAX_PRESSURE));
+                // Curve must not change whether the stylus touches the tablet
+                value = (int) Math.max(1, Math.min(MAX_PRESSURE, Math.round(curved * MAX_PRESSURE)));
+            }
+
+            calibration.pressure[raw] = (short) value;
+        }
+
+        ResponseCurve tiltCurve = checked(configuration.tiltCurve, "tilt_curve");
+        for (int raw = 0; raw < calibration.tilt.length; raw++) {
+            // Centering tilt around 0 and normalizing it to degrees
+            int centered = raw - TILT_CENTER;
+            int degrees;
+            if (tiltCurve.type == CurveType.LINEAR) {
+                degrees = (int) (centered * (double) MAX_TILT / TILT_CENTER);
+            } else {
+                double magnitude = evaluate(tiltCurve, Math.abs(centered) / (double) TILT_CENTER);
+                degrees = (int) Math.signum(centered) * (int) Math.round(magnitude * MAX_TILT);
+            }
+
+            calibration.tilt[raw] = (byte) Math.max(-MAX_TILT, Math.min(MAX_TILT, degrees));
+        }
+
+        return calibration;
+    }
+
+    // Returns the curve or the linear one if the curve is invalid
+    private static ResponseCurve checked(ResponseCurve curve, String name) {
+        if (curve == null || curve.type == null) {
+            return new ResponseCurve();
+        }
+
+        String error = switch (curve.type) {
+            case LINEAR -> null;
+            case GAMMA -> curve.gamma > 0 && Double.isFinite(curve.gamma) ? null : "gamma must be positive";
+            case PIECEWISE -> checkPoints(curve.points);
+            case BEZIER -> curve.bezier != null && curve.bezier.length == 4
+                    && curve.bezier[0] >= 0 && curve.bezier[0] <= 1 && curve.bezier[2] >= 0 && curve.bezier[2] <= 1
+                    ? null : "bezier must be [x1, y1, x2, y2] with x1 and x2 within 0 ~ 1";
+        };
+
+        if (error != null) {
+            LOGGER.error("Invalid {}: {}. Using linear curve", name, error);
+            return new ResponseCurve();
+        }
+
+        return curve;
+    }
+
+    private static String checkPoints(double[][] points) {
+        if (points == null || points.length == 0) {
+            return "points must not be empty";
+        }
+
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] == null || points[i].length != 2) {
+                return "every point must be [input, output]";
+            }
+            if (i > 0 && points[i][0] <= points[i - 1][0]) {
+                return "points must be sorted by input";
+            }
+        }
+
+        return null;
+    }
+
+    /** Output of the valid curve for input 0 ~ 1, clamped to 0 ~ 1 */
+    private static double evaluate(ResponseCurve curve, double input) {
+        double output = switch (curve.type) {
+            case LINEAR -> input;
+            case GAMMA -> Math.pow(input, curve.gamma);
+            case PIECEWISE -> piecewise(curve.points, input);
+            case BEZIER -> bezier(curve.bezier, input);
+        };
+
+        return Math.max(0, Math.min(1, output));
+    }
+
+    private static double piecewise(double[][] points, double input) {
+        if (input <= points[0][0]) {
+            return points[0][1];
+        }
+
+        for (int i = 1; i < points.length; i++) {
+            if (input <= points[i][0]) {
+                double[] from = points[i - 1];
+                double[] to = points[i];
+                return from[1] + (to[1] - from[1]) * (input - from[0]) / (to[0] - from[0]);
+            }
+        }
+
+        return points[points.length - 1][1];
+    }
+
+    private static double bezier(double[] controls, double input) {
+        // X of the curve grows monotonically with its parameter when x1 and x2 are within 0 ~ 1
+        double low = 0;
+        double high = 1;
+        for (int i = 0; i < 50; i++) {
+            double middle = (low + high) / 2;
+            if (cubic(controls[0], controls[2], middle) < input) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+
+        return cubic(controls[1], controls[3], (low + high) / 2);
+    }
+
+    // Coordinate of the cubic Bézier from 0 to 1 with the control point coordinates p1 and p2
+    private static double cubic(double p1, double p2, double t) {
+        double u = 1 - t;
+        return 3 * u * u * t * p1 + 3 * u * t * t * p2 + t * t * t;
+    }
+}
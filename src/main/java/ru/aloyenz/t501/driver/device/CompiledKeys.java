@@ -0,0 +1,92 @@
+package ru.aloyenz.t501.driver.device;
+
+/**
+ * Key bindings of a single button, resolved to key codes. Immutable.
+ * <p>
+ * Flags are stored as bit masks: bit {@code i} describes key {@code i}.
+ */
+public final class CompiledKeys {
+
+    /** Max keys of a single binding. Limited by bit masks size */
+    public static final int MAX_KEYS = Long.SIZE;
+
+    public static final CompiledKeys EMPTY = new CompiledKeys(new int[0], 0, 0, 0, new int[0]);
+
+    private final int[] keyCodes;
+    private final long mouseMask;
+    private final long relMask;
+    private final long valueMask;
+    private final int[] values;
+
+    // Keyboard part of the keys with all-true and all-false states for keyboardKeyEvent
+    private final int[] keyboardKeyCodes;
+    private final boolean[] keyboardPressed;
+    private final boolean[] keyboardReleased;
+
+    CompiledKeys(int[] keyCodes, long mouseMask, long relMask, long valueMask, int[] values) {
+        this.keyCodes = keyCodes;
+        this.mouseMask = mouseMask;
+        this.relMask = relMask;
+        this.valueMask = valueMask;
+        this.values = values;
+
+        int keyboardCount = keyCodes.length - Long.bitCount(mouseMask);
+        this.keyboardKeyCodes = new int[keyboardCount];
+        this.keyboardPressed = new boolean[keyboardCount];
+        this.keyboardReleased = new boolean[keyboardCount];
+
+        int index = 0;
+        for (int i = 0; i < keyCodes.length; i++) {
+            if (!isMouse(i)) {
+                keyboardKeyCodes[index] = keyCodes[i];
+                keyboardPressed[index] = true;
+                index++;
+            }
+        }
+    }
+
+    public int size() {
+        return keyCodes.length;
+    }
+
+    public int keyCode(int index) {
+        return keyCodes[index];
+    }
+
+    /** BTN_ or REL_ key, which is sent by the virtual mouse */
+    public boolean isMouse(int index) {
+        return (mouseMask & (1L << index)) != 0;
+    }
+
+    public boolean isRel(int index) {
+        return (relMask & (1L << index)) != 0;
+    }
+
+    /** False if binding has no value (null in configuration) */
+    public boolean hasValue(int index) {
+        return (valueMask & (1L << index)) != 0;
+    }
+
+    public int value(int index) {
+        return values[index];
+    }
+
+    public boolean hasMouseKeys() {
+        return mouseMask != 0;
+    }
+
+    /** Must not be modified */
+    public int[] keyboardKeyCodes() {
+        return keyboardKeyCodes;
+    }
+
+    /** All true array with length of keyboardKeyCodes. Must not be modified */
+    public boolean[] keyboardPressed() {
+        return keyboardPressed;
+    }
+
+    /** All false array with length of keyboardKeyCodes. Must not be modified */
+    public boolean[] keyboardReleased() {
+        return keyboardReleased;
+    }
+}
@@ -0,0 +1,57 @@
+package ru.aloyenz.t501.driver.device;
+
+import ru.aloyenz.t501.driver.config.Configuration;
+
+/**
+ * Configuration with its compiled bindings and calibration tables, as seen by reading and emitting threads.
+ * <p>
+ * A snapshot is never modified. Reloaded configuration is compiled into a new snapshot
+ * which replaces the current one with a single volatile write, so a report is never processed
+ * with partially updated settings.
+ */
+public final class ConfigSnapshot {
+
+    private static volatile ConfigSnapshot current = new ConfigSnapshot(
+            new Configuration(), BindingTable.EMPTY, Calibration.build(new Configuration()));
+
+    private final Configuration configuration;
+    private final BindingTable bindings;
+    private final Calibration calibration;
+
+    private ConfigSnapshot(Configuration configuration, BindingTable bindings, Calibration calibration) {
+        this.configuration = configuration;
+        this.bindings = bindings;
+        this.calibration = calibration;
+    }
+
+    public static ConfigSnapshot current() {
+        return current;
+    }
+
+    /**
+     * Compiles bindings and tables of the configuration without making them current.
+     * Keycodes must be loaded before. The snapshot keeps its own copy of the configuration,
+     * so it isn't affected by later changes of the passed one.
+     */
+    public static ConfigSnapshot compile(Configuration configuration) {
+        Configuration copy = configuration.copy();
+        return new ConfigSnapshot(copy, BindingTable.build(copy), Calibration.build(copy));
+    }
+
+    public static void publish(ConfigSnapshot snapshot) {
+        current = snapshot;
+    }
+
+    /** Copy of the source configuration, owned by the snapshot. Must not be modified */
+    public Configuration configuration() {
+        return configuration;
+    }
+
+    public BindingTable bindings() {
+        return bindings;
+    }
+
+    public Calibration calibration() {
+        return calibration;
+    }
+}
@@ -0,0 +1,56 @@
+package ru.aloyenz.t501.driver.device;
+
+import ru.aloyenz.t501.driver.virtual.InputSink;
+
+/**
+ * Decode state of a single tablet. {@link #report}, {@link #filter}, {@link #predictor} and {@link #governor}
+ * are used only by the thread which reads this tablet,
+ * everything else only by the thread which emits its samples (the same thread if there is no sample ring).
+ */
+class DecodeState {
+
+    // For tracing events
+    final String deviceId;
+
+    final KeyboardManager keyboardManager = new KeyboardManager();
+
+    // Virtual devices of this tablet. Set before its first report is read
+    InputSink sink;
+    MouseScheduler mouseScheduler;
+
+    // Reused for every report
+    final PenReport report = new PenReport();
+    // Smooths decoded reports before they are queued
+    final PenFilter filter = new PenFilter();
+    // Extrapolates smoothed reports
+    final PenPredictor predictor = new PenPredictor();
+    // Holds back hover reports before they are queued
+    final HoverGovernor governor = new HoverGovernor();
+    // Reused for every sample taken from the sample ring
+    final PenReport sample = new PenReport();
+    final KeyEvents keyEvents = new KeyEvents();
+
+    // Keyboard part of keyEvents
+    int[] keyboardCodes = new int[16];
+    boolean[] keyboardStates = new boolean[16];
+
+    boolean isTouchedSpecial = false;
+    boolean wasHovering = false;
+
+    // Statistics of written samples
+    long penFrames = 0;
+    long keyboardBatches = 0;
+
+    // Received time of the last sample copied to diagnostics
+    long lastSampleNanos = 0;
+
+    // When the tablet was plugged in or found, 0 after its first pen sample is emitted
+    long pluggedNanos = 0;
+
+    // Keys pressed by special button, null if nothing is pressed
+    CompiledKeys pressedSpecialKeys = null;
+
+    DecodeState(String deviceId) {
+        this.deviceId = deviceId;
+    }
+}
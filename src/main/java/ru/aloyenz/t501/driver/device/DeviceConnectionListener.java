@@ -0,0 +1,37 @@
+package ru.aloyenz.t501.driver.device;
+
+public interface DeviceConnectionListener {
+
+    void onDeviceConnected(T501Device device);
+
+    /**
+     * Called before the device handle is closed. Device is already marked as not connected.
+     */
+    void onDeviceDisconnected(T501Device device);
+
+    /**
+     * Listener notifying the listeners about connected devices in the given order,
+     * and about disconnected devices in reverse order, same as {@link T501DevicesHandler}. Nulls are skipped.
+     */
+    static DeviceConnectionListener of(DeviceConnectionListener... listeners) {
+        return new DeviceConnectionListener() {
+            @Override
+            public void onDeviceConnected(T501Device device) {
+                for (DeviceConnectionListener listener : listeners) {
+                    if (listener != null) {
+                        listener.onDeviceConnected(device);
+                    }
+                }
+            }
+
+            @Override
+            public void onDeviceDisconnected(T501Device device) {
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    if (listeners[i] != null) {
+                        listeners[i].onDeviceDisconnected(device);
+                    }
+                }
+            }
+        };
+    }
+}
@@ -4,379 +4,393 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usb4java.DeviceHandle;
 import org.usb4java.LibUsb;
-import ru.aloyenz.t501.driver.DriverMain;
-import ru.aloyenz.t501.driver.config.KeyBinding;
-import ru.aloyenz.t501.driver.util.Pair;
-import ru.aloyenz.t501.driver.util.Quaternion;
-import ru.aloyenz.t501.driver.util.Triple;
-import ru.aloyenz.t501.driver.virtual.VKeyboard;
-import ru.aloyenz.t501.driver.virtual.VMouse;
-import ru.aloyenz.t501.driver.virtual.VPen;
+import ru.aloyenz.t501.driver.profiling.DecodeEvent;
+import ru.aloyenz.t501.driver.profiling.KeyMappingEvent;
+import ru.aloyenz.t501.driver.profiling.OutputEvent;
+import ru.aloyenz.t501.driver.profiling.SpecialActionEvent;
+import ru.aloyenz.t501.driver.profiling.TransferEvent;
+import ru.aloyenz.t501.driver.virtual.InputSink;
+import ru.aloyenz.t501.driver.window.GraphRing;
+import ru.aloyenz.t501.driver.window.RealTimeGraph;
 import ru.aloyenz.t501.driver.bash.ProcessManager;
-import ru.aloyenz.t501.driver.config.Configuration;
-import ru.aloyenz.t501.driver.config.special.SpecialAction;
+import ru.aloyenz.t501.driver.metrics.Metrics;
 import ru.aloyenz.t501.driver.config.special.SpecialActionType;
 
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
 
 public class DeviceReader {
 
-    private static final int MAX_8BIT = (int) (Math.pow(2, 8) - 1);
-
     private static final Logger LOGGER = LoggerFactory.getLogger(DeviceReader.class);
 
-    private final T501DevicesHandler devicesHandler;
+    // Longer time between samples is a pause, not an interval
+    private static final long MAX_SAMPLE_INTERVAL_NANOS = 100_000_000L;
 
-    private final List<Long> disconnectedHandles = new ArrayList<>();
-    private final KeyboardManager keyboardManager = new KeyboardManager();
+    // Outputs of devices which have no own virtual devices, null if every device gets them from the registry
+    private final InputSink sink;
+    private final MouseScheduler mouseScheduler;
 
-    private boolean isTouchedSpecial = false;
-    private boolean wasHovering = false;
-    private int[] pressedKeys = new int[0];
+    // Null if reports are not recorded
+    private volatile ReportRecorder recorder;
+    // Null if diagnostics are closed
+    private volatile GraphRing graph;
 
-    // Key code - REL_ event - value (nullable)
-    private final ArrayList<Triple<Integer, Boolean, Integer>> mouseButtons = new ArrayList<>();
-    private final ArrayList<Triple<Integer, Boolean, Integer>> mouseButtonsToRelease = new ArrayList<>();
+    /**
+     * Reader of devices which get their virtual devices from {@link VirtualDeviceRegistry}.
+     */
+    public DeviceReader() {
+        this(null, null);
+    }
 
-    public DeviceReader(T501DevicesHandler devicesHandler) {
-        this.devicesHandler = devicesHandler;
+    /**
+     * Reader writing samples of all devices without own virtual devices to the same outputs.
+     */
+    public DeviceReader(InputSink sink, MouseScheduler mouseScheduler) {
+        this.sink = sink;
+        this.mouseScheduler = mouseScheduler;
     }
 
-    public void read() {
-        devicesHandler.deviceHandlers().forEach(device -> {
-            DeviceHandle handle = device.first();
-            DeviceInformation info = device.second();
-
-            // Reading...
-            ByteBuffer buffer = ByteBuffer.allocateDirect(info.packetSize());
-            IntBuffer transferred = IntBuffer.allocate(1);
-            int result = LibUsb.interruptTransfer(handle, info.entryPoint(), buffer, transferred, 1000);
-            if (result == LibUsb.SUCCESS) {
-                int length = transferred.get(0);
-                byte[] data = new byte[length];
-                buffer.get(data, 0, length);
-                buffer.rewind();
-
-                // Process data
-                applyInput(buffer, length);
-            } else {
-                if (result != LibUsb.ERROR_TIMEOUT && result != LibUsb.ERROR_NO_DEVICE) {
-                    LOGGER.error("Error interruptTransfer: {}, ID: {}", LibUsb.strError(result), result);
-                }
+    public void setRecorder(ReportRecorder recorder) {
+        this.recorder = recorder;
+    }
 
-                long pointer = handle.getPointer();
-                if (result == LibUsb.ERROR_NO_DEVICE) {
+    /**
+     * Sets the ring written pen samples are copied to, for {@link RealTimeGraph}. Null stops the copying.
+     */
+    public void setGraph(GraphRing graph) {
+        this.graph = graph;
+    }
 
-                    if (!disconnectedHandles.contains(pointer)) {
-                        LOGGER.info("Device {} has been disconnected", handle);
-                        disconnectedHandles.add(pointer);
-                    }
-                } else {
+    /**
+     * Reads single report of the device with blocking transfer.
+     * Must be called only by the reader thread of this device.
+     */
+    public void read(T501Device device) {
+        DeviceHandle handle = device.handle();
+        ByteBuffer buffer = device.buffer();
+        IntBuffer transferred = device.transferred();
+
+        // Reading...
+        buffer.clear();
+        TransferEvent event = TransferEvent.start();
+
+        int result = LibUsb.interruptTransfer(handle, device.information().entryPoint(), buffer, transferred, 1000);
+        if (result == LibUsb.SUCCESS) {
+            event.commit(device.id(), device.nextSequence(System.nanoTime()), transferred.get(0));
+
+            // Outputs of a removed device may be released already
+            if (!device.isConnected()) {
+                return;
+            }
 
-                    disconnectedHandles.remove(pointer);
-                }
+            // Process data
+            applyInput(device, buffer, transferred.get(0));
+        } else {
+            if (result == LibUsb.ERROR_TIMEOUT) {
+                Metrics.TRANSFER_TIMEOUTS.increment();
+            } else if (result != LibUsb.ERROR_NO_DEVICE) {
+                LOGGER.error("Error interruptTransfer: {}, ID: {}", LibUsb.strError(result), result);
+                Metrics.usbError(result);
             }
-        });
-    }
 
-    private void applyInput(ByteBuffer buffer, int length) {
+            if (result == LibUsb.ERROR_NO_DEVICE) {
 
-        byte[] data = new byte[length];
-        buffer.get(data);
+                if (!device.isNoDeviceReported()) {
+                    LOGGER.info("Device {} has been disconnected", device);
+                    Metrics.usbError(result);
+                    device.setNoDeviceReported(true);
+                }
+            } else {
 
-        if (data[0] == 0x06) {
-            // HID Report for stylus. Process it.
-            processHID(data);
+                device.setNoDeviceReported(false);
+            }
         }
     }
 
-    private void processHID(byte[] data) {
-        // For debug: showing raw HID report in hex
-//        StringBuilder hexString = new StringBuilder();
-//        for (byte b : data) {
-//            hexString.append(String.format("%02X ", b));
-//        }
+    /**
+     * Processes raw report of the device. Reports of the same device must not be applied concurrently.
+     * <p>
+     * If the device has a sample ring, decoded report is only queued there, and virtual devices
+     * are written by its emitter thread, so slow uinput writes never delay the next transfer.
+     */
+    public void applyInput(T501Device device, ByteBuffer buffer, int length) {
+        Metrics.REPORTS.increment();
+
+        ReportRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.record(device, buffer, length);
+        }
 
-        byte xLow = data[2];
-        byte xHigh = data[1];
-        int x = u16From2Bytes(xHigh, xLow);
+        if (ReportDecoder.isStylusReport(buffer, length)) {
+            // HID Report for stylus. Process it.
+            DecodeState state = device.decodeState();
 
-        byte yLow = data[4];
-        byte yHigh = data[3];
-        int y = u16From2Bytes(yHigh, yLow);
+            DecodeEvent event = DecodeEvent.start();
 
-        boolean onSpecialButton = (y & 0b1111000000000000) != 0;
+            // The whole report is decoded with the same settings even if configuration is reloaded meanwhile
+            ConfigSnapshot snapshot = ConfigSnapshot.current();
+            ReportDecoder.decode(buffer, state.report, snapshot.calibration());
+            state.report.sequence = device.sequence();
+            state.report.nanos = device.receivedNanos();
 
-        int rawPressure = u16From2Bytes(data[5], data[6]);
+            // Every report, even one held back below, is the current state for overlays.
+            // It's published as decoded, before smoothing and prediction change the report
+            SharedPenState shared = device.sharedState();
+            if (shared != null) {
+                shared.publish(state.report);
+            }
 
-        int min = Configuration.getInstance().fullPressureValue;      // full press
-        int max = Configuration.getInstance().hoverAfterRawPressure;  // hover
+            state.filter.apply(state.report, device.receivedNanos(), snapshot.configuration().smoothing);
+            state.predictor.apply(state.report, device.receivedNanos(), snapshot.configuration().prediction);
 
-        // Normalizing pressure to 0 ~ 1024
-        int normalizedPressure = (int) ((max - rawPressure) * 1024.0 / (max - min));
-        int pressure = Math.max(0, Math.min(1024, normalizedPressure));
+            event.commit(device.id(), state.report.sequence);
 
-        // 13 ~ 16 tilt values
-        int tiltX = data[13] & 0xFF;
-        int tiltY = data[14] & 0xFF;
+            // Hover reports above hover_output_rate are not written, but the newest one goes before a state change
+            if (state.governor.hold(state.report, device.receivedNanos(), snapshot.configuration().hoverOutputRate)) {
+                return;
+            }
 
-        // Centering tilt values around 0
-        tiltX = tiltX - 128;
-        tiltY = tiltY - 128;
+            PenSampleRing samples = device.samples();
+            PenReport held = state.governor.flush();
+            if (held != null) {
+                output(state, samples, held);
+            }
+            output(state, samples, state.report);
+        }
+    }
 
-        // Normalizing tilt to degrees
-        tiltX = (int) (tiltX * 90.0 / 128.0);
-        tiltY = (int) (tiltY * 90.0 / 128.0);
+    private void output(DecodeState state, PenSampleRing samples, PenReport report) {
+        if (samples != null) {
+            samples.offer(report);
+        } else {
+            processHID(state, report);
+        }
+    }
 
-        // Diapazon tilt: -90 to 90
-        tiltX = Math.max(-90, Math.min(90, tiltX));
-        tiltY = Math.max(-90, Math.min(90, tiltY));
+    /**
+     * Writes samples of the device from its sample ring until the ring is closed and empty.
+     * Must be called only by the emitter thread of this device.
+     */
+    void emit(T501Device device, PenSampleRing samples) {
+        DecodeState state = device.decodeState();
 
-        boolean isHovering = rawPressure > 0;
-        boolean isTouching = pressure > 0;
+        while (samples.take(state.sample)) {
+            processHID(state, state.sample);
+        }
+    }
 
-        // 9 byte = stylus buttons
-        // 0x02 = not pressed
-        // 0x04 = pressed +
-        // 0x06 = pressed -
-        byte buttonState = data[9];
-        boolean buttonPlusPressed = buttonState == 0x04;
-        boolean buttonMinusPressed = buttonState == 0x06;
+    private void processHID(DecodeState state, PenReport report) {
+        if (state.sink == null) {
+            state.sink = sink;
+            state.mouseScheduler = mouseScheduler;
+        }
 
-        // For debug: showing raw HID report in hex with some parsed values
-        //System.out.print(hexString + " " + buttonPlusPressed + " " + buttonMinusPressed + "\r");
+        KeyMappingEvent keyMappingEvent = KeyMappingEvent.start();
 
-        // 11 12 bytes = buttons on tablet
-        short tabletButtons = (short) ((data[11] & 0xFF) << 8 | (data[12] & 0xFF));
+        state.keyboardManager.getKeyEvents(report.tabletButtons, state.keyEvents);
 
-        List<Pair<Integer, Quaternion<Boolean, Boolean, Boolean, Integer>>> keyEvents = keyboardManager.getKeyEvents(tabletButtons);
+        keyMappingEvent.commit(state.deviceId, report.sequence, state.keyEvents.size());
 
         // Process stylus
-        if (isHovering) {
+        if (report.hovering) {
             // Sending position data if not on special button
-            if (!onSpecialButton) {
-                VPen.writePosition(DriverMain.getVirtualPenHandle(),
-                        x, y,
-                        pressure, isTouching,
-                        tiltX, tiltY,
-                        buttonPlusPressed, buttonMinusPressed);
-            } else if (isTouching) {
-                // We need to process special button if stylus touched
-                processSpecialButton(x);
-            } else {
-                if (isTouchedSpecial) {
-                    // Resetting all mouse keys
-                    mouseButtonsToRelease.addAll(mouseButtons);
-                    mouseButtons.clear();
+            if (!report.onSpecialButton) {
+                OutputEvent event = OutputEvent.start();
+
+                state.sink.penFrame(report.x, report.y,
+                        report.pressure, report.touching,
+                        report.tiltX, report.tiltY,
+                        report.buttonPlusPressed, report.buttonMinusPressed);
+
+                event.commit(state.deviceId, report.sequence, OutputEvent.PEN_FRAME, 1);
+                state.penFrames++;
+                Metrics.PEN_FRAMES.increment();
+                Metrics.EMISSION_LATENCY.observe(System.nanoTime() - report.nanos);
+
+                GraphRing graph = this.graph;
+                if (graph != null) {
+                    sample(graph, state, report);
                 }
 
-                isTouchedSpecial = false;
-
-                if (pressedKeys.length > 0) {
-                    VKeyboard.keyboardKeyEvent(
-                            DriverMain.getVirtualKeyboardHandle(),
-                            pressedKeys,
-                            new boolean[pressedKeys.length] // All false array
-                    );
-
-                    pressedKeys = new int[0]; // Resetting pressed keys
+                if (state.pluggedNanos != 0) {
+                    LOGGER.info("First pen sample of device {} is emitted {} ms after it was connected",
+                            state.deviceId, (System.nanoTime() - state.pluggedNanos) / 1_000_000);
+                    state.pluggedNanos = 0;
                 }
+            } else if (report.touching) {
+                // We need to process special button if stylus touched
+                processSpecialButton(state, report);
+            } else {
+                state.isTouchedSpecial = false;
 
-            }
+                if (state.pressedSpecialKeys != null) {
+                    CompiledKeys keys = state.pressedSpecialKeys;
 
-            // Sending keyboard events
-            if (!keyEvents.isEmpty()) {
-                int[] keyCodes = new int[keyEvents.size()];
-                boolean[] pressedStates = new boolean[keyEvents.size()];
-
-                int index = 0;
-                for (var entry : keyEvents) {
-                    if (!entry.second().second()) { // Not mouse event
-
-                        keyCodes[index] = entry.first();
-                        pressedStates[index] = entry.second().first();
-
-                    } else {
-                        Triple<Integer, Boolean, Integer> o = new Triple<>(
-                                entry.first(),
-                                entry.second().third(),
-                                entry.second().fourth());
-
-                        if (entry.second().first()) { // Pressed
-                            mouseButtons.add(o);
-                        } else { // Released
-                            mouseButtonsToRelease.add(o);
-                            mouseButtons.remove(o);
+                    if (keys.hasMouseKeys()) {
+                        for (int i = 0; i < keys.size(); i++) {
+                            if (keys.isMouse(i)) {
+                                state.mouseScheduler.release(keys.keyCode(i), keys.isRel(i));
+                            }
                         }
                     }
 
-                    index++;
-                }
-
-                // Removing 0 keycodes (mouse or unknown events)
-                List<Integer> filteredKeyCodes = new ArrayList<>();
-                List<Boolean> filteredPressedStates = new ArrayList<>();
-
-                for (int i = 0; i < keyCodes.length; i++) {
-                    if (keyCodes[i] != 0) {
-                        filteredKeyCodes.add(keyCodes[i]);
-                        filteredPressedStates.add(pressedStates[i]);
+                    if (keys.keyboardKeyCodes().length > 0) {
+                        writeKeyboard(state, report.sequence,
+                                keys.keyboardKeyCodes(),
+                                keys.keyboardReleased(), // All false array
+                                keys.keyboardKeyCodes().length
+                        );
                     }
+
+                    state.pressedSpecialKeys = null; // Resetting pressed keys
                 }
 
-                keyCodes = filteredKeyCodes.stream().mapToInt(Integer::intValue).toArray();
-                pressedStates = new boolean[filteredPressedStates.size()];
+            }
 
-                VKeyboard.keyboardKeyEvent(DriverMain.getVirtualKeyboardHandle(), keyCodes, pressedStates);
+            // Sending keyboard events
+            if (!state.keyEvents.isEmpty()) {
+                sendKeyEvents(state, report.sequence);
             }
-        } else if (wasHovering) {
+        } else if (state.wasHovering) {
             // Stylus has just left hover state
-            VPen.penLeave(DriverMain.getVirtualPenHandle());
+            OutputEvent event = OutputEvent.start();
+
+            state.sink.penLeave();
+
+            event.commit(state.deviceId, report.sequence, OutputEvent.PEN_LEAVE, 1);
         }
 
         // Updating previous state
-        wasHovering = isHovering;
+        state.wasHovering = report.hovering;
     }
 
-    public Thread getReplicationThread() {
-
-        return new Thread(() -> {
-            while (true) {
-                // Sending mouse button events
-                int[] codes = new int[mouseButtons.size()];
-                boolean[] rels = new boolean[mouseButtons.size()];
-                int[] values = new int[mouseButtons.size()];
+    private static void sample(GraphRing graph, DecodeState state, PenReport report) {
+        long now = System.nanoTime();
+        long interval = report.nanos - state.lastSampleNanos;
+        state.lastSampleNanos = report.nanos;
+
+        long slot = graph.claim();
+        graph.put(slot, RealTimeGraph.PRESSURE, report.pressure);
+        graph.put(slot, RealTimeGraph.X, report.x);
+        graph.put(slot, RealTimeGraph.Y, report.y);
+        graph.put(slot, RealTimeGraph.TILT_X, report.tiltX);
+        graph.put(slot, RealTimeGraph.TILT_Y, report.tiltY);
+        // Pauses would flatten the graph
+        graph.put(slot, RealTimeGraph.INTERVAL, interval <= MAX_SAMPLE_INTERVAL_NANOS ? interval / 1000 : 0);
+        graph.put(slot, RealTimeGraph.LATENCY, (now - report.nanos) / 1000);
+        graph.publish(slot);
+    }
 
-                int index = 0;
-                for (var button : mouseButtons) {
-                    codes[index] = button.first();
-                    rels[index] = button.second();
+    private void sendKeyEvents(DecodeState state, long sequence) {
+        KeyEvents keyEvents = state.keyEvents;
 
-                    if (button.third() != null) {
-                        values[index] = button.third();
-                    } else {
-                        values[index] = 1; // Default value for button press
-                    }
+        if (state.keyboardCodes.length < keyEvents.size()) {
+            state.keyboardCodes = new int[keyEvents.size()];
+            state.keyboardStates = new boolean[keyEvents.size()];
+        }
 
-                    index++;
+        int count = 0;
+        for (int i = 0; i < keyEvents.size(); i++) {
+            if (!keyEvents.isMouse(i)) {
+                // Skipping 0 keycodes (unknown events)
+                if (keyEvents.keyCode(i) != 0) {
+                    state.keyboardCodes[count] = keyEvents.keyCode(i);
+                    state.keyboardStates[count] = keyEvents.isPressed(i);
+                    count++;
                 }
+            } else if (keyEvents.isPressed(i)) {
+                // Default value for button press is 1
+                state.mouseScheduler.press(keyEvents.keyCode(i), keyEvents.isRel(i),
+                        keyEvents.hasValue(i) ? keyEvents.value(i) : 1);
+            } else {
+                state.mouseScheduler.release(keyEvents.keyCode(i), keyEvents.isRel(i));
+            }
+        }
 
-                VMouse.mouseEvent(DriverMain.getVirtualMouseHandle(), codes, rels, values);
+        if (count > 0) {
+            writeKeyboard(state, sequence, state.keyboardCodes, state.keyboardStates, count);
+        }
+    }
 
-                // Sending mouse button release events
-                codes = new int[mouseButtonsToRelease.size()];
-                rels = new boolean[mouseButtonsToRelease.size()];
-                values = new int[mouseButtonsToRelease.size()];
+    private void writeKeyboard(DecodeState state, long sequence, int[] keyCodes, boolean[] pressed, int count) {
+        OutputEvent event = OutputEvent.start();
 
-                index = 0;
-                for (var button : mouseButtonsToRelease) {
-                    codes[index] = button.first();
-                    rels[index] = button.second();
-                    values[index] = 0;
+        state.sink.keyboardKeys(keyCodes, pressed, count);
+        state.keyboardBatches++;
+        Metrics.KEYBOARD_BATCHES.increment();
 
-                    index++;
-                }
-                mouseButtonsToRelease.clear();
+        event.commit(state.deviceId, sequence, OutputEvent.KEYBOARD, count);
+    }
 
-                VMouse.mouseEvent(DriverMain.getVirtualMouseHandle(), codes, rels, values);
+    private void processSpecialButton(DecodeState state, PenReport report) {
+        if (!state.isTouchedSpecial) {
+            state.isTouchedSpecial = true;
 
-                try {
-                    Thread.sleep(Configuration.getInstance().replicationThreadDelayMs);
-                } catch (InterruptedException e) {
-                    LOGGER.info("Replication thread interrupted: {}", e.getMessage());
-                    return;
-                }
-            }
-        });
-    }
+            SpecialActionEvent event = SpecialActionEvent.start();
+
+            SpecialActionType type = processSpecialButtonImpl(state, report);
 
-    private void processSpecialButton(int x) {
-        if (!isTouchedSpecial) {
-            isTouchedSpecial = true;
-            processSpecialButtonImpl(x);
+            event.commit(state.deviceId, report.sequence, specialButtonNumber(report.x),
+                    type == null ? null : type.name());
         }
     }
 
-    private void processSpecialButtonImpl(int x) {
+    // We have 10 special buttons mapped evenly across the X axis.
+    // We need to extract button number from X coordinate (0 ~ 4096 - X range)
+    private static int specialButtonNumber(int x) {
+        return (x * 10) / 4096;
+    }
+
+    // Returns type of the dispatched action, null if nothing is bound
+    private SpecialActionType processSpecialButtonImpl(DecodeState state, PenReport report) {
+        int x = report.x;
+
         // Okay, we need to map X coordinate and process some script from config
 
-        // We have 10 special buttons mapped evenly across the X axis.
-        // We need to extract button number from X coordinate (0 ~ 4096 - X range)
-        int buttonNumber = (x * 10) / 4096;
+        int buttonNumber = specialButtonNumber(x);
 
         LOGGER.debug("Special button #{} touched at X={}", buttonNumber, x);
 
         // Process from configuration
-        SpecialAction action = Configuration.getInstance().specialButtonsConfiguration.getAllActions().get(buttonNumber);
-        if (action.type == null) {
+        BindingTable bindings = BindingTable.getInstance();
+        if (buttonNumber >= bindings.specialButtonsCount()) {
+            return null;
+        }
+
+        SpecialActionType type = bindings.specialType(buttonNumber);
+        if (type == null) {
             LOGGER.warn("Special button #{} has null action type, ignoring", buttonNumber);
-            return;
+            return null;
         }
 
-        if (action.type == SpecialActionType.KEY_INPUT) {
+        if (type == SpecialActionType.KEY_INPUT) {
             // Key Input
-            if (action.keycodes != null && action.keycodes.length > 0) {
-                int[] keyCodes = new int[action.keycodes.length];
-                HashMap<String, KeyCode> keycodeCache = KeyCodesFetcher.getKeycodes();
-
-                for (int i = 0; i < action.keycodes.length; i++) {
-                    KeyBinding keyBinding = action.keycodes[i];
-                    String keycodeStr = keyBinding.key;
-
-                    if (keycodeStr.startsWith("BTN_") || keycodeStr.startsWith("REL_")) {
-                        // Adding to mouse
-                        Triple<Integer, Boolean, Integer> o = new Triple<>(
-                                keycodeCache.get(keycodeStr).keyCode(),
-                                keycodeStr.startsWith("REL_"),
-                                keyBinding.value
-                        );
-                        mouseButtons.add(o);
-                        continue; // Skip adding to keyboard keycodes
-                    }
-
+            CompiledKeys keys = bindings.specialKeys(buttonNumber);
 
-                    KeyCode keycode = keycodeCache.get(keycodeStr);
-
-                    if (keycode != null) {
-                        keyCodes[i] = keycode.keyCode();
-                    } else {
-                        LOGGER.warn("Special button key input has unknown keycode name: {}", keycodeStr);
-                    }
-                }
+            if (keys.size() > 0) {
+                // Store pressed keys for release later
+                state.pressedSpecialKeys = keys;
+            }
 
-                // Removing 0 keycodes (unknown keycodes)
-                List<Integer> filteredKeyCodes = new ArrayList<>();
-                for (int keyCode : keyCodes) {
-                    if (keyCode != 0) {
-                        filteredKeyCodes.add(keyCode);
+            if (keys.hasMouseKeys()) {
+                for (int i = 0; i < keys.size(); i++) {
+                    if (keys.isMouse(i)) {
+                        state.mouseScheduler.press(keys.keyCode(i), keys.isRel(i), keys.hasValue(i) ? keys.value(i) : 1);
                     }
                 }
+            }
 
-                keyCodes = filteredKeyCodes.stream().mapToInt(Integer::intValue).toArray();
-
-                boolean[] pressedStates = new boolean[keyCodes.length];
-                Arrays.fill(pressedStates, true);
-
-                // Store pressed keys for release later
-                this.pressedKeys = keyCodes;
-
-                VKeyboard.keyboardKeyEvent(
-                        DriverMain.getVirtualKeyboardHandle(),
-                        keyCodes,
-                        pressedStates
+            if (keys.keyboardKeyCodes().length > 0) {
+                writeKeyboard(state, report.sequence,
+                        keys.keyboardKeyCodes(),
+                        keys.keyboardPressed(),
+                        keys.keyboardKeyCodes().length
                 );
             }
-        } else if (action.type == SpecialActionType.BASH_SCRIPT) {
-            ProcessManager.runScripts(action.scripts);
+        } else if (type == SpecialActionType.BASH_SCRIPT) {
+            ProcessManager.runScripts(buttonNumber, bindings.specialScripts(buttonNumber));
         }
-    }
 
-    private int u16From2Bytes(byte high, byte low) {
-        return ((high & 0xFF) << 8) | (low & 0xFF);
+        return type;
     }
 }
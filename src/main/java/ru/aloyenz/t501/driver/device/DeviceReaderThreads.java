@@ -0,0 +1,97 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+
+/**
+ * Reads every tablet with blocking transfers on its own thread,
+ * so an idle tablet waiting for the transfer timeout never delays reports of another one.
+ */
+public class DeviceReaderThreads implements DeviceConnectionListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeviceReaderThreads.class);
+
+    private final DeviceReader reader;
+
+    // Device id - reader thread
+    private final HashMap<String, Thread> threads = new HashMap<>();
+
+    public DeviceReaderThreads(DeviceReader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public void onDeviceConnected(T501Device device) {
+        // Platform thread: blocking transfer is a native call which would pin a virtual thread anyway
+        Thread thread = new Thread(() -> {
+            try {
+                while (device.isConnected() && !Thread.currentThread().isInterrupted()) {
+                    reader.read(device);
+
+                    try {
+                        Thread.sleep(ConfigSnapshot.current().configuration().readThreadDelayMs);
+                    } catch (InterruptedException e) {
+                        // Interrupted only to stop
+                        break;
+                    }
+                }
+            } finally {
+                // The last transfer is finished, so the handle may be closed
+                device.releaseHandle();
+            }
+
+            LOGGER.info("Reader thread of device {} stopped.", device);
+        }, "T501 reader " + device.id());
+
+        synchronized (threads) {
+            if (threads.containsKey(device.id())) {
+                return;
+            }
+
+            threads.put(device.id(), thread);
+        }
+
+        device.retainHandle();
+        thread.start();
+    }
+
+    @Override
+    public void onDeviceDisconnected(T501Device device) {
+        Thread thread;
+        synchronized (threads) {
+            thread = threads.remove(device.id());
+        }
+
+        // Called by the hotplug callback, which holds the libusb event lock: the transfer in progress can't
+        // complete until it returns, so the thread is not waited for. It closes the handle when it stops,
+        // and a report read meanwhile is dropped by the reader
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public void stop() {
+        Thread[] running;
+        synchronized (threads) {
+            running = threads.values().toArray(new Thread[0]);
+            threads.clear();
+        }
+
+        for (Thread thread : running) {
+            thread.interrupt();
+        }
+
+        // Transfers time out in a second, and events are still handled by the hotplug thread
+        for (Thread thread : running) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                LOGGER.warn("Interrupted while waiting for reader threads to stop");
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
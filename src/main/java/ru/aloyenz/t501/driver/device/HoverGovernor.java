@@ -0,0 +1,119 @@
+package ru.aloyenz.t501.driver.device;
+
+/**
+ * Caps the rate of hover-only reports of a single tablet, see {@code hover_output_rate}.
+ * <p>
+ * A hovering stylus is reported at the full rate of the tablet, and every written sample wakes up
+ * libinput, the compositor and the focused application, while nobody needs hover positions more often
+ * than the display shows them. Reports with contact, over the special buttons strip, or with another
+ * button state than the previous written report always pass. A held hover report is written right before
+ * such a report, so the position where the stylus touches down or a button is pressed is never lost.
+ * Nothing is allocated.
+ */
+public class HoverGovernor {
+
+    private static final int HOVER_ONLY = 1;
+    private static final int BUTTON_PLUS = 1 << 1;
+    private static final int BUTTON_MINUS = 1 << 2;
+
+    // The newest hover report which was not written
+    private final PenReport held = new PenReport();
+    private boolean holding = false;
+
+    private long lastNanos = 0;
+    // State of the last written report, -1 if nothing is written
+    private int lastState = -1;
+
+    // Statistics, read by other threads
+    private volatile long passed = 0;
+    private volatile long skipped = 0;
+
+    /**
+     * Decides whether the report is written now. Called for every decoded report.
+     *
+     * @param nanos {@link System#nanoTime()} of the report
+     * @param maxRate max count of hover-only reports per second, 0 or less - every report is written
+     * @return true if the report is held back and must not be written
+     */
+    public boolean hold(PenReport report, long nanos, int maxRate) {
+        int state = state(report);
+        boolean sameState = state == lastState;
+        long interval = maxRate > 0 ? 1_000_000_000L / maxRate : 0;
+
+        if (interval > 0 && sameState && (state & HOVER_ONLY) != 0 && nanos - lastNanos < interval) {
+            if (holding) {
+                skipped++;
+            }
+            copy(report, held);
+            holding = true;
+            return true;
+        }
+
+        // A newer hover report makes the held one useless, any other report is preceded by it
+        if (holding && sameState) {
+            holding = false;
+            skipped++;
+        }
+
+        // Steady hover keeps the cadence of the rate even if it isn't a multiple of the report period
+        lastNanos = sameState && nanos - lastNanos < 2 * interval ? lastNanos + interval : nanos;
+        lastState = state;
+        passed++;
+        return false;
+    }
+
+    /**
+     * Returns the held report which must be written before the report just passed by {@link #hold},
+     * or null. The returned instance is reused, it's valid until the next call of {@link #hold}.
+     */
+    public PenReport flush() {
+        if (!holding) {
+            return null;
+        }
+
+        holding = false;
+        passed++;
+        return held;
+    }
+
+    /** Count of written reports */
+    public long passed() {
+        return passed;
+    }
+
+    /** Count of hover reports which were never written */
+    public long skipped() {
+        return skipped;
+    }
+
+    private static int state(PenReport report) {
+        int state = report.tabletButtons << 16;
+        if (report.hovering && !report.touching && !report.onSpecialButton) {
+            state |= HOVER_ONLY;
+        }
+        if (report.buttonPlusPressed) {
+            state |= BUTTON_PLUS;
+        }
+        if (report.buttonMinusPressed) {
+            state |= BUTTON_MINUS;
+        }
+        return state;
+    }
+
+    private static void copy(PenReport from, PenReport to) {
+        to.x = from.x;
+        to.y = from.y;
+        to.rawPressure = from.rawPressure;
+        to.pressure = from.pressure;
+        to.tiltX = from.tiltX;
+        to.tiltY = from.tiltY;
+        to.hovering = from.hovering;
+        to.touching = from.touching;
+        to.onSpecialButton = from.onSpecialButton;
+        to.buttonPlusPressed = from.buttonPlusPressed;
+        to.buttonMinusPressed = from.buttonMinusPressed;
+        to.tabletButtons = from.tabletButtons;
+        to.sequence = from.sequence;
+        to.nanos = from.nanos;
+    }
+}
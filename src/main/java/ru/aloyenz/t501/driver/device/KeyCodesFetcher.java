@@ -5,11 +5,6 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import ru.aloyenz.t501.driver.config.KeyBinding;
-import ru.aloyenz.t501.driver.config.KeyboardConfiguration;
-import ru.aloyenz.t501.driver.config.special.SpecialAction;
-import ru.aloyenz.t501.driver.config.special.SpecialActionType;
-import ru.aloyenz.t501.driver.config.special.SpecialButtonsConfig;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -44,28 +39,102 @@ public class KeyCodesFetcher {
      */
     private static final Pattern KEY_PATTERN = Pattern.compile("^([A-Z_]+)([\\t ]+)(0x[0-9a-fA-F]+|\\d+)(([\\t ]+)(.+)$|)");
 
+    // Generated from keycodes.json at build time
+    private static final String BUNDLED_INDEX = "/keycodes.idx";
+
+    // Release of the running kernel, the same as `uname -r` prints
+    private static final String OS_RELEASE = "/proc/sys/kernel/osrelease";
+
+    // Keycodes parsed from headers or JSON, with comments
     private static final HashMap<String, KeyCode> keycodes = new HashMap<>();
 
+    // All loaded keycodes, used for lookups
+    private static volatile KeycodeIndex index = KeycodeIndex.EMPTY;
+
+    public static KeycodeIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Copy of all loaded keycodes. Comments are known only for keycodes parsed from headers or JSON.
+     */
     public static HashMap<String, KeyCode> getKeycodes() {
-        return keycodes;
+        KeycodeIndex index = KeyCodesFetcher.index;
+
+        HashMap<String, KeyCode> result = new HashMap<>();
+        for (int i = 0; i < index.size(); i++) {
+            KeyCode known = keycodes.get(index.name(i));
+            result.put(index.name(i), new KeyCode(index.code(i), known == null ? null : known.comment()));
+        }
+
+        return result;
     }
 
+    /**
+     * Headers are parsed only if it's forced or user headers are given.
+     * Otherwise the cache is loaded if it exists, or the index bundled into the jar.
+     */
     public static void load(String keycodesCache, String userInputHeadersPath, boolean forceFetch) {
-        if (!forceFetch) {
+        if (forceFetch || userInputHeadersPath != null) {
+            fetch(userInputHeadersPath, keycodesCache);
+            return;
+        }
+
+        if (keycodesCache != null && Files.exists(Path.of(keycodesCache))) {
             try {
                 loadKeycodesFromCache(keycodesCache);
-                LOGGER.info("Keycodes fetched from cache.");
+                LOGGER.info("Keycodes loaded from cache {}.", keycodesCache);
                 return;
             } catch (IOException e) {
-                LOGGER.warn("Could not load keycodes from cache: {}. Fetching from headers...", e.getMessage());
+                LOGGER.warn("Could not load keycodes from cache: {}. Using bundled keycodes...", e.getMessage());
             }
         }
 
-        fetch(userInputHeadersPath, keycodesCache);
+        loadBundled();
     }
 
+    /**
+     * Loads binary cache written after parsing headers or JSON cache in the format of bundled keycodes.json.
+     */
     public static void loadKeycodesFromCache(String keycodesCache) throws IOException {
-        String json = Files.readString(Path.of(keycodesCache), StandardCharsets.UTF_8);
+        byte[] content = Files.readAllBytes(Path.of(keycodesCache));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        if (content.length >= Integer.BYTES && in.readInt() == KeycodeIndex.MAGIC) {
+            index = KeycodeIndex.read(in);
+        } else {
+            loadJson(new String(content, StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Loads the keycode index bundled into the jar */
+    public static void loadBundled() {
+        try (InputStream stream = KeyCodesFetcher.class.getResourceAsStream(BUNDLED_INDEX)) {
+            if (stream != null) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+                if (in.readInt() == KeycodeIndex.MAGIC) {
+                    index = KeycodeIndex.read(in);
+                    LOGGER.info("Loaded {} bundled keycodes.", index.size());
+                    return;
+                }
+
+                LOGGER.warn("Bundled keycode index is invalid.");
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not read bundled keycode index: {}", e.getMessage());
+        }
+
+        // For example, the build didn't run generateKeycodeIndex
+        LOGGER.warn("Bundled keycode index is not found, parsing bundled keycodes.json...");
+        try (InputStream stream = KeyCodesFetcher.class.getResourceAsStream("/keycodes.json")) {
+            loadJson(new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOGGER.error("Could not load bundled keycodes: {}", e.getMessage(), e);
+            throw new RuntimeException("Could not load bundled keycodes: " + e.getMessage());
+        }
+    }
+
+    private static void loadJson(String json) {
         Gson gson = new Gson();
 
         Map<String, KeyCode> loadedKeycodes = gson.fromJson(json,
@@ -73,6 +142,7 @@ public class KeyCodesFetcher {
                 }.getType());
 
         keycodes.putAll(loadedKeycodes);
+        index = KeycodeIndex.of(keycodes);
     }
 
     // We need to load keycodes from linux library (from input-event-codes.h)
@@ -117,17 +187,16 @@ public class KeyCodesFetcher {
         // Finding the linux-headers version
         if (keycodeString == null || keycodeString.isEmpty()) {
 
-            ProcessBuilder pb = new ProcessBuilder("uname", "-r");
             try {
-                Process process = pb.start();
-                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
-                String linuxVersion = reader.readLine();
-                process.waitFor();
+                String linuxVersion = Files.readString(Path.of(OS_RELEASE), StandardCharsets.UTF_8).trim();
 
-                // For example, output is "6.14.0-33-generic".
+                // For example, release is "6.14.0-33-generic".
                 // But file located at /usr/src/linux-hwe-6.14-headers-6.14.0-33/include/uapi/linux/input-event-codes.h
 
                 String[] split = linuxVersion.split("-");
+                if (split.length < 2 || split[0].lastIndexOf('.') < 0) {
+                    throw new IOException("Unexpected kernel release: " + linuxVersion);
+                }
 
                 String notSignedVersion = split[0] + "-" + split[1]; // "6.14.0-33"
                 String trimmedVersion = split[0].substring(0, split[0].lastIndexOf('.')); // "6.14"
@@ -149,8 +218,8 @@ public class KeyCodesFetcher {
                     LOGGER.warn("Input event codes file does not exist in {}", path);
                 }
 
-            } catch (IOException | InterruptedException e) {
-                LOGGER.error("Error executing uname command or reading headers: {}", e.getMessage());
+            } catch (IOException e) {
+                LOGGER.error("Error reading kernel release or headers: {}", e.getMessage());
 
             }
         }
@@ -159,14 +228,7 @@ public class KeyCodesFetcher {
         if (keycodeString == null || keycodeString.isEmpty()) {
             LOGGER.warn("Headers not found in system paths, loading predefined keycodes from resources.");
 
-            saveKeycodeCacheFromResources(keycodesCache);
-            try {
-                loadKeycodesFromCache(keycodesCache);
-            } catch (IOException e) {
-                LOGGER.error("Could not load keycodes from predefined cache: {}", e.getMessage(), e);
-                throw new RuntimeException("Could not load keycodes from predefined cache: " + e.getMessage());
-            }
-
+            loadBundled();
             return;
         }
 
@@ -175,7 +237,7 @@ public class KeyCodesFetcher {
 
         // Saving to cache
         try {
-            storeKeycodesToFile(new File(keycodesCache));
+            storeIndexToFile(new File(keycodesCache));
         } catch (IOException e) {
             LOGGER.warn("Could not store keycodes to cache file: {}", e.getMessage(), e);
         }
@@ -260,6 +322,7 @@ public class KeyCodesFetcher {
             }
         }
 
+        index = KeycodeIndex.of(keycodes);
         LOGGER.info("Loaded {} keycodes from header file.", keycodes.size());
     }
 
@@ -280,10 +343,18 @@ public class KeyCodesFetcher {
         return comment;
     }
 
+    /** Writes loaded keycodes as binary cache */
+    public static void storeIndexToFile(File outputFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+            index.write(out);
+        }
+    }
+
+    /** Writes loaded keycodes as JSON in the format of bundled keycodes.json, for editing */
     public static void storeKeycodesToFile(File outputFile) throws IOException {
         Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
-        LinkedHashMap<String, KeyCode> sorted = keycodes.entrySet().stream()
+        LinkedHashMap<String, KeyCode> sorted = getKeycodes().entrySet().stream()
                 .sorted(Comparator.comparingInt(e -> e.getValue().keyCode()))
                 .collect(Collectors.toMap(
                         Map.Entry::getKey,
@@ -295,41 +366,4 @@ public class KeyCodesFetcher {
         String json = gson.toJson(sorted);
         Files.writeString(outputFile.toPath(), json, StandardCharsets.UTF_8);
     }
-
-    public static int[] getNeededKeycodes(KeyboardConfiguration keyboardConfiguration, SpecialButtonsConfig buttonsConfig) {
-        List<KeyBinding> keyNames = new ArrayList<>();
-
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.ctrlPlus).toList());
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.ctrlMinus).toList());
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.bracketOpen).toList());
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.bracketClose).toList());
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.mouseScrollUp).toList());
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.mouseScrollDown).toList());
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.ctrl).toList());
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.alt).toList());
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.space).toList());
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.tab).toList());
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.b).toList());
-        keyNames.addAll(Arrays.stream(keyboardConfiguration.e).toList());
-
-        // Adding scripted keycodes
-        for (SpecialAction action : buttonsConfig.getAllActions()) {
-            if (action.type == SpecialActionType.KEY_INPUT) {
-                keyNames.addAll(Arrays.asList(action.keycodes));
-            }
-        }
-
-        // Removing duplicates
-        keyNames = keyNames.stream().distinct().collect(Collectors.toList());
-
-        return keyNames.stream()
-                .mapToInt(name -> {
-                    KeyCode keyCode = keycodes.get(name.key);
-                    if (keyCode == null) {
-                        throw new IllegalArgumentException("Keycode not found: " + name);
-                    }
-                    return keyCode.keyCode();
-                })
-                .toArray();
-    }
 }
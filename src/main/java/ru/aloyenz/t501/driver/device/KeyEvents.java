@@ -0,0 +1,77 @@
+package ru.aloyenz.t501.driver.device;
+
+import java.util.Arrays;
+
+/**
+ * Reusable batch of key events produced by {@link KeyboardManager}.
+ * Arrays grow only when a binding has more keys than ever before, so the steady state doesn't allocate.
+ */
+public class KeyEvents {
+
+    private int size = 0;
+
+    private int[] keyCodes = new int[16];
+    private boolean[] pressed = new boolean[16];
+    private boolean[] mouse = new boolean[16];
+    private boolean[] rel = new boolean[16];
+    private boolean[] hasValue = new boolean[16];
+    private int[] values = new int[16];
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int keyCode, boolean isPressed, boolean isMouse, boolean isRel, boolean withValue, int value) {
+        if (size == keyCodes.length) {
+            int capacity = keyCodes.length * 2;
+
+            keyCodes = Arrays.copyOf(keyCodes, capacity);
+            pressed = Arrays.copyOf(pressed, capacity);
+            mouse = Arrays.copyOf(mouse, capacity);
+            rel = Arrays.copyOf(rel, capacity);
+            hasValue = Arrays.copyOf(hasValue, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        keyCodes[size] = keyCode;
+        pressed[size] = isPressed;
+        mouse[size] = isMouse;
+        rel[size] = isRel;
+        hasValue[size] = withValue;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int keyCode(int index) {
+        return keyCodes[index];
+    }
+
+    public boolean isPressed(int index) {
+        return pressed[index];
+    }
+
+    public boolean isMouse(int index) {
+        return mouse[index];
+    }
+
+    public boolean isRel(int index) {
+        return rel[index];
+    }
+
+    /** False if binding has no value (null in configuration) */
+    public boolean hasValue(int index) {
+        return hasValue[index];
+    }
+
+    public int value(int index) {
+        return values[index];
+    }
+}
@@ -0,0 +1,90 @@
+package ru.aloyenz.t501.driver.device;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Keycode names sorted for binary search with their codes.
+ * <p>
+ * Binary form (big endian): {@link #MAGIC}, {@code int} count, then for every keycode
+ * its name as {@link DataOutput#writeUTF modified UTF-8} and {@code int} code, sorted by name.
+ * The bundled index is generated from {@code keycodes.json} by the {@code generateKeycodeIndex} Gradle task.
+ */
+public final class KeycodeIndex {
+
+    /** "T5K1" */
+    public static final int MAGIC = 0x54354B31;
+
+    public static final KeycodeIndex EMPTY = new KeycodeIndex(new String[0], new int[0]);
+
+    private final String[] names;
+    private final int[] codes;
+
+    private KeycodeIndex(String[] names, int[] codes) {
+        this.names = names;
+        this.codes = codes;
+    }
+
+    public static KeycodeIndex of(Map<String, KeyCode> keycodes) {
+        String[] names = keycodes.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+
+        int[] codes = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            codes[i] = keycodes.get(names[i]).keyCode();
+        }
+
+        return new KeycodeIndex(names, codes);
+    }
+
+    /** Reads the index after its magic number */
+    public static KeycodeIndex read(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid keycode count: " + count);
+        }
+
+        String[] names = new String[count];
+        int[] codes = new int[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = in.readUTF();
+            codes[i] = in.readInt();
+
+            if (i > 0 && names[i - 1].compareTo(names[i]) >= 0) {
+                throw new IOException("Keycodes are not sorted: " + names[i - 1] + ", " + names[i]);
+            }
+        }
+
+        return new KeycodeIndex(names, codes);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            out.writeUTF(names[i]);
+            out.writeInt(codes[i]);
+        }
+    }
+
+    /** @return code of the keycode or -1 if there is no such keycode */
+    public int keyCode(String name) {
+        int index = Arrays.binarySearch(names, name);
+        return index >= 0 ? codes[index] : -1;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int index) {
+        return names[index];
+    }
+
+    public int code(int index) {
+        return codes[index];
+    }
+}
@@ -0,0 +1,317 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aloyenz.t501.driver.profiling.OutputEvent;
+import ru.aloyenz.t501.driver.virtual.InputSink;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes mouse button and REL_ events bound to tablet buttons.
+ * <p>
+ * Press and release events are passed from emitter threads through a bounded lock-free queue
+ * and wake up the scheduler thread. Pressed buttons are held until released, REL_ events
+ * (for example mouse wheel) are repeated after the initial delay with the configured rate.
+ * Nothing is written while nothing is pressed: the thread sleeps until the next press.
+ */
+public class MouseScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MouseScheduler.class);
+
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int MAX_HELD = 64;
+
+    private static final int PRESS = 1;
+    private static final int REL = 1 << 1;
+
+    // Multiple producers, single consumer queue. Slot sequence tells whose turn it is for the slot
+    private final AtomicLongArray sequences = new AtomicLongArray(QUEUE_CAPACITY);
+    private final int[] queuedCodes = new int[QUEUE_CAPACITY];
+    private final int[] queuedValues = new int[QUEUE_CAPACITY];
+    private final int[] queuedFlags = new int[QUEUE_CAPACITY];
+    private final AtomicLong queueTail = new AtomicLong();
+    private long queueHead = 0;
+
+    // Everything below is used only by the scheduler thread
+    private final int[] heldCodes = new int[MAX_HELD];
+    private final boolean[] heldRel = new boolean[MAX_HELD];
+    private final int[] heldValues = new int[MAX_HELD];
+    private final int[] heldCounts = new int[MAX_HELD];
+    private final long[] nextRepeatAt = new long[MAX_HELD];
+    private int heldCount = 0;
+
+    private final int[] outCodes = new int[MAX_HELD * 2];
+    private final boolean[] outRel = new boolean[MAX_HELD * 2];
+    private final int[] outValues = new int[MAX_HELD * 2];
+    private int outCount = 0;
+    // Sequence number of mouse writes, for tracing
+    private long writes = 0;
+
+    private final InputSink sink;
+    // Name of the thread and device of tracing events
+    private final String name;
+
+    private long repeatDelayNs;
+    private long repeatPeriodNs;
+
+    private volatile boolean running = false;
+    private volatile Thread thread;
+
+    public MouseScheduler(InputSink sink) {
+        this(sink, OutputEvent.MOUSE_SCHEDULER);
+    }
+
+    /**
+     * @param name name of the scheduler thread and device of its tracing events
+     */
+    public MouseScheduler(InputSink sink, String name) {
+        this.sink = sink;
+        this.name = name;
+
+        for (int i = 0; i < QUEUE_CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @param repeatDelayMs delay between press and the first repeat of REL_ events
+     * @param repeatRate repeats per second
+     */
+    public void start(int repeatDelayMs, int repeatRate) {
+        repeatDelayNs = Math.max(0, repeatDelayMs) * 1_000_000L;
+        repeatPeriodNs = 1_000_000_000L / Math.max(1, repeatRate);
+        running = true;
+
+        thread = new Thread(this::run, "T501 " + name);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+
+        Thread thread = this.thread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    /**
+     * Presses the button or starts repeating the REL_ event. May be called from any thread.
+     */
+    public void press(int code, boolean isRel, int value) {
+        enqueue(code, value, isRel ? PRESS | REL : PRESS);
+    }
+
+    /**
+     * Releases the button or stops repeating the REL_ event. May be called from any thread.
+     */
+    public void release(int code, boolean isRel) {
+        enqueue(code, 0, isRel ? REL : 0);
+    }
+
+    private void enqueue(int code, int value, int flags) {
+        while (true) {
+            long tail = queueTail.get();
+            int index = (int) (tail & (QUEUE_CAPACITY - 1));
+            long sequence = sequences.get(index);
+
+            if (sequence == tail) {
+                if (queueTail.compareAndSet(tail, tail + 1)) {
+                    queuedCodes[index] = code;
+                    queuedValues[index] = value;
+                    queuedFlags[index] = flags;
+
+                    // Volatile write publishes the slot to the scheduler thread
+                    sequences.set(index, tail + 1);
+                    break;
+                }
+            } else if (sequence < tail) {
+                // Queue is full, scheduler thread is going to free some slots
+                Thread thread = this.thread;
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        Thread thread = this.thread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            long now = System.nanoTime();
+
+            drainQueue(now);
+            long nextDeadline = repeatDue(now);
+
+            if (outCount > 0) {
+                writeOut();
+            }
+
+            // Events queued while writing are handled right away
+            if (sequences.get((int) (queueHead & (QUEUE_CAPACITY - 1))) == queueHead + 1) {
+                continue;
+            }
+
+            if (nextDeadline == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, nextDeadline - System.nanoTime());
+            }
+        }
+
+        releaseAll();
+        LOGGER.info("Stopped {}.", name);
+    }
+
+    private void drainQueue(long now) {
+        while (true) {
+            int index = (int) (queueHead & (QUEUE_CAPACITY - 1));
+            if (sequences.get(index) != queueHead + 1) {
+                return;
+            }
+
+            int code = queuedCodes[index];
+            int value = queuedValues[index];
+            int flags = queuedFlags[index];
+
+            // Slot is free for the producer of the next round
+            sequences.set(index, queueHead + QUEUE_CAPACITY);
+            queueHead++;
+
+            boolean isRel = (flags & REL) != 0;
+            if ((flags & PRESS) != 0) {
+                onPress(code, isRel, value, now);
+            } else {
+                onRelease(code, isRel);
+            }
+        }
+    }
+
+    private void onPress(int code, boolean isRel, int value, long now) {
+        int held = findHeld(code, isRel);
+        if (held >= 0) {
+            // The same button bound to several tablet buttons
+            heldCounts[held]++;
+            return;
+        }
+
+        if (heldCount == MAX_HELD) {
+            LOGGER.warn("Too many mouse buttons are pressed. Ignoring code {}", code);
+            return;
+        }
+
+        heldCodes[heldCount] = code;
+        heldRel[heldCount] = isRel;
+        heldValues[heldCount] = value;
+        heldCounts[heldCount] = 1;
+        nextRepeatAt[heldCount] = now + repeatDelayNs;
+        heldCount++;
+
+        addOut(code, isRel, value);
+    }
+
+    private void onRelease(int code, boolean isRel) {
+        int held = findHeld(code, isRel);
+        if (held < 0 || --heldCounts[held] > 0) {
+            return;
+        }
+
+        // REL_ events have no release
+        if (!isRel) {
+            addOut(code, false, 0);
+        }
+
+        removeHeld(held);
+    }
+
+    // Returns the nearest repeat time or Long.MAX_VALUE if nothing is repeated
+    private long repeatDue(long now) {
+        long nextDeadline = Long.MAX_VALUE;
+
+        for (int i = 0; i < heldCount; i++) {
+            if (!heldRel[i]) {
+                continue;
+            }
+
+            if (nextRepeatAt[i] - now <= 0) {
+                addOut(heldCodes[i], true, heldValues[i]);
+
+                nextRepeatAt[i] += repeatPeriodNs;
+                if (nextRepeatAt[i] - now <= 0) {
+                    // Thread was late, not sending missed repeats at once
+                    nextRepeatAt[i] = now + repeatPeriodNs;
+                }
+            }
+
+            if (nextRepeatAt[i] < nextDeadline) {
+                nextDeadline = nextRepeatAt[i];
+            }
+        }
+
+        return nextDeadline;
+    }
+
+    private void releaseAll() {
+        for (int i = 0; i < heldCount; i++) {
+            if (!heldRel[i]) {
+                addOut(heldCodes[i], false, 0);
+            }
+        }
+        heldCount = 0;
+
+        if (outCount > 0) {
+            writeOut();
+        }
+    }
+
+    private int findHeld(int code, boolean isRel) {
+        for (int i = 0; i < heldCount; i++) {
+            if (heldCodes[i] == code && heldRel[i] == isRel) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private void removeHeld(int index) {
+        int last = --heldCount;
+
+        heldCodes[index] = heldCodes[last];
+        heldRel[index] = heldRel[last];
+        heldValues[index] = heldValues[last];
+        heldCounts[index] = heldCounts[last];
+        nextRepeatAt[index] = nextRepeatAt[last];
+    }
+
+    private void writeOut() {
+        OutputEvent event = OutputEvent.start();
+
+        sink.mouseEvents(outCodes, outRel, outValues, outCount);
+
+        event.commit(name, ++writes, OutputEvent.MOUSE, outCount);
+        outCount = 0;
+    }
+
+    private void addOut(int code, boolean isRel, int value) {
+        if (outCount == outCodes.length) {
+            writeOut();
+        }
+
+        outCodes[outCount] = code;
+        outRel[outCount] = isRel;
+        outValues[outCount] = value;
+        outCount++;
+    }
+}
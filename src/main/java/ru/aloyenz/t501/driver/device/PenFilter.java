@@ -0,0 +1,76 @@
+package ru.aloyenz.t501.driver.device;
+
+import ru.aloyenz.t501.driver.config.SmoothingConfiguration;
+
+/**
+ * Smoothing of decoded reports of a single tablet, see {@link SmoothingConfiguration}.
+ * <p>
+ * Filters start again when the stylus leaves the tablet, after a pause in reports, and position filters
+ * when the stylus is over the special buttons strip. Pressure is filtered only while the stylus touches the tablet,
+ * so contact start and end are never delayed. Nothing is allocated.
+ */
+public class PenFilter {
+
+    // Assumed time between reports when their time is unknown
+    private static final double DEFAULT_PERIOD = 0.005;
+    // Longer pause between reports starts a new stroke
+    private static final long MAX_GAP_NANOS = 100_000_000L;
+
+    private final AxisFilter x = new AxisFilter();
+    private final AxisFilter y = new AxisFilter();
+    private final AxisFilter pressure = new AxisFilter();
+    private final AxisFilter tiltX = new AxisFilter();
+    private final AxisFilter tiltY = new AxisFilter();
+
+    private long lastNanos = 0;
+    private double period = DEFAULT_PERIOD;
+
+    /**
+     * Replaces values of the report with filtered ones.
+     *
+     * @param nanos {@link System#nanoTime()} of the report, 0 if it's unknown
+     */
+    public void apply(PenReport report, long nanos, SmoothingConfiguration smoothing) {
+        if (nanos != 0 && lastNanos != 0) {
+            long delta = nanos - lastNanos;
+
+            if (delta > MAX_GAP_NANOS) {
+                reset();
+            } else if (delta > 0) {
+                period = delta / 1e9;
+            }
+        }
+        lastNanos = nanos;
+
+        if (!report.hovering) {
+            reset();
+            return;
+        }
+
+        if (report.onSpecialButton) {
+            x.reset();
+            y.reset();
+        } else {
+            report.x = (int) Math.round(x.filter(smoothing.x, report.x, period));
+            report.y = (int) Math.round(y.filter(smoothing.y, report.y, period));
+        }
+
+        if (report.touching) {
+            int filtered = (int) Math.round(pressure.filter(smoothing.pressure, report.pressure, period));
+            report.pressure = Math.max(1, Math.min(1024, filtered));
+        } else {
+            pressure.reset();
+        }
+
+        report.tiltX = (int) Math.round(tiltX.filter(smoothing.tilt, report.tiltX, period));
+        report.tiltY = (int) Math.round(tiltY.filter(smoothing.tilt, report.tiltY, period));
+    }
+
+    public void reset() {
+        x.reset();
+        y.reset();
+        pressure.reset();
+        tiltX.reset();
+        tiltY.reset();
+    }
+}
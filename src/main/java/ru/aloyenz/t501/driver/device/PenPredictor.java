@@ -0,0 +1,200 @@
+package ru.aloyenz.t501.driver.device;
+
+import ru.aloyenz.t501.driver.config.PredictionConfiguration;
+
+/**
+ * Extrapolates the position of a single tablet ahead of its reports, see {@link PredictionConfiguration}.
+ * <p>
+ * Speed and acceleration are fitted by least squares (a parabola per axis) over the last {@link #HISTORY}
+ * reports of the stroke, kept in primitive arrays. The fit starts again when the stylus touches or leaves
+ * the tablet, leaves the hover range, is over the special buttons strip or reports pause, so the first
+ * reports of a contact and the ones after it are never predicted. Prediction fades out while the direction
+ * changes and while pressure falls before the stylus is lifted, and never points backwards,
+ * so strokes don't overshoot at corners and ends. Nothing is allocated.
+ */
+public class PenPredictor {
+
+    /** Reports used to fit speed and acceleration */
+    public static final int HISTORY = 8;
+    // Fewer reports can't tell acceleration from jitter
+    private static final int MIN_REPORTS = 3;
+
+    // Assumed time between reports when their time is unknown
+    private static final long DEFAULT_PERIOD_NANOS = 5_000_000L;
+    // Longer pause between reports starts a new stroke
+    private static final long MAX_GAP_NANOS = 100_000_000L;
+
+    // Predicted position never leaves the drawing area, the strip of special buttons is above it
+    private static final int MAX_POSITION = 4095;
+
+    // Ring of the last reports of the stroke
+    private final double[] xs = new double[HISTORY];
+    private final double[] ys = new double[HISTORY];
+    private final long[] times = new long[HISTORY];
+    private int count = 0;
+    private int next = 0;
+
+    private long lastNanos = 0;
+    private boolean wasTouching = false;
+    // Max pressure of the current contact
+    private int peakPressure = 0;
+    // Incremented when the fit starts again
+    private long stroke = 0;
+
+    /**
+     * Replaces the position of the report with the predicted one.
+     *
+     * @param nanos {@link System#nanoTime()} of the report, 0 if it's unknown
+     */
+    public void apply(PenReport report, long nanos, PredictionConfiguration prediction) {
+        long time = nanos != 0 ? nanos : lastNanos + DEFAULT_PERIOD_NANOS;
+        // Reports of the same time would make the fit degenerate
+        if (count > 0 && time <= lastNanos) {
+            time = lastNanos + 1;
+        }
+        boolean paused = count > 0 && time - lastNanos > MAX_GAP_NANOS;
+        lastNanos = time;
+
+        boolean contactChanged = report.touching != wasTouching;
+        wasTouching = report.touching;
+
+        if (prediction.lookaheadMs <= 0 || !report.hovering || report.onSpecialButton) {
+            reset();
+            return;
+        }
+
+        // Contact start and end begin a new stroke, its first reports are not predicted
+        if (contactChanged || paused) {
+            reset();
+        }
+
+        if (report.touching && report.pressure > peakPressure) {
+            peakPressure = report.pressure;
+        }
+
+        xs[next] = report.x;
+        ys[next] = report.y;
+        times[next] = time;
+        next = (next + 1) % HISTORY;
+        if (count < HISTORY) {
+            count++;
+        }
+
+        if (count < MIN_REPORTS) {
+            return;
+        }
+
+        predict(report, time, prediction);
+    }
+
+    /** The next report starts a new stroke */
+    public void reset() {
+        if (count > 0) {
+            stroke++;
+        }
+        count = 0;
+        next = 0;
+        peakPressure = 0;
+    }
+
+    /** Number of the current stroke, it changes when prediction starts again */
+    long stroke() {
+        return stroke;
+    }
+
+    private void predict(PenReport report, long now, PredictionConfiguration prediction) {
+        // Sums of the normal equations, time in ms before the newest report (0 or negative)
+        double s1 = 0, s2 = 0, s3 = 0, s4 = 0;
+        double sx0 = 0, sx1 = 0, sx2 = 0;
+        double sy0 = 0, sy1 = 0, sy2 = 0;
+        double oldest = 0;
+
+        for (int i = 0; i < count; i++) {
+            int index = (next + HISTORY - count + i) % HISTORY;
+            double t = (times[index] - now) / 1e6;
+            double t2 = t * t;
+            if (i == 0) {
+                oldest = t;
+            }
+
+            s1 += t;
+            s2 += t2;
+            s3 += t2 * t;
+            s4 += t2 * t2;
+
+            double x = xs[index];
+            double y = ys[index];
+            sx0 += x;
+            sx1 += x * t;
+            sx2 += x * t2;
+            sy0 += y;
+            sy1 += y * t;
+            sy2 += y * t2;
+        }
+
+        double n = count;
+        // Determinant of [[n, s1, s2], [s1, s2, s3], [s2, s3, s4]]
+        double determinant = n * (s2 * s4 - s3 * s3) - s1 * (s1 * s4 - s3 * s2) + s2 * (s1 * s3 - s2 * s2);
+        if (Math.abs(determinant) < 1e-9) {
+            return;
+        }
+
+        // Speed (units/ms) and half of acceleration (units/ms^2) of the parabola a + b * t + c * t^2 at the newest report
+        double bx = speed(n, s1, s2, s3, s4, sx0, sx1, sx2) / determinant;
+        double by = speed(n, s1, s2, s3, s4, sy0, sy1, sy2) / determinant;
+        double cx = acceleration(n, s1, s2, s3, s4, sx0, sx1, sx2) / determinant;
+        double cy = acceleration(n, s1, s2, s3, s4, sy0, sy1, sy2) / determinant;
+
+        double speed = Math.sqrt(bx * bx + by * by);
+        if (speed * 1000 < prediction.minSpeed) {
+            return;
+        }
+
+        // Direction change over the history: speed at the oldest report against the current one
+        double oldBx = bx + 2 * cx * oldest;
+        double oldBy = by + 2 * cy * oldest;
+        double oldSpeed = Math.sqrt(oldBx * oldBx + oldBy * oldBy);
+        double cosine = oldSpeed > 0 ? (bx * oldBx + by * oldBy) / (speed * oldSpeed) : 1;
+        if (cosine <= 0) {
+            return;
+        }
+        double damping = cosine * cosine;
+
+        // Pressure falling below half of the peak means the stylus is being lifted
+        if (report.touching && peakPressure > 0) {
+            damping *= Math.min(1, 2.0 * report.pressure / peakPressure);
+        }
+
+        double lookahead = prediction.lookaheadMs;
+        double weight = Math.max(0, Math.min(1, prediction.accelerationWeight));
+        double dx = (bx * lookahead + weight * cx * lookahead * lookahead) * damping;
+        double dy = (by * lookahead + weight * cy * lookahead * lookahead) * damping;
+
+        // Slowing pen must not be predicted to turn back
+        if (dx * bx + dy * by <= 0) {
+            return;
+        }
+
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance > prediction.maxDistance) {
+            double scale = Math.max(0, prediction.maxDistance) / distance;
+            dx *= scale;
+            dy *= scale;
+        }
+
+        report.x = (int) Math.max(0, Math.min(MAX_POSITION, Math.round(report.x + dx)));
+        report.y = (int) Math.max(0, Math.min(MAX_POSITION, Math.round(report.y + dy)));
+    }
+
+    // Cramer's rule for the second unknown of the normal equations, divided by the determinant by the caller
+    private static double speed(double n, double s1, double s2, double s3, double s4,
+                                double v0, double v1, double v2) {
+        return n * (v1 * s4 - s3 * v2) - v0 * (s1 * s4 - s3 * s2) + s2 * (s1 * v2 - v1 * s2);
+    }
+
+    // Cramer's rule for the third unknown
+    private static double acceleration(double n, double s1, double s2, double s3, double s4,
+                                       double v0, double v1, double v2) {
+        return n * (s2 * v2 - v1 * s3) - s1 * (s1 * v2 - v1 * s2) + v0 * (s1 * s3 - s2 * s2);
+    }
+}
@@ -0,0 +1,38 @@
+package ru.aloyenz.t501.driver.device;
+
+/**
+ * Decoded stylus report. Instances are mutable and reused for every report,
+ * so they must not be stored anywhere.
+ */
+public class PenReport {
+
+    public int x;
+    public int y;
+
+    public int rawPressure;
+
+    /** Normalized pressure: 0 ~ 1024 */
+    public int pressure;
+
+    /** Tilt in degrees: -90 ~ 90 */
+    public int tiltX;
+    public int tiltY;
+
+    public boolean hovering;
+    public boolean touching;
+
+    /** Stylus is over the special buttons strip */
+    public boolean onSpecialButton;
+
+    public boolean buttonPlusPressed;
+    public boolean buttonMinusPressed;
+
+    /** Bit mask of the buttons on the tablet, 1 = released */
+    public short tabletButtons;
+
+    /** Number of the report from its device, for tracing */
+    public long sequence;
+
+    /** {@link System#nanoTime()} when the report was received */
+    public long nanos;
+}
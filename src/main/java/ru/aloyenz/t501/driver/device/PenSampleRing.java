@@ -0,0 +1,307 @@
+package ru.aloyenz.t501.driver.device;
+
+import ru.aloyenz.t501.driver.metrics.Metrics;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer/single-consumer queue of decoded pen samples between the thread
+ * which reads the tablet and the thread which writes virtual devices.
+ * <p>
+ * Samples are copied into a preallocated int array, so nothing is allocated per sample.
+ * When the consumer falls behind, queued hover-only samples are coalesced to the newest one.
+ * Samples with contact, pressure, or another button state than the next sample are never skipped:
+ * when the ring is full, the producer waits for the consumer to free a slot. The consumer only writes
+ * virtual devices, so with the async reader the event thread shared by all tablets waits at most for a few writes.
+ */
+public class PenSampleRing {
+
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int RAW_PRESSURE = 2;
+    private static final int PRESSURE = 3;
+    private static final int TILT_X = 4;
+    private static final int TILT_Y = 5;
+    private static final int BUTTONS = 6;
+    private static final int FLAGS = 7;
+    private static final int SEQUENCE_LOW = 8;
+    private static final int SEQUENCE_HIGH = 9;
+    private static final int NANOS_LOW = 10;
+    private static final int NANOS_HIGH = 11;
+    private static final int STRIDE = 12;
+
+    private static final int HOVERING = 1;
+    private static final int TOUCHING = 1 << 1;
+    private static final int ON_SPECIAL_BUTTON = 1 << 2;
+    private static final int BUTTON_PLUS = 1 << 3;
+    private static final int BUTTON_MINUS = 1 << 4;
+
+    // States of slots. The last queued slot is replaced by the producer only while nobody takes it
+    private static final int READY = 0;
+    private static final int REPLACING = 1;
+    private static final int TAKEN = 2;
+
+    // Poll period of the producer waiting for a free slot
+    private static final long WAIT_STEP_NANOS = 50_000L;
+
+    private final int[] samples;
+    private final AtomicIntegerArray states;
+    private final int mask;
+
+    // Written only by the consumer
+    private volatile long head = 0;
+    // Written only by the producer
+    private volatile long tail = 0;
+
+    // State of the last queued sample, used only by the producer
+    private int lastFlags = 0;
+    private int lastButtons = 0;
+
+    private volatile boolean closed = false;
+    private volatile boolean consumerWaiting = false;
+    private volatile Thread consumer;
+
+    // Counters, every one is written by a single thread
+    private volatile long published = 0;
+    private volatile long coalesced = 0;
+    private volatile long replaced = 0;
+    private volatile long waits = 0;
+    private volatile long dropped = 0;
+    private volatile int maxOccupancy = 0;
+
+    /**
+     * @param capacity max count of queued samples, rounded up to a power of two
+     */
+    public PenSampleRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+        this.samples = new int[size * STRIDE];
+        this.states = new AtomicIntegerArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Queues the sample. Called only by the producer thread.
+     * <p>
+     * When the ring is full, a hover-only sample with the same state as the last queued one replaces it
+     * (the consumer gets the newest position), any other sample waits for a free slot.
+     *
+     * @return false if the ring is closed or the producer is interrupted while waiting
+     */
+    public boolean offer(PenReport report) {
+        if (closed) {
+            dropped++;
+            Metrics.SAMPLES_DROPPED.increment();
+            return false;
+        }
+
+        long tail = this.tail;
+        int flags = flags(report);
+
+        if (tail - head > mask) {
+            if (isHoverOnly(flags, report.pressure) && flags == lastFlags && report.tabletButtons == lastButtons
+                    && replaceLast(tail, report, flags)) {
+                return true;
+            }
+
+            // Parked, not spinning: the producer may be the event thread of every tablet
+            waits++;
+            Metrics.SAMPLE_WAITS.increment();
+            while (tail - head > mask && !closed && !Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(this, WAIT_STEP_NANOS);
+            }
+            if (tail - head > mask || closed) {
+                // Reading of the tablet is being stopped
+                dropped++;
+                Metrics.SAMPLES_DROPPED.increment();
+                return false;
+            }
+        }
+
+        int slot = (int) (tail & mask);
+        states.lazySet(slot, READY);
+        write(slot * STRIDE, report, flags);
+        lastFlags = flags;
+        lastButtons = report.tabletButtons;
+
+        // Volatile write publishes the sample
+        this.tail = tail + 1;
+        published++;
+
+        int occupancy = (int) (tail + 1 - head);
+        if (occupancy > maxOccupancy) {
+            maxOccupancy = occupancy;
+        }
+
+        if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+
+        return true;
+    }
+
+    // Replaces the last queued sample, which has the same state. False if the consumer has already taken it
+    private boolean replaceLast(long tail, PenReport report, int flags) {
+        int slot = (int) ((tail - 1) & mask);
+        if (!states.compareAndSet(slot, READY, REPLACING)) {
+            return false;
+        }
+
+        // Flags, buttons and pressure stay the same, so the consumer can compare them meanwhile
+        write(slot * STRIDE, report, flags);
+        states.set(slot, READY);
+        replaced++;
+        Metrics.SAMPLES_REPLACED.increment();
+
+        return true;
+    }
+
+    private void write(int offset, PenReport report, int flags) {
+        samples[offset + X] = report.x;
+        samples[offset + Y] = report.y;
+        samples[offset + RAW_PRESSURE] = report.rawPressure;
+        samples[offset + PRESSURE] = report.pressure;
+        samples[offset + TILT_X] = report.tiltX;
+        samples[offset + TILT_Y] = report.tiltY;
+        samples[offset + BUTTONS] = report.tabletButtons;
+        samples[offset + FLAGS] = flags;
+        samples[offset + SEQUENCE_LOW] = (int) report.sequence;
+        samples[offset + SEQUENCE_HIGH] = (int) (report.sequence >>> 32);
+        samples[offset + NANOS_LOW] = (int) report.nanos;
+        samples[offset + NANOS_HIGH] = (int) (report.nanos >>> 32);
+    }
+
+    /**
+     * Takes the next sample, coalescing queued hover-only samples. Waits while the ring is empty.
+     * Called only by the consumer thread.
+     *
+     * @return false if the ring is closed and all samples are taken
+     */
+    public boolean take(PenReport out) {
+        long head = this.head;
+
+        while (tail == head) {
+            if (closed) {
+                return false;
+            }
+
+            consumer = Thread.currentThread();
+            consumerWaiting = true;
+            // Producer may have published right before consumerWaiting was set
+            if (tail == head && !closed) {
+                LockSupport.park(this);
+            }
+            consumerWaiting = false;
+        }
+
+        long tail = this.tail;
+        while (tail - head > 1 && canCoalesce((int) (head & mask) * STRIDE, (int) ((head + 1) & mask) * STRIDE)) {
+            head++;
+            coalesced++;
+            Metrics.SAMPLES_COALESCED.increment();
+        }
+
+        int slot = (int) (head & mask);
+        // The producer replaces the last queued sample only for a few stores
+        while (!states.compareAndSet(slot, READY, TAKEN)) {
+            Thread.onSpinWait();
+        }
+
+        int offset = slot * STRIDE;
+        out.x = samples[offset + X];
+        out.y = samples[offset + Y];
+        out.rawPressure = samples[offset + RAW_PRESSURE];
+        out.pressure = samples[offset + PRESSURE];
+        out.tiltX = samples[offset + TILT_X];
+        out.tiltY = samples[offset + TILT_Y];
+        out.tabletButtons = (short) samples[offset + BUTTONS];
+        out.sequence = (samples[offset + SEQUENCE_LOW] & 0xFFFFFFFFL) | ((long) samples[offset + SEQUENCE_HIGH] << 32);
+        out.nanos = (samples[offset + NANOS_LOW] & 0xFFFFFFFFL) | ((long) samples[offset + NANOS_HIGH] << 32);
+
+        int flags = samples[offset + FLAGS];
+        out.hovering = (flags & HOVERING) != 0;
+        out.touching = (flags & TOUCHING) != 0;
+        out.onSpecialButton = (flags & ON_SPECIAL_BUTTON) != 0;
+        out.buttonPlusPressed = (flags & BUTTON_PLUS) != 0;
+        out.buttonMinusPressed = (flags & BUTTON_MINUS) != 0;
+
+        // Volatile write frees the slot
+        this.head = head + 1;
+
+        return true;
+    }
+
+    /** Wakes up the consumer. Samples which are already queued can still be taken */
+    public void close() {
+        closed = true;
+
+        Thread consumer = this.consumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /** Count of samples waiting for the consumer */
+    public int occupancy() {
+        return (int) (tail - head);
+    }
+
+    public int maxOccupancy() {
+        return maxOccupancy;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public long published() {
+        return published;
+    }
+
+    /** Count of hover-only samples skipped by the consumer because a newer one was queued */
+    public long coalesced() {
+        return coalesced;
+    }
+
+    /** Count of queued hover-only samples replaced by a newer one because the ring was full */
+    public long replaced() {
+        return replaced;
+    }
+
+    /** Count of samples which waited for the consumer to free a slot */
+    public long waits() {
+        return waits;
+    }
+
+    /** Count of samples refused because the ring was closed or the producer was interrupted, both only on stop */
+    public long dropped() {
+        return dropped;
+    }
+
+    // Sample may be skipped only if the next one has the same state and differs only by position and tilt
+    private boolean canCoalesce(int offset, int nextOffset) {
+        int flags = samples[offset + FLAGS];
+
+        return isHoverOnly(flags, samples[offset + PRESSURE])
+                && flags == samples[nextOffset + FLAGS]
+                && samples[offset + BUTTONS] == samples[nextOffset + BUTTONS]
+                && samples[nextOffset + PRESSURE] == 0;
+    }
+
+    private static boolean isHoverOnly(int flags, int pressure) {
+        return (flags & (HOVERING | TOUCHING)) == HOVERING && pressure == 0;
+    }
+
+    private static int flags(PenReport report) {
+        int flags = 0;
+
+        if (report.hovering) flags |= HOVERING;
+        if (report.touching) flags |= TOUCHING;
+        if (report.onSpecialButton) flags |= ON_SPECIAL_BUTTON;
+        if (report.buttonPlusPressed) flags |= BUTTON_PLUS;
+        if (report.buttonMinusPressed) flags |= BUTTON_MINUS;
+
+        return flags;
+    }
+}
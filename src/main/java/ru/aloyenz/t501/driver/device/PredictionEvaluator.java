@@ -0,0 +1,263 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aloyenz.t501.driver.config.PredictionConfiguration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Measures how well {@link PenPredictor} guesses the future on a capture of {@link ReportRecorder},
+ * so the lookahead can be tuned for the hand of the user.
+ * <p>
+ * Reports are decoded and smoothed with the current configuration, then predicted with every tested lookahead.
+ * A prediction is compared with the position the stylus actually had after the lookahead, interpolated between
+ * the reports around it. The error of not predicting at all (the lag) is measured on the same reports.
+ * Reports whose future is in another stroke are skipped, the predictor doesn't know about it either.
+ */
+public class PredictionEvaluator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PredictionEvaluator.class);
+
+    /** Lookaheads tested besides the configured one, ms */
+    public static final double[] DEFAULT_LOOKAHEADS = {4, 8, 12, 16, 24, 32};
+
+    /**
+     * Errors of a lookahead, position units.
+     *
+     * @param samples count of compared reports
+     * @param meanError mean distance between predicted and future position
+     * @param meanLag mean distance between reported and future position, the error without prediction
+     */
+    public record Result(double lookaheadMs, long samples,
+                         double meanError, double p95Error, double maxError,
+                         double meanLag, double p95Lag, double maxLag) {}
+
+    private final LinkedHashMap<T501Device, Track> tracks = new LinkedHashMap<>();
+
+    private PredictionEvaluator() {}
+
+    /**
+     * Replays the capture as fast as possible and evaluates every lookahead with other settings of the configuration.
+     *
+     * @return results in the order of lookaheads
+     */
+    public static List<Result> evaluate(Path capture, PredictionConfiguration prediction, double... lookaheads)
+            throws IOException {
+        PredictionEvaluator evaluator = new PredictionEvaluator();
+        new ReportReplayer(capture, evaluator::onReport, null, 0).replay();
+
+        List<Result> results = new ArrayList<>(lookaheads.length);
+        for (double lookahead : lookaheads) {
+            results.add(evaluator.evaluate(prediction, lookahead));
+        }
+
+        return results;
+    }
+
+    /**
+     * Evaluates the default lookaheads and the configured one and logs the results.
+     */
+    public static List<Result> report(Path capture, PredictionConfiguration prediction) throws IOException {
+        double[] lookaheads = DEFAULT_LOOKAHEADS;
+        if (prediction.lookaheadMs > 0 && Arrays.stream(lookaheads).noneMatch(l -> l == prediction.lookaheadMs)) {
+            lookaheads = Arrays.copyOf(lookaheads, lookaheads.length + 1);
+            lookaheads[lookaheads.length - 1] = prediction.lookaheadMs;
+            Arrays.sort(lookaheads);
+        }
+
+        List<Result> results = evaluate(capture, prediction, lookaheads);
+
+        LOGGER.info("Prediction error against the actual future position, position units:");
+        LOGGER.info(String.format("%10s %8s %10s %10s %10s %10s %10s %10s",
+                "lookahead", "samples", "mean", "p95", "max", "lag mean", "lag p95", "lag max"));
+
+        Result best = null;
+        for (Result result : results) {
+            LOGGER.info(String.format("%7.1f ms %8d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%s",
+                    result.lookaheadMs(), result.samples(),
+                    result.meanError(), result.p95Error(), result.maxError(),
+                    result.meanLag(), result.p95Lag(), result.maxLag(),
+                    result.lookaheadMs() == prediction.lookaheadMs ? "  (configured)" : ""));
+
+            if (result.samples() > 0 && (best == null || gain(result) > gain(best))) {
+                best = result;
+            }
+        }
+
+        if (best == null) {
+            LOGGER.warn("The capture has no strokes to evaluate");
+        } else if (gain(best) <= 0) {
+            LOGGER.info("Prediction doesn't reduce the lag on this capture. Keep lookahead_ms at 0");
+        } else {
+            LOGGER.info("Lowest error relative to the lag: lookahead_ms {} ({}% of the lag)",
+                    best.lookaheadMs(), Math.round(100 * best.meanError() / best.meanLag()));
+        }
+
+        return results;
+    }
+
+    // Share of the lag removed by prediction
+    private static double gain(Result result) {
+        return result.meanLag() > 0 ? 1 - result.meanError() / result.meanLag() : 0;
+    }
+
+    private void onReport(T501Device device, ByteBuffer buffer, int length) {
+        if (!ReportDecoder.isStylusReport(buffer, length)) {
+            return;
+        }
+
+        // The same path as DeviceReader up to the prediction
+        DecodeState state = device.decodeState();
+        ConfigSnapshot snapshot = ConfigSnapshot.current();
+        ReportDecoder.decode(buffer, state.report, snapshot.calibration());
+        state.filter.apply(state.report, device.receivedNanos(), snapshot.configuration().smoothing);
+
+        tracks.computeIfAbsent(device, d -> new Track()).add(device.receivedNanos(), state.report);
+    }
+
+    private Result evaluate(PredictionConfiguration prediction, double lookaheadMs) {
+        PredictionConfiguration configuration = new PredictionConfiguration();
+        configuration.lookaheadMs = lookaheadMs;
+        configuration.accelerationWeight = prediction.accelerationWeight;
+        configuration.maxDistance = prediction.maxDistance;
+        configuration.minSpeed = prediction.minSpeed;
+
+        Errors errors = new Errors();
+        Errors lags = new Errors();
+        for (Track track : tracks.values()) {
+            track.evaluate(configuration, errors, lags);
+        }
+
+        return new Result(lookaheadMs, errors.size,
+                errors.mean(), errors.percentile(0.95), errors.max(),
+                lags.mean(), lags.percentile(0.95), lags.max());
+    }
+
+    /**
+     * Smoothed reports of a single tablet.
+     */
+    private static final class Track {
+
+        private long[] times = new long[1024];
+        private int[] xs = new int[1024];
+        private int[] ys = new int[1024];
+        private int[] pressures = new int[1024];
+        // Bits: 1 - hovering, 2 - touching, 4 - on special button
+        private byte[] flags = new byte[1024];
+        private int size = 0;
+
+        void add(long nanos, PenReport report) {
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                pressures = Arrays.copyOf(pressures, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+            }
+
+            times[size] = nanos;
+            xs[size] = report.x;
+            ys[size] = report.y;
+            pressures[size] = report.pressure;
+            flags[size] = (byte) ((report.hovering ? 1 : 0) | (report.touching ? 2 : 0)
+                    | (report.onSpecialButton ? 4 : 0));
+            size++;
+        }
+
+        void evaluate(PredictionConfiguration prediction, Errors errors, Errors lags) {
+            PenPredictor predictor = new PenPredictor();
+            PenReport report = new PenReport();
+            int[] predictedX = new int[size];
+            int[] predictedY = new int[size];
+            long[] strokes = new long[size];
+
+            for (int i = 0; i < size; i++) {
+                report.x = xs[i];
+                report.y = ys[i];
+                report.pressure = pressures[i];
+                report.hovering = (flags[i] & 1) != 0;
+                report.touching = (flags[i] & 2) != 0;
+                report.onSpecialButton = (flags[i] & 4) != 0;
+
+                predictor.apply(report, times[i], prediction);
+                predictedX[i] = report.x;
+                predictedY[i] = report.y;
+                strokes[i] = predictor.stroke();
+            }
+
+            long lookaheadNanos = (long) (prediction.lookaheadMs * 1_000_000);
+            int future = 0;
+            for (int i = 0; i < size; i++) {
+                if (!predicted(i)) {
+                    continue;
+                }
+
+                // Reports around the future moment
+                long target = times[i] + lookaheadNanos;
+                future = Math.max(future, i);
+                while (future + 1 < size && times[future + 1] <= target) {
+                    future++;
+                }
+                if (future + 1 >= size || !predicted(future + 1) || strokes[future + 1] != strokes[i]) {
+                    continue;
+                }
+
+                double fraction = (target - times[future]) / (double) (times[future + 1] - times[future]);
+                double actualX = xs[future] + (xs[future + 1] - xs[future]) * fraction;
+                double actualY = ys[future] + (ys[future + 1] - ys[future]) * fraction;
+
+                errors.add(Math.hypot(predictedX[i] - actualX, predictedY[i] - actualY));
+                lags.add(Math.hypot(xs[i] - actualX, ys[i] - actualY));
+            }
+        }
+
+        // Only these reports may be predicted
+        private boolean predicted(int index) {
+            return (flags[index] & 1) != 0 && (flags[index] & 4) == 0;
+        }
+    }
+
+    private static final class Errors {
+
+        private double[] values = new double[1024];
+        private int size = 0;
+        private double sum = 0;
+        private boolean sorted = false;
+
+        void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+            sum += value;
+            sorted = false;
+        }
+
+        double mean() {
+            return size > 0 ? sum / size : 0;
+        }
+
+        double max() {
+            return percentile(1);
+        }
+
+        double percentile(double rank) {
+            if (size == 0) {
+                return 0;
+            }
+            if (!sorted) {
+                Arrays.sort(values, 0, size);
+                sorted = true;
+            }
+            return values[(int) Math.min(size - 1, Math.ceil(rank * size) - 1)];
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ru.aloyenz.t501.driver.device;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives raw HID reports read from the tablet.
+ * The buffer is owned by the caller and is reused as soon as this method returns.
+ */
+@FunctionalInterface
+public interface ReportConsumer {
+
+    void onReport(T501Device device, ByteBuffer buffer, int length);
+}
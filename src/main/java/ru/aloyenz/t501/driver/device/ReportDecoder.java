@@ -0,0 +1,63 @@
+package ru.aloyenz.t501.driver.device;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes T501 HID reports straight from the transfer buffer using absolute gets.
+ * Pressure and tilt are normalized by {@link Calibration} tables.
+ */
+public class ReportDecoder {
+
+    public static final byte STYLUS_REPORT_ID = 0x06;
+
+    // Last used byte is the 14th (tilt Y)
+    public static final int STYLUS_REPORT_LENGTH = 15;
+
+    public static boolean isStylusReport(ByteBuffer buffer, int length) {
+        return length >= STYLUS_REPORT_LENGTH && buffer.get(0) == STYLUS_REPORT_ID;
+    }
+
+    public static void decode(ByteBuffer buffer, PenReport out) {
+        decode(buffer, out, Calibration.getInstance());
+    }
+
+    public static void decode(ByteBuffer buffer, PenReport out, Calibration calibration) {
+        // For debug: showing raw HID report in hex
+//        StringBuilder hexString = new StringBuilder();
+//        for (int i = 0; i < STYLUS_REPORT_LENGTH; i++) {
+//            hexString.append(String.format("%02X ", buffer.get(i)));
+//        }
+
+        out.x = u16(buffer, 1);
+        out.y = u16(buffer, 3);
+
+        out.onSpecialButton = (out.y & 0b1111000000000000) != 0;
+
+        int rawPressure = u16(buffer, 5);
+        int pressure = calibration.pressure(rawPressure);
+
+        // 13 ~ 14 tilt values
+        out.tiltX = calibration.tilt(buffer.get(13));
+        out.tiltY = calibration.tilt(buffer.get(14));
+
+        out.rawPressure = rawPressure;
+        out.pressure = pressure;
+        out.hovering = rawPressure > 0;
+        out.touching = pressure > 0;
+
+        // 9 byte = stylus buttons
+        // 0x02 = not pressed
+        // 0x04 = pressed +
+        // 0x06 = pressed -
+        byte buttonState = buffer.get(9);
+        out.buttonPlusPressed = buttonState == 0x04;
+        out.buttonMinusPressed = buttonState == 0x06;
+
+        // 11 12 bytes = buttons on tablet
+        out.tabletButtons = (short) u16(buffer, 11);
+    }
+
+    private static int u16(ByteBuffer buffer, int highIndex) {
+        return ((buffer.get(highIndex) & 0xFF) << 8) | (buffer.get(highIndex + 1) & 0xFF);
+    }
+}
@@ -0,0 +1,115 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+
+/**
+ * Appends raw reports of all devices to a memory-mapped capture file, which can be fed back by {@link ReportReplayer}.
+ * <p>
+ * File format (big endian): {@link #MAGIC}, then records of
+ * {@code long} nanoseconds since recording start (monotonic), {@code byte} device index,
+ * {@code short} report length and the report bytes.
+ */
+public class ReportRecorder implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportRecorder.class);
+
+    /** "T501REC1" */
+    static final long MAGIC = 0x5435303152454331L;
+    static final int RECORD_HEADER_SIZE = Long.BYTES + Byte.BYTES + Short.BYTES;
+
+    // File is mapped and grown by regions of this size
+    private static final int REGION_SIZE = 16 * 1024 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long startNanos;
+
+    private MappedByteBuffer region;
+    private long regionStart = 0;
+
+    // Device - its index in the file
+    private final IdentityHashMap<T501Device, Integer> deviceIndexes = new IdentityHashMap<>();
+
+    private long records = 0;
+    private boolean closed = false;
+
+    public ReportRecorder(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+        this.region.putLong(MAGIC);
+        this.startNanos = System.nanoTime();
+
+        LOGGER.info("Recording reports to {}", path);
+    }
+
+    /**
+     * Appends the report. May be called by reading threads of different devices.
+     */
+    public void record(T501Device device, ByteBuffer buffer, int length) {
+        record(device, buffer, length, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Appends the report with the given time, for writing synthetic captures.
+     *
+     * @param timestamp nanoseconds since recording start, must not decrease
+     */
+    public synchronized void record(T501Device device, ByteBuffer buffer, int length, long timestamp) {
+        if (closed) {
+            return;
+        }
+
+        Integer index = deviceIndexes.get(device);
+        if (index == null) {
+            index = deviceIndexes.size();
+            deviceIndexes.put(device, index);
+            LOGGER.info("Recording device {} as #{}", device, index);
+        }
+
+        if (region.remaining() < RECORD_HEADER_SIZE + length) {
+            try {
+                regionStart += region.position();
+                region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, REGION_SIZE);
+            } catch (IOException e) {
+                LOGGER.error("Failed to grow recording {}, recording stopped: {}", path, e.getMessage(), e);
+                closed = true;
+                return;
+            }
+        }
+
+        region.putLong(timestamp);
+        region.put(index.byteValue());
+        region.putShort((short) length);
+        region.put(region.position(), buffer, 0, length);
+        region.position(region.position() + length);
+
+        records++;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed && !channel.isOpen()) {
+            return;
+        }
+        closed = true;
+
+        long size = regionStart + region.position();
+        region.force();
+        channel.truncate(size);
+        channel.close();
+
+        LOGGER.info("Recorded {} reports ({} bytes) to {}", records, size, path);
+    }
+}
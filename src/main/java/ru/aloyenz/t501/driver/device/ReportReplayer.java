@@ -0,0 +1,128 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds reports captured by {@link ReportRecorder} to a consumer, as if they were read from tablets.
+ * <p>
+ * Every recorded device gets a device without USB handle, and the connection listener (if any)
+ * is notified about it, so the replayed reports take exactly the same path as the live ones.
+ */
+public class ReportReplayer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportReplayer.class);
+
+    // Max length of a recorded report
+    private static final int MAX_PACKET_SIZE = 0xFFFF;
+
+    private final Path path;
+    private final ReportConsumer consumer;
+    private final DeviceConnectionListener listener;
+    private final double speed;
+
+    private final ArrayList<T501Device> devices = new ArrayList<>();
+
+    /**
+     * @param listener notified about recorded devices, nullable
+     * @param speed playback speed multiplier, 1 - original timing, 0 or less - as fast as possible
+     */
+    public ReportReplayer(Path path, ReportConsumer consumer, DeviceConnectionListener listener, double speed) {
+        this.path = path;
+        this.consumer = consumer;
+        this.listener = listener;
+        this.speed = speed;
+    }
+
+    /**
+     * Replays the whole file on the current thread.
+     *
+     * @return count of replayed reports
+     */
+    public long replay() throws IOException {
+        MappedByteBuffer file;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (file.remaining() < Long.BYTES || file.getLong() != ReportRecorder.MAGIC) {
+            throw new IOException("Not a T501 report recording: " + path);
+        }
+
+        LOGGER.info("Replaying {} at {}", path, speed > 0 ? speed + "x speed" : "max speed");
+
+        long count = 0;
+        long startNanos = System.nanoTime();
+
+        try {
+            while (file.remaining() >= ReportRecorder.RECORD_HEADER_SIZE) {
+                long timestamp = file.getLong();
+                int deviceIndex = file.get() & 0xFF;
+                int length = file.getShort() & 0xFFFF;
+
+                if (file.remaining() < length) {
+                    LOGGER.warn("Recording {} ends with a truncated report", path);
+                    break;
+                }
+
+                if (speed > 0) {
+                    waitUntil(startNanos + (long) (timestamp / speed));
+                }
+
+                T501Device device = getDevice(deviceIndex);
+                ByteBuffer buffer = device.buffer();
+                buffer.clear();
+                buffer.put(0, file, file.position(), length);
+                file.position(file.position() + length);
+
+                // Recorded timeline, so time-dependent filters behave as during recording at any speed
+                device.nextSequence(startNanos + timestamp);
+                consumer.onReport(device, buffer, length);
+                count++;
+            }
+        } finally {
+            for (T501Device device : devices) {
+                device.markRemoved();
+                if (listener != null) {
+                    listener.onDeviceDisconnected(device);
+                }
+            }
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        LOGGER.info("Replayed {} reports of {} devices in {} s ({} reports/s)",
+                count, devices.size(), String.format("%.3f", seconds), String.format("%.0f", count / seconds));
+
+        return count;
+    }
+
+    private T501Device getDevice(int index) {
+        while (devices.size() <= index) {
+            T501Device device = new T501Device("replay-" + devices.size(), null,
+                    new DeviceInformation((byte) 0, (byte) 0, MAX_PACKET_SIZE));
+            devices.add(device);
+
+            if (listener != null) {
+                listener.onDeviceConnected(device);
+            }
+        }
+
+        return devices.get(index);
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+
+/**
+ * Gives every tablet a sample ring and a thread which writes its samples to virtual devices.
+ * Must be added to the handler before the reader, so the ring exists when the first report is read.
+ */
+public class SampleEmitterThreads implements DeviceConnectionListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SampleEmitterThreads.class);
+
+    private final DeviceReader reader;
+    private final int ringCapacity;
+
+    // Device id - emitter thread
+    private final HashMap<String, Thread> threads = new HashMap<>();
+
+    public SampleEmitterThreads(DeviceReader reader, int ringCapacity) {
+        this.reader = reader;
+        this.ringCapacity = ringCapacity;
+    }
+
+    @Override
+    public void onDeviceConnected(T501Device device) {
+        PenSampleRing samples = new PenSampleRing(ringCapacity);
+
+        // Platform thread: every sample ends with a JNI write
+        Thread thread = new Thread(() -> {
+            reader.emit(device, samples);
+
+            LOGGER.info("Emitter thread of device {} stopped. Samples: {}, coalesced: {}, replaced: {}, waited: {}, dropped: {}, max occupancy: {}/{}",
+                    device, samples.published(), samples.coalesced(), samples.replaced(), samples.waits(),
+                    samples.dropped(), samples.maxOccupancy(), samples.capacity());
+        }, "T501 emitter " + device.id());
+
+        synchronized (threads) {
+            if (threads.containsKey(device.id())) {
+                return;
+            }
+
+            threads.put(device.id(), thread);
+        }
+
+        device.setSamples(samples);
+        thread.start();
+    }
+
+    @Override
+    public void onDeviceDisconnected(T501Device device) {
+        Thread thread;
+        synchronized (threads) {
+            thread = threads.remove(device.id());
+        }
+
+        PenSampleRing samples = device.samples();
+        if (thread != null && samples != null) {
+            // Reader of this device is already stopped, so emitter only finishes queued samples
+            samples.close();
+            try {
+                thread.join();
+            } catch (InterruptedException ignored) {}
+        }
+    }
+}
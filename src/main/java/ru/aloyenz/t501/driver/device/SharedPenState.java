@@ -0,0 +1,164 @@
+package ru.aloyenz.t501.driver.device;
+
+import ru.aloyenz.t501.driver.shared.SharedPenStateReader;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+
+import static ru.aloyenz.t501.driver.shared.SharedPenStateReader.*;
+
+/**
+ * Writer of the shared state file of a tablet, see {@link SharedPenStateReader} for its layout.
+ * <p>
+ * Publishing is a seqlock write of a few fields to the mapped file: nothing is allocated, no system calls are made,
+ * and readers are never waited for. Must be called only by the thread which reads the tablet.
+ */
+public class SharedPenState {
+
+    // Written only by the driver, read by anyone
+    private static final Set<PosixFilePermission> PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    // Even, the last published version
+    private long version;
+
+    private SharedPenState(Path path, MappedByteBuffer buffer, long version) {
+        this.path = path;
+        this.buffer = buffer;
+        this.version = version;
+    }
+
+    /**
+     * Creates or reuses the shared state file. A file left by the previous connection of the tablet is reused,
+     * so readers which have it mapped keep getting new states.
+     * <p>
+     * The directory may be writable by everyone (like {@code /dev/shm}) while the driver runs as root, so links are
+     * never followed, and a left-over file is reused only if it's a regular file of the driver's user which nobody
+     * else can write. Any other file is replaced with a new one readable by everyone.
+     */
+    public static SharedPenState create(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = isReusable(path)
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)
+                : createNew(path)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        long version = 0;
+        if (buffer.getInt(MAGIC_OFFSET) == MAGIC && buffer.getInt(LAYOUT_OFFSET) == LAYOUT) {
+            // Versions keep growing, so readers comparing them see the new states
+            version = (long) LONGS.getOpaque(buffer, VERSION) & ~1L;
+        } else {
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            buffer.putInt(LAYOUT_OFFSET, LAYOUT);
+        }
+
+        return new SharedPenState(path, buffer, version);
+    }
+
+    private static boolean isReusable(Path path) throws IOException {
+        PosixFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+
+        UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        Set<PosixFilePermission> permissions = attributes.permissions();
+
+        return attributes.isRegularFile()
+                && attributes.owner().equals(user)
+                && !permissions.contains(PosixFilePermission.GROUP_WRITE)
+                && !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+    }
+
+    private static FileChannel createNew(Path path) throws IOException {
+        // Removes a link itself, not its target
+        Files.deleteIfExists(path);
+
+        // Fails if anything appears at the path meanwhile
+        return FileChannel.open(path,
+                Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        LinkOption.NOFOLLOW_LINKS),
+                PosixFilePermissions.asFileAttribute(PERMISSIONS));
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /** Publishes the decoded report as the current state of the connected tablet */
+    public void publish(PenReport report) {
+        int flags = CONNECTED;
+        if (report.hovering) {
+            flags |= HOVERING;
+        }
+        if (report.touching) {
+            flags |= TOUCHING;
+        }
+        if (report.buttonPlusPressed) {
+            flags |= BUTTON_PLUS;
+        }
+        if (report.buttonMinusPressed) {
+            flags |= BUTTON_MINUS;
+        }
+        if (report.onSpecialButton) {
+            flags |= ON_SPECIAL_BUTTON;
+        }
+
+        begin();
+        buffer.putLong(SEQUENCE, report.sequence);
+        buffer.putLong(NANOS, report.nanos);
+        buffer.putInt(X, report.x);
+        buffer.putInt(Y, report.y);
+        buffer.putInt(RAW_PRESSURE, report.rawPressure);
+        buffer.putInt(PRESSURE, report.pressure);
+        buffer.putInt(TILT_X, report.tiltX);
+        buffer.putInt(TILT_Y, report.tiltY);
+        buffer.putInt(FLAGS, flags);
+        // Tablet reports released buttons as 1
+        buffer.putInt(TABLET_BUTTONS, ~report.tabletButtons & 0xFFFF);
+        end();
+    }
+
+    /**
+     * Clears {@link SharedPenStateReader#CONNECTED} keeping the last state.
+     * Must be called after the reading thread of the tablet is stopped.
+     */
+    public void disconnected() {
+        begin();
+        buffer.putInt(FLAGS, buffer.getInt(FLAGS) & ~CONNECTED);
+        end();
+    }
+
+    private void begin() {
+        // Odd version tells readers that fields are being written
+        LONGS.setOpaque(buffer, VERSION, version + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    private void end() {
+        version += 2;
+        LONGS.setRelease(buffer, VERSION, version);
+    }
+}
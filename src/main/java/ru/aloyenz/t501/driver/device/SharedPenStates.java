@@ -0,0 +1,75 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Gives every tablet a shared state file in the directory, named {@code t501_pen_<device id>}.
+ * Must be added to the handler before the reader, so the file exists when the first report is read.
+ */
+public class SharedPenStates implements DeviceConnectionListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedPenStates.class);
+
+    private static final String PREFIX = "t501_pen_";
+
+    private final Path directory;
+
+    // Device id - its file, kept after disconnection and removed by close()
+    private final HashMap<String, Path> files = new HashMap<>();
+
+    public SharedPenStates(Path directory) {
+        this.directory = directory;
+    }
+
+    public static Path file(Path directory, String deviceId) {
+        return directory.resolve(PREFIX + deviceId);
+    }
+
+    @Override
+    public void onDeviceConnected(T501Device device) {
+        Path path = file(directory, device.id());
+        try {
+            device.setSharedState(SharedPenState.create(path));
+        } catch (IOException e) {
+            // The tablet works without it
+            LOGGER.error("Failed to create shared pen state {}: {}", path, e.getMessage(), e);
+            return;
+        }
+
+        synchronized (files) {
+            files.put(device.id(), path);
+        }
+        LOGGER.info("Pen state of device {} is shared in {}", device, path);
+    }
+
+    @Override
+    public void onDeviceDisconnected(T501Device device) {
+        SharedPenState state = device.sharedState();
+        if (state != null) {
+            // Reader of this device is already stopped
+            state.disconnected();
+        }
+    }
+
+    /**
+     * Removes files of all tablets. Readers which have them mapped keep the last states.
+     */
+    public void close() {
+        synchronized (files) {
+            for (Path path : files.values()) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    LOGGER.error("Failed to remove shared pen state {}: {}", path, e.getMessage());
+                }
+            }
+            files.clear();
+        }
+    }
+}
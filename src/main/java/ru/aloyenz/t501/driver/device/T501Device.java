@@ -0,0 +1,195 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.usb4java.DeviceHandle;
+import org.usb4java.LibUsb;
+import ru.aloyenz.t501.driver.virtual.InputSink;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connected tablet with its own decode state and buffers reused by blocking reads.
+ */
+public class T501Device {
+
+    private final String id;
+    private final DeviceHandle handle;
+    private final DeviceInformation information;
+
+    private final DecodeState decodeState;
+
+    private final ByteBuffer buffer;
+    private final IntBuffer transferred = IntBuffer.allocate(1);
+
+    // Null if samples are emitted right by the reading thread
+    private volatile PenSampleRing samples;
+    // Null if the decoded state is not shared
+    private volatile SharedPenState sharedState;
+
+    private volatile boolean connected = true;
+    // The handler and readers of this device. Handle is closed when the last of them releases it
+    private final AtomicInteger handleUsers = new AtomicInteger(1);
+    private volatile boolean reattachKernelDriver = false;
+    private boolean noDeviceReported = false;
+
+    // Count of received reports and System.nanoTime() of the last one. Used only by the thread which reads this device
+    private long sequence = 0;
+    private long receivedNanos = 0;
+
+    /**
+     * @param id bus and port path of the device, for example "1-2.3"
+     */
+    public T501Device(String id, DeviceHandle handle, DeviceInformation information) {
+        this(id, handle, information, 0);
+    }
+
+    /**
+     * @param id bus and port path of the device, for example "1-2.3"
+     * @param pluggedNanos {@link System#nanoTime()} when the device was plugged in or found, 0 if it's unknown.
+     *                     Time from it to the first emitted pen sample is logged
+     */
+    public T501Device(String id, DeviceHandle handle, DeviceInformation information, long pluggedNanos) {
+        this.id = id;
+        this.handle = handle;
+        this.information = information;
+        this.decodeState = new DecodeState(id);
+        this.decodeState.pluggedNanos = pluggedNanos;
+        this.buffer = ByteBuffer.allocateDirect(information.packetSize());
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public DeviceHandle handle() {
+        return handle;
+    }
+
+    public DeviceInformation information() {
+        return information;
+    }
+
+    /** False when device is removed from the handler. Its handle stays open only until readers release it */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    void markRemoved() {
+        connected = false;
+    }
+
+    /**
+     * Keeps the handle open until {@link #releaseHandle()}. Called by a reader before it starts transfers,
+     * so the handle is never closed while they are in flight.
+     */
+    void retainHandle() {
+        handleUsers.incrementAndGet();
+    }
+
+    /**
+     * Closes the handle if nobody else uses it. The handler releases it when the device is removed,
+     * readers when their last transfer is finished.
+     */
+    void releaseHandle() {
+        if (handleUsers.decrementAndGet() != 0 || handle == null) {
+            return;
+        }
+
+        if (reattachKernelDriver) {
+            LibUsb.attachKernelDriver(handle, information.interfaceNumber());
+        }
+        LibUsb.close(handle);
+    }
+
+    /** Gives the tablet back to the kernel driver when the handle is closed */
+    void reattachKernelDriverOnClose() {
+        reattachKernelDriver = true;
+    }
+
+    /** Queue between reading and emitting threads of this device, null if there is no emitter thread */
+    public PenSampleRing samples() {
+        return samples;
+    }
+
+    void setSamples(PenSampleRing samples) {
+        this.samples = samples;
+    }
+
+    /** File the decoded state of this device is published to, null if it's not shared */
+    public SharedPenState sharedState() {
+        return sharedState;
+    }
+
+    void setSharedState(SharedPenState sharedState) {
+        this.sharedState = sharedState;
+    }
+
+    /**
+     * Sets virtual devices the samples of this device are written to. Must be called before its first report is read
+     */
+    void setOutputs(InputSink sink, MouseScheduler mouseScheduler) {
+        decodeState.sink = sink;
+        decodeState.mouseScheduler = mouseScheduler;
+    }
+
+    /** Count of pen frames written to the virtual pen. Exact only after the emitting thread is stopped */
+    public long penFrames() {
+        return decodeState.penFrames;
+    }
+
+    /** Count of key batches written to the virtual keyboard. Exact only after the emitting thread is stopped */
+    public long keyboardBatches() {
+        return decodeState.keyboardBatches;
+    }
+
+    /** Count of hover reports not written because of hover_output_rate */
+    public long skippedHoverReports() {
+        return decodeState.governor.skipped();
+    }
+
+    DecodeState decodeState() {
+        return decodeState;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    IntBuffer transferred() {
+        return transferred;
+    }
+
+    /**
+     * Counts a received report and returns its sequence number. Called only by the reading thread
+     *
+     * @param receivedNanos {@link System#nanoTime()} when the report was received
+     */
+    long nextSequence(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+        return ++sequence;
+    }
+
+    /** Sequence number of the last received report */
+    long sequence() {
+        return sequence;
+    }
+
+    /** Time of the last received report, 0 if it's unknown */
+    long receivedNanos() {
+        return receivedNanos;
+    }
+
+    boolean isNoDeviceReported() {
+        return noDeviceReported;
+    }
+
+    void setNoDeviceReported(boolean noDeviceReported) {
+        this.noDeviceReported = noDeviceReported;
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
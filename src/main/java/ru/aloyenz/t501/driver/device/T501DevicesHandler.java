@@ -3,36 +3,170 @@ package ru.aloyenz.t501.driver.device;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usb4java.*;
-import ru.aloyenz.t501.driver.util.Pair;
+import ru.aloyenz.t501.driver.metrics.Metrics;
 
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Set;
 
 public class T501DevicesHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(T501DevicesHandler.class);
 
-    private final HashMap<Byte, Pair<DeviceHandle, DeviceInformation>> deviceHandlers = new HashMap<>();
+    // Max depth of USB port path, defined by USB 3.0 specification
+    private static final int MAX_PORT_NUMBERS = 7;
+
+    private static final byte[] FULL_AREA_REPORT = new byte[] { (byte)0x08, (byte)0x03, (byte)0x00,
+            (byte)0xff, (byte)0xf0, (byte)0x00,
+            (byte)0xff, (byte)0xf0 };
+
+    // Device id (bus and port path) - device
+    private final HashMap<String, T501Device> deviceHandlers = new HashMap<>();
+
+    // Copy of deviceHandlers values for readers. Rebuilt only on connect/disconnect
+    private volatile T501Device[] devices = new T501Device[0];
+
+    // Device id - its endpoint, kept after disconnection, so re-plugging skips descriptor discovery
+    private final HashMap<String, DeviceInformation> knownDevices = new HashMap<>();
+
+    private final ArrayList<DeviceConnectionListener> connectionListeners = new ArrayList<>();
 
     public T501DevicesHandler() {}
 
+    /**
+     * Listeners are notified about connected devices in order they were added,
+     * and about disconnected devices in reverse order.
+     */
+    public void addConnectionListener(DeviceConnectionListener connectionListener) {
+        connectionListeners.add(connectionListener);
+    }
+
+    /**
+     * Returns bus and port path of the device, for example "1-2.3".
+     * Unlike iSerialNumber (which is just an index of string descriptor) it's unique for every
+     * connected tablet, and it's still available when device is disconnected.
+     */
+    public static String getDeviceId(Device device) {
+        StringBuilder id = new StringBuilder().append(LibUsb.getBusNumber(device));
+
+        ByteBuffer ports = ByteBuffer.allocateDirect(MAX_PORT_NUMBERS);
+        int count = LibUsb.getPortNumbers(device, ports);
+        for (int i = 0; i < count; i++) {
+            id.append(i == 0 ? '-' : '.').append(ports.get(i) & 0xFF);
+        }
+
+        return id.toString();
+    }
+
+    /**
+     * Same as {@link #onDeviceConnected(Device, DeviceDescriptor, long, boolean)} for a device found
+     * by enumeration, which may be left in any state by a previous run, so it's reset.
+     */
     public void onDeviceConnected(Device device, DeviceDescriptor descriptor) {
-        if (deviceHandlers.containsKey(descriptor.iSerialNumber())) {
-            LOGGER.info("Device {} already connected. Not reconnecting...", descriptor.iSerialNumber());
+        onDeviceConnected(device, descriptor, System.nanoTime(), false);
+    }
+
+    /**
+     * Opens the tablet, switches it to the full area mode and notifies listeners.
+     *
+     * @param pluggedNanos {@link System#nanoTime()} when the device was plugged in or found
+     * @param freshlyPlugged true if the device has just arrived, so it's in the power-on state and needs no reset
+     */
+    public void onDeviceConnected(Device device, DeviceDescriptor descriptor, long pluggedNanos, boolean freshlyPlugged) {
+        String id = getDeviceId(device);
+
+        if (deviceHandlers.containsKey(id)) {
+            LOGGER.info("Device {} already connected. Not reconnecting...", id);
             return;
         }
 
-        ConfigDescriptor configDescriptor = new ConfigDescriptor();
-        try {
-            int code = LibUsb.getConfigDescriptor(device, (byte) 0, configDescriptor);
-
-            if (code != LibUsb.SUCCESS) {
-                LOGGER.error("Failed to get config descriptor: {}", LibUsb.strError(code));
+        // Re-plugged tablet has the same descriptors, so they are read only once per port
+        DeviceInformation information = knownDevices.get(id);
+        boolean cached = information != null;
+        if (!cached) {
+            information = discover(device, id);
+            if (information == null) {
+                Metrics.DEVICE_SETUP_FAILURES.increment();
                 return;
             }
+        }
 
+        // Handle device connection
+        DeviceHandle handle = new DeviceHandle();
+
+        int result = LibUsb.open(device, handle);
+        if (result != LibUsb.SUCCESS) {
+            LOGGER.error("Failed to open device: {}. This program must be run as sudo", LibUsb.strError(result));
+            Metrics.usbError(result);
+            Metrics.DEVICE_SETUP_FAILURES.increment();
+            return;
+        }
+        LibUsb.detachKernelDriver(handle, information.interfaceNumber());
+
+        // Reset the device to ensure it's in a known state. Freshly plugged one is reset only if it doesn't respond
+        boolean reset = !freshlyPlugged;
+        result = reset ? resetAndSetUp(handle, information) : setUp(handle, information);
+        if (result != LibUsb.SUCCESS && !reset) {
+            LOGGER.warn("Failed to set up device {}: {}. Resetting it", id, LibUsb.strError(result));
+            Metrics.usbError(result);
+            reset = true;
+            result = resetAndSetUp(handle, information);
+        }
+
+        if (result != LibUsb.SUCCESS) {
+            LOGGER.error("Failed to set up device {}: {}", id, LibUsb.strError(result));
+            Metrics.usbError(result);
+            Metrics.DEVICE_SETUP_FAILURES.increment();
+            LibUsb.releaseInterface(handle, information.interfaceNumber());
+            LibUsb.close(handle);
+            // Descriptors are read again on the next connection
+            knownDevices.remove(id);
+            return;
+        }
+
+        knownDevices.put(id, information);
+
+        // Store the handle and device information
+        T501Device t501Device = new T501Device(id, handle, information, pluggedNanos);
+        deviceHandlers.put(id, t501Device);
+        updateDevices();
+
+        for (DeviceConnectionListener listener : connectionListeners) {
+            listener.onDeviceConnected(t501Device);
+        }
+
+        long readyNanos = System.nanoTime() - pluggedNanos;
+        Metrics.DEVICE_CONNECTS.increment();
+        if (cached) {
+            Metrics.DEVICE_RECONNECTS.increment();
+        }
+        if (reset) {
+            Metrics.DEVICE_RESETS.increment();
+        }
+        Metrics.CONNECT_DURATION.observe(readyNanos);
+
+        LOGGER.info("T501 device connected: VID={} PID={} ID={}. Ready in {} ms (cached descriptors: {}, reset: {})",
+                String.format("%04x", descriptor.idVendor() & 0xffff),
+                String.format("%04x", descriptor.idProduct() & 0xffff),
+                id, readyNanos / 1_000_000, cached, reset);
+    }
+
+    /**
+     * Finds the input endpoint of the tablet in its config descriptor.
+     *
+     * @return null if the device has no such endpoint
+     */
+    private static DeviceInformation discover(Device device, String id) {
+        ConfigDescriptor configDescriptor = new ConfigDescriptor();
+        int code = LibUsb.getConfigDescriptor(device, (byte) 0, configDescriptor);
+
+        if (code != LibUsb.SUCCESS) {
+            LOGGER.error("Failed to get config descriptor: {}", LibUsb.strError(code));
+            Metrics.usbError(code);
+            return null;
+        }
+
+        try {
             byte entrypoint = 0;
             byte ifaceNumber = 0;
             int maxPacketSize = 0;
@@ -47,7 +181,7 @@ public class T501DevicesHandler {
                             ifaceNumber = ifaceDesc.bInterfaceNumber();
                             maxPacketSize = epDesc.wMaxPacketSize();
                             entrypoint = addr;
-                            LOGGER.info("Device {} has entrypoint {} and interface number {}...", descriptor.iSerialNumber(), addr, ifaceNumber);
+                            LOGGER.info("Device {} has entrypoint {} and interface number {}...", id, addr, ifaceNumber);
                             found = true;
                         }
                     }
@@ -55,95 +189,90 @@ public class T501DevicesHandler {
             }
 
             if (!found) {
-                LOGGER.error("Device {} has no entrypoint", descriptor.iSerialNumber());
-                return;
+                LOGGER.error("Device {} has no entrypoint", id);
+                return null;
             }
 
-            // Handle device connection
-            DeviceHandle handle = new DeviceHandle();
-
-            int result = LibUsb.open(device, handle);
-            if (result != LibUsb.SUCCESS) {
-                LOGGER.error("Failed to open device: {}. This program must be run as sudo", LibUsb.strError(result));
-                return;
-            }
-            LibUsb.detachKernelDriver(handle, ifaceNumber);
-
-            // Reset the device to ensure it's in a known state
-            result = LibUsb.resetDevice(handle);
-            if (result != LibUsb.SUCCESS) {
-                LOGGER.error("Failed to reset device: {}", LibUsb.strError(result));
-                LibUsb.releaseInterface(handle, ifaceNumber);
-                LibUsb.close(handle);
-                return;
-            }
-
-            result = LibUsb.claimInterface(handle, ifaceNumber);
-            if (result != LibUsb.SUCCESS) {
-                LOGGER.error("Failed to claim interface: {}", LibUsb.strError(result));
-                LibUsb.close(handle);
-                return;
-            }
+            LOGGER.info("Packet size for device {}: {}", id, maxPacketSize);
+            return new DeviceInformation(ifaceNumber, entrypoint, maxPacketSize);
+        } finally {
+            LibUsb.freeConfigDescriptor(configDescriptor);
+        }
+    }
 
-            // Sending Full area packet
-            byte[] report = new byte[] { (byte)0x08, (byte)0x03, (byte)0x00,
-                    (byte)0xff, (byte)0xf0, (byte)0x00,
-                    (byte)0xff, (byte)0xf0 };
+    private static int resetAndSetUp(DeviceHandle handle, DeviceInformation information) {
+        int result = LibUsb.resetDevice(handle);
+        if (result != LibUsb.SUCCESS) {
+            return result;
+        }
 
-            byte reportId = 0x08; // первый байт твоего отчёта
-            byte reportType = 0x03; // Feature report (0x03)
-            byte requestType = (byte) (LibUsb.REQUEST_TYPE_CLASS | LibUsb.RECIPIENT_INTERFACE | LibUsb.ENDPOINT_OUT);
-            byte request = (byte) 0x09; // SET_REPORT
-            short value = (short) ((reportType << 8) | reportId); // 0x0308
-            short index = (short) ifaceNumber;
+        return setUp(handle, information);
+    }
 
-            ByteBuffer buffer = ByteBuffer.allocateDirect(report.length);
-            buffer.put(report);
-            buffer.rewind();
+    /**
+     * Claims the interface and switches the tablet to the full area mode.
+     *
+     * @return {@link LibUsb#SUCCESS} or error code
+     */
+    private static int setUp(DeviceHandle handle, DeviceInformation information) {
+        int result = LibUsb.claimInterface(handle, information.interfaceNumber());
+        if (result != LibUsb.SUCCESS) {
+            return result;
+        }
 
-            IntBuffer transferred = IntBuffer.allocate(1);
+        // Sending Full area packet
+        byte reportId = 0x08; // первый байт твоего отчёта
+        byte reportType = 0x03; // Feature report (0x03)
+        byte requestType = (byte) (LibUsb.REQUEST_TYPE_CLASS | LibUsb.RECIPIENT_INTERFACE | LibUsb.ENDPOINT_OUT);
+        byte request = (byte) 0x09; // SET_REPORT
+        short value = (short) ((reportType << 8) | reportId); // 0x0308
+        short index = information.interfaceNumber();
 
-            result = LibUsb.controlTransfer(handle, requestType, request, value, index, buffer, 5000);
-            if (result < 0) {
-                throw new RuntimeException("Error sending report via control transfer: " + LibUsb.strError(result));
-            }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(FULL_AREA_REPORT.length);
+        buffer.put(FULL_AREA_REPORT);
+        buffer.rewind();
 
-            LOGGER.info("Sent full mode report via control transfer, {} bytes. Transferred: {}", result, transferred.get(0));
-
-            // Store the handle and device information
-            LOGGER.info("Packet size for device {}: {}", descriptor.iSerialNumber(), maxPacketSize);
-            deviceHandlers.put(descriptor.iSerialNumber(), new Pair<>(handle, new DeviceInformation(
-                    ifaceNumber,
-                    entrypoint,
-                    maxPacketSize
-            )));
-            LOGGER.info("T501 device connected: VID={} PID={} SN={}",
-                    String.format("%04x", descriptor.idVendor() & 0xffff),
-                    String.format("%04x", descriptor.idProduct() & 0xffff),
-                    descriptor.iSerialNumber());
-        } finally {
-            LibUsb.freeConfigDescriptor(configDescriptor);
+        result = LibUsb.controlTransfer(handle, requestType, request, value, index, buffer, 5000);
+        if (result < 0) {
+            // Claimed again after reset
+            LibUsb.releaseInterface(handle, information.interfaceNumber());
+            return result;
         }
+
+        LOGGER.info("Sent full mode report via control transfer, {} bytes", result);
+        return LibUsb.SUCCESS;
     }
 
     public void reattachKernelDrivers() {
-        for (Pair<DeviceHandle, DeviceInformation> handle : deviceHandlers.values()) {
-            LibUsb.attachKernelDriver(handle.first(), handle.second().interfaceNumber());
-            LibUsb.close(handle.first());
+        for (T501Device device : deviceHandlers.values()) {
+            device.markRemoved();
+            notifyDisconnected(device);
+
+            device.reattachKernelDriverOnClose();
+            device.releaseHandle();
         }
 
         deviceHandlers.clear();
+        updateDevices();
     }
 
-    public void onDeviceDisconnected(DeviceDescriptor descriptor) {
-        LOGGER.info("T501 device disconnected: VID={} PID={} SN={}",
+    public void onDeviceDisconnected(Device device, DeviceDescriptor descriptor) {
+        String id = getDeviceId(device);
+
+        LOGGER.info("T501 device disconnected: VID={} PID={} ID={}",
                 String.format("%04x", descriptor.idVendor() & 0xffff),
                 String.format("%04x", descriptor.idProduct() & 0xffff),
-                descriptor.iSerialNumber());
-        DeviceHandle handle = deviceHandlers.get(descriptor.iSerialNumber()).first();
-        if (handle != null) {
-            LibUsb.close(handle);
-            deviceHandlers.remove(descriptor.iSerialNumber());
+                id);
+        T501Device t501Device = deviceHandlers.remove(id);
+        if (t501Device != null) {
+            Metrics.DEVICE_DISCONNECTS.increment();
+            updateDevices();
+            t501Device.markRemoved();
+
+            notifyDisconnected(t501Device);
+
+            // Closed when readers finish their transfers, they may still be waiting for event handling
+            t501Device.releaseHandle();
         }
     }
 
@@ -155,7 +284,20 @@ public class T501DevicesHandler {
         return deviceHandlers.size();
     }
 
-    public Set<Pair<DeviceHandle, DeviceInformation>> deviceHandlers() {
-        return Set.copyOf(deviceHandlers.values());
+    /**
+     * Returns connected devices. The returned array must not be modified.
+     */
+    public T501Device[] devices() {
+        return devices;
+    }
+
+    private void updateDevices() {
+        devices = deviceHandlers.values().toArray(new T501Device[0]);
+    }
+
+    private void notifyDisconnected(T501Device device) {
+        for (int i = connectionListeners.size() - 1; i >= 0; i--) {
+            connectionListeners.get(i).onDeviceDisconnected(device);
+        }
     }
 }
@@ -0,0 +1,221 @@
+package ru.aloyenz.t501.driver.device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aloyenz.t501.driver.virtual.InputSink;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Gives every tablet its own virtual pen, keyboard and mouse, so several tablets are several pointers.
+ * <p>
+ * Virtual devices are numbered from 1 in order they are created. They are kept when their tablet is
+ * disconnected: the tablet gets the same ones when it's plugged again, unless another tablet took them meanwhile.
+ * New devices are created only when all existing ones are used. Every set has its own mouse scheduler,
+ * running while the set is used. Must be added to the handler before readers and emitters, so the devices exist
+ * when the first report is read, and are released after the last one is written.
+ */
+public class VirtualDeviceRegistry implements DeviceConnectionListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualDeviceRegistry.class);
+
+    // Input of a tablet without virtual devices
+    private static final InputSink DISCARD = new InputSink() {
+        @Override
+        public void penFrame(int x, int y, int pressure, boolean touch, int tiltX, int tiltY,
+                             boolean stylusPlusPressed, boolean stylusMinusPressed) {}
+
+        @Override
+        public void penLeave() {}
+
+        @Override
+        public void keyboardKeys(int[] keyCodes, boolean[] pressed, int count) {}
+
+        @Override
+        public void mouseEvents(int[] codes, boolean[] isRel, int[] values, int count) {}
+    };
+
+    /**
+     * Creates virtual devices.
+     */
+    public interface Factory {
+
+        /**
+         * @param number number of the devices, starting from 1
+         * @return null if devices could not be created
+         */
+        InputSink create(int number);
+    }
+
+    private final Factory factory;
+    private final int repeatDelayMs;
+    private final int repeatRate;
+
+    // Index - number of the devices - 1
+    private final ArrayList<VirtualDevices> sets = new ArrayList<>();
+    // Device id - its virtual devices
+    private final HashMap<String, VirtualDevices> assigned = new HashMap<>();
+    // Used by tablets only if no virtual devices could be created at all
+    private final VirtualDevices discarding = new VirtualDevices(0, DISCARD,
+            new MouseScheduler(DISCARD, "discarding mouse scheduler"));
+
+    /**
+     * @param repeatDelayMs delay between press and the first repeat of REL_ events of mouse schedulers
+     * @param repeatRate repeats per second of mouse schedulers
+     */
+    public VirtualDeviceRegistry(Factory factory, int repeatDelayMs, int repeatRate) {
+        this.factory = factory;
+        this.repeatDelayMs = repeatDelayMs;
+        this.repeatRate = repeatRate;
+    }
+
+    /**
+     * Creates devices of the first tablet ahead, so they are ready when it's connected,
+     * and a failure is reported at start.
+     *
+     * @return false if devices could not be created
+     */
+    public synchronized boolean prepare() {
+        return !sets.isEmpty() || create() != null;
+    }
+
+    @Override
+    public synchronized void onDeviceConnected(T501Device device) {
+        if (assigned.containsKey(device.id())) {
+            return;
+        }
+
+        VirtualDevices devices = find(device.id());
+        if (devices == null) {
+            devices = create();
+        }
+
+        if (devices == null && !sets.isEmpty()) {
+            devices = sets.get(0);
+            LOGGER.error("Failed to create virtual devices for tablet {}. It shares virtual devices #{}",
+                    device, devices.number);
+        } else if (devices == null) {
+            devices = discarding;
+            LOGGER.error("No virtual devices for tablet {}, its input is ignored", device);
+        }
+
+        devices.owner = device.id();
+        devices.users++;
+        assigned.put(device.id(), devices);
+        if (devices.users == 1) {
+            devices.mouseScheduler.start(repeatDelayMs, repeatRate);
+        }
+
+        device.setOutputs(devices.sink, devices.mouseScheduler);
+        LOGGER.info("Tablet {} uses virtual devices #{}", device, devices.number);
+    }
+
+    @Override
+    public synchronized void onDeviceDisconnected(T501Device device) {
+        VirtualDevices devices = assigned.remove(device.id());
+        if (devices == null) {
+            return;
+        }
+
+        LOGGER.info("Tablet {} released virtual devices #{}. Reports: {}, skipped hover reports: {}, pen frames: {}, key batches: {}",
+                device, devices.number, device.sequence(), device.skippedHoverReports(),
+                device.penFrames(), device.keyboardBatches());
+
+        if (--devices.users == 0) {
+            // Pointer must not hang over the screen, and buttons must not stay pressed
+            devices.sink.penLeave();
+            devices.mouseScheduler.stop();
+        }
+    }
+
+    /**
+     * Runs the action for every set of virtual devices with its number. Devices are not created meanwhile.
+     */
+    public synchronized void forEachSink(ObjIntConsumer<InputSink> action) {
+        for (VirtualDevices devices : sets) {
+            action.accept(devices.sink, devices.number);
+        }
+    }
+
+    /** Count of created virtual device sets */
+    public synchronized int size() {
+        return sets.size();
+    }
+
+    /**
+     * Stops mouse schedulers, releasing held buttons, and removes all virtual devices.
+     * Must be called after readers and emitters are stopped.
+     */
+    public synchronized void close() {
+        for (VirtualDevices devices : sets) {
+            if (devices.users > 0) {
+                devices.mouseScheduler.stop();
+            }
+            devices.sink.close();
+        }
+
+        if (discarding.users > 0) {
+            discarding.mouseScheduler.stop();
+            discarding.users = 0;
+        }
+
+        sets.clear();
+        assigned.clear();
+    }
+
+    // Free devices the tablet used before, or free devices with the lowest number
+    private VirtualDevices find(String id) {
+        VirtualDevices free = null;
+        for (VirtualDevices devices : sets) {
+            if (devices.users > 0) {
+                continue;
+            }
+
+            if (id.equals(devices.owner)) {
+                return devices;
+            }
+
+            // Devices used by an unplugged tablet are kept for it while there are others
+            if (free == null || (free.owner != null && devices.owner == null)) {
+                free = devices;
+            }
+        }
+
+        return free;
+    }
+
+    private VirtualDevices create() {
+        int number = sets.size() + 1;
+        InputSink sink = factory.create(number);
+        if (sink == null) {
+            return null;
+        }
+
+        VirtualDevices devices = new VirtualDevices(number, sink,
+                new MouseScheduler(sink, "mouse scheduler #" + number));
+        sets.add(devices);
+
+        LOGGER.info("Created virtual devices #{}", number);
+        return devices;
+    }
+
+    private static final class VirtualDevices {
+
+        private final int number;
+        private final InputSink sink;
+        private final MouseScheduler mouseScheduler;
+
+        // Id of the last tablet using the devices, null if nobody used them yet
+        private String owner = null;
+        // Count of tablets using the devices, more than 1 only if new devices could not be created
+        private int users = 0;
+
+        private VirtualDevices(int number, InputSink sink, MouseScheduler mouseScheduler) {
+            this.number = number;
+            this.sink = sink;
+            this.mouseScheduler = mouseScheduler;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ru.aloyenz.t501.driver.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with fixed buckets. Observing is a few comparisons and two {@link LongAdder} increments,
+ * nothing is allocated.
+ */
+public final class Histogram {
+
+    private final String name;
+    private final String help;
+    // Upper bounds of buckets, ascending
+    private final long[] boundsNanos;
+    // Last one counts values above every bound
+    private final LongAdder[] buckets;
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * @param boundsNanos upper bounds of buckets in nanoseconds, ascending
+     */
+    public Histogram(String name, String help, long... boundsNanos) {
+        this.name = name;
+        this.help = help;
+        this.boundsNanos = boundsNanos.clone();
+        this.buckets = new LongAdder[boundsNanos.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void observe(long nanos) {
+        int bucket = 0;
+        while (bucket < boundsNanos.length && nanos > boundsNanos[bucket]) {
+            bucket++;
+        }
+
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /** Count of observed values */
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /** Writes the histogram in seconds, in the Prometheus text format */
+    void write(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+
+        // Buckets are cumulative. Adders are read one by one, so the count is taken from the same reads
+        long cumulative = 0;
+        for (int i = 0; i < boundsNanos.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{le=\"").append(boundsNanos[i] / 1e9).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        cumulative += buckets[boundsNanos.length].sum();
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+
+        out.append(name).append("_sum ").append(sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count ").append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,156 @@
+package ru.aloyenz.t501.driver.metrics;
+
+import org.usb4java.LibUsb;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and histograms of the driver, exposed by {@link MetricsServer} in the Prometheus text format.
+ * <p>
+ * Counters are {@link LongAdder}s: threads of different tablets increment their own cells instead of
+ * contending on a single value. They are always updated, it's cheaper than checking whether anybody reads them,
+ * and nothing is allocated. Gauges are read only when metrics are scraped.
+ */
+public final class Metrics {
+
+    /** Virtual devices of {@link #uinputWriteFailed} */
+    public static final int PEN = 0;
+    public static final int KEYBOARD = 1;
+    public static final int MOUSE = 2;
+    private static final String[] UINPUT_DEVICES = {"pen", "keyboard", "mouse"};
+
+    // libusb error codes are -1 ~ -12 and LIBUSB_ERROR_OTHER
+    private static final int MAX_USB_ERROR = 12;
+
+    public static final LongAdder REPORTS = new LongAdder();
+    public static final LongAdder PEN_FRAMES = new LongAdder();
+    public static final LongAdder KEYBOARD_BATCHES = new LongAdder();
+    public static final LongAdder TRANSFER_TIMEOUTS = new LongAdder();
+
+    /** Counters of sample rings between reading and writing threads of tablets */
+    public static final LongAdder SAMPLES_COALESCED = new LongAdder();
+    public static final LongAdder SAMPLES_REPLACED = new LongAdder();
+    public static final LongAdder SAMPLE_WAITS = new LongAdder();
+    public static final LongAdder SAMPLES_DROPPED = new LongAdder();
+
+    public static final LongAdder DEVICE_CONNECTS = new LongAdder();
+    /** Connections of tablets which were connected to the same port before */
+    public static final LongAdder DEVICE_RECONNECTS = new LongAdder();
+    public static final LongAdder DEVICE_DISCONNECTS = new LongAdder();
+    public static final LongAdder DEVICE_RESETS = new LongAdder();
+    public static final LongAdder DEVICE_SETUP_FAILURES = new LongAdder();
+
+    public static final LongAdder SCRIPT_PRESSES = new LongAdder();
+    public static final LongAdder SCRIPT_PRESSES_DROPPED = new LongAdder();
+
+    /** From receiving a report to writing its pen frame */
+    public static final Histogram EMISSION_LATENCY = new Histogram("t501_emission_latency_seconds",
+            "Time from receiving a report to writing its pen frame",
+            50_000L, 100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 100_000_000L);
+
+    /** From plugging in or finding a tablet to its readiness */
+    public static final Histogram CONNECT_DURATION = new Histogram("t501_connect_duration_seconds",
+            "Time from plugging in or finding a tablet to reading its reports",
+            10_000_000L, 25_000_000L, 50_000_000L, 100_000_000L, 250_000_000L,
+            500_000_000L, 1_000_000_000L, 2_500_000_000L, 5_000_000_000L);
+
+    // Index is the negated error code, 0 - any other code
+    private static final LongAdder[] USB_ERRORS = adders(MAX_USB_ERROR + 1);
+    private static final LongAdder[] UINPUT_WRITE_FAILURES = adders(UINPUT_DEVICES.length);
+
+    private static final List<Gauge> GAUGES = new CopyOnWriteArrayList<>();
+
+    private Metrics() {}
+
+    /** Counts a failed libusb call or transfer */
+    public static void usbError(int code) {
+        USB_ERRORS[code < 0 && code >= -MAX_USB_ERROR ? -code : 0].increment();
+    }
+
+    /**
+     * Counts a failed write of a virtual device.
+     *
+     * @param device {@link #PEN}, {@link #KEYBOARD} or {@link #MOUSE}
+     */
+    public static void uinputWriteFailed(int device) {
+        UINPUT_WRITE_FAILURES[device].increment();
+    }
+
+    /** Adds a value read when metrics are scraped */
+    public static void gauge(String name, String help, LongSupplier value) {
+        GAUGES.add(new Gauge(name, help, value));
+    }
+
+    /** Writes all metrics in the Prometheus text format */
+    public static void write(StringBuilder out) {
+        counter(out, "t501_reports_total", "Reports received from tablets", REPORTS);
+        counter(out, "t501_pen_frames_total", "Pen frames written to virtual pens", PEN_FRAMES);
+        counter(out, "t501_keyboard_batches_total", "Key batches written to virtual keyboards", KEYBOARD_BATCHES);
+        counter(out, "t501_transfer_timeouts_total", "Interrupt transfers which timed out", TRANSFER_TIMEOUTS);
+
+        counter(out, "t501_samples_coalesced_total", "Queued hover samples skipped for a newer one", SAMPLES_COALESCED);
+        counter(out, "t501_samples_replaced_total", "Hover samples replaced by a newer one in a full sample ring",
+                SAMPLES_REPLACED);
+        counter(out, "t501_sample_waits_total", "Samples which waited for a free slot of a full sample ring",
+                SAMPLE_WAITS);
+        counter(out, "t501_samples_dropped_total", "Samples refused by sample rings of stopped tablets",
+                SAMPLES_DROPPED);
+
+        header(out, "t501_usb_errors_total", "Failed libusb calls and transfers by error", "counter");
+        for (int i = 0; i < USB_ERRORS.length; i++) {
+            String error = i == 0 ? "LIBUSB_ERROR_OTHER" : LibUsb.errorName(-i);
+            out.append("t501_usb_errors_total{error=\"").append(error).append("\"} ")
+                    .append(USB_ERRORS[i].sum()).append('\n');
+        }
+
+        header(out, "t501_uinput_write_failures_total", "Failed writes of virtual devices", "counter");
+        for (int i = 0; i < UINPUT_DEVICES.length; i++) {
+            out.append("t501_uinput_write_failures_total{device=\"").append(UINPUT_DEVICES[i]).append("\"} ")
+                    .append(UINPUT_WRITE_FAILURES[i].sum()).append('\n');
+        }
+
+        counter(out, "t501_device_connects_total", "Tablet connections", DEVICE_CONNECTS);
+        counter(out, "t501_device_reconnects_total", "Connections of tablets to a port they were connected to before",
+                DEVICE_RECONNECTS);
+        counter(out, "t501_device_disconnects_total", "Tablet disconnections", DEVICE_DISCONNECTS);
+        counter(out, "t501_device_resets_total", "USB resets of tablets", DEVICE_RESETS);
+        counter(out, "t501_device_setup_failures_total", "Tablets which could not be opened or set up",
+                DEVICE_SETUP_FAILURES);
+
+        counter(out, "t501_script_presses_total", "Presses of BASH_SCRIPT buttons", SCRIPT_PRESSES);
+        counter(out, "t501_script_presses_dropped_total", "Presses of BASH_SCRIPT buttons ignored by overflow policy",
+                SCRIPT_PRESSES_DROPPED);
+
+        EMISSION_LATENCY.write(out);
+        CONNECT_DURATION.write(out);
+
+        for (Gauge gauge : GAUGES) {
+            header(out, gauge.name(), gauge.help(), "gauge");
+            out.append(gauge.name()).append(' ').append(gauge.value().getAsLong()).append('\n');
+        }
+    }
+
+    private static void counter(StringBuilder out, String name, String help, LongAdder value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value.sum()).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private record Gauge(String name, String help, LongSupplier value) {}
+}
@@ -0,0 +1,40 @@
+package ru.aloyenz.t501.driver.profiling;
+
+import jdk.jfr.*;
+
+/**
+ * Decoding of a stylus report.
+ */
+@Name("ru.aloyenz.t501.Decode")
+@Label("Decode")
+@Category({"T501 Driver", "Input"})
+@StackTrace(false)
+public class DecodeEvent extends Event {
+
+    private static final DecodeEvent DISABLED = new DecodeEvent();
+
+    @Label("Device")
+    String deviceId;
+
+    @Label("Sequence")
+    long sequence;
+
+    /** Begins the event, or returns a shared no-op instance if nothing is recording */
+    public static DecodeEvent start() {
+        if (!Profiler.isRecording()) {
+            return DISABLED;
+        }
+
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        return event;
+    }
+
+    public void commit(String deviceId, long sequence) {
+        if (this != DISABLED && shouldCommit()) {
+            this.deviceId = deviceId;
+            this.sequence = sequence;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package ru.aloyenz.t501.driver.profiling;
+
+import jdk.jfr.*;
+
+/**
+ * Mapping of tablet button states to key events.
+ */
+@Name("ru.aloyenz.t501.KeyMapping")
+@Label("Key Mapping")
+@Category({"T501 Driver", "Processing"})
+@StackTrace(false)
+public class KeyMappingEvent extends Event {
+
+    private static final KeyMappingEvent DISABLED = new KeyMappingEvent();
+
+    @Label("Device")
+    String deviceId;
+
+    @Label("Sequence")
+    long sequence;
+
+    @Label("Key Events")
+    int keyEvents;
+
+    /** Begins the event, or returns a shared no-op instance if nothing is recording */
+    public static KeyMappingEvent start() {
+        if (!Profiler.isRecording()) {
+            return DISABLED;
+        }
+
+        KeyMappingEvent event = new KeyMappingEvent();
+        event.begin();
+        return event;
+    }
+
+    public void commit(String deviceId, long sequence, int keyEvents) {
+        if (this != DISABLED && shouldCommit()) {
+            this.deviceId = deviceId;
+            this.sequence = sequence;
+            this.keyEvents = keyEvents;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ru.aloyenz.t501.driver.profiling;
+
+import jdk.jfr.*;
+
+/**
+ * Write to a virtual device.
+ */
+@Name("ru.aloyenz.t501.Output")
+@Label("Virtual Device Write")
+@Category({"T501 Driver", "Output"})
+@StackTrace(false)
+public class OutputEvent extends Event {
+
+    public static final String PEN_FRAME = "pen frame";
+    public static final String PEN_LEAVE = "pen leave";
+    public static final String KEYBOARD = "keyboard";
+    public static final String MOUSE = "mouse";
+
+    /** Device id of mouse writes, which are merged from all tablets */
+    public static final String MOUSE_SCHEDULER = "mouse scheduler";
+
+    private static final OutputEvent DISABLED = new OutputEvent();
+
+    @Label("Device")
+    String deviceId;
+
+    @Label("Sequence")
+    long sequence;
+
+    @Label("Output")
+    String output;
+
+    @Label("Events")
+    int events;
+
+    /** Begins the event, or returns a shared no-op instance if nothing is recording */
+    public static OutputEvent start() {
+        if (!Profiler.isRecording()) {
+            return DISABLED;
+        }
+
+        OutputEvent event = new OutputEvent();
+        event.begin();
+        return event;
+    }
+
+    public void commit(String deviceId, long sequence, String output, int events) {
+        if (this != DISABLED && shouldCommit()) {
+            this.deviceId = deviceId;
+            this.sequence = sequence;
+            this.output = output;
+            this.events = events;
+            commit();
+        }
+    }
+}
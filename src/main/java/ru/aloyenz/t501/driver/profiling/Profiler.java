@@ -0,0 +1,103 @@
+package ru.aloyenz.t501.driver.profiling;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+/**
+ * JFR recording started by --profile. Driver events are always compiled in:
+ * while nothing is recording (neither this one nor started with jcmd), they cost a single volatile read.
+ */
+public class Profiler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Profiler.class);
+
+    private static volatile boolean recordingRunning = false;
+
+    static {
+        // Doesn't initialize JFR by itself. State changes are reported only for new recordings,
+        // so running ones (-XX:StartFlightRecording, jcmd before the first report) are checked on initialization,
+        // which is reported right away if JFR is already initialized
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                update(recorder);
+            }
+
+            @Override
+            public void recordingStateChanged(Recording changed) {
+                update(FlightRecorder.getFlightRecorder());
+            }
+        });
+    }
+
+    private static void update(FlightRecorder recorder) {
+        recordingRunning = recorder.getRecordings().stream()
+                .anyMatch(r -> r.getState() == RecordingState.RUNNING);
+    }
+
+    private static Recording recording;
+    private static Path destination;
+
+    /**
+     * Starts recording with the JDK "profile" settings plus all driver events.
+     * Recording is written to the file when it's finished, or on {@link #stop()}.
+     */
+    public static synchronized void start(int seconds, Path file) throws IOException {
+        Configuration settings;
+        try {
+            settings = Configuration.getConfiguration("profile");
+        } catch (ParseException e) {
+            throw new IOException("Failed to read JFR profile settings: " + e.getMessage(), e);
+        }
+
+        recording = new Recording(settings);
+        recording.setName("T501 Driver");
+        recording.enable(TransferEvent.class);
+        recording.enable(DecodeEvent.class);
+        recording.enable(KeyMappingEvent.class);
+        recording.enable(OutputEvent.class);
+        recording.enable(SpecialActionEvent.class);
+        recording.setToDisk(true);
+        recording.setDuration(Duration.ofSeconds(seconds));
+        recording.setDestination(file);
+        recording.start();
+
+        destination = file;
+        LOGGER.info("Profiling for {} seconds, recording will be written to {}", seconds, file.toAbsolutePath());
+    }
+
+    /**
+     * True if any JFR recording is running, so driver events should be created.
+     * Otherwise events return their shared disabled instance, so nothing is allocated per report.
+     */
+    public static boolean isRecording() {
+        return recordingRunning;
+    }
+
+    /** Finishes the recording if it's still running */
+    public static synchronized void stop() {
+        if (recording == null) {
+            return;
+        }
+
+        try {
+            recording.stop();
+        } catch (IllegalStateException ignored) {
+            // Duration is over, recording is already written
+        }
+        recording.close();
+        recording = null;
+
+        LOGGER.info("Profile recording written to {}", destination.toAbsolutePath());
+    }
+}
@@ -0,0 +1,48 @@
+package ru.aloyenz.t501.driver.profiling;
+
+import jdk.jfr.*;
+
+/**
+ * Dispatch of a special button action. Scripts are only started here, so their run time is not included.
+ */
+@Name("ru.aloyenz.t501.SpecialAction")
+@Label("Special Action")
+@Category({"T501 Driver", "Processing"})
+@StackTrace(false)
+public class SpecialActionEvent extends Event {
+
+    private static final SpecialActionEvent DISABLED = new SpecialActionEvent();
+
+    @Label("Device")
+    String deviceId;
+
+    @Label("Sequence")
+    long sequence;
+
+    @Label("Button")
+    int button;
+
+    @Label("Action")
+    String action;
+
+    /** Begins the event, or returns a shared no-op instance if nothing is recording */
+    public static SpecialActionEvent start() {
+        if (!Profiler.isRecording()) {
+            return DISABLED;
+        }
+
+        SpecialActionEvent event = new SpecialActionEvent();
+        event.begin();
+        return event;
+    }
+
+    public void commit(String deviceId, long sequence, int button, String action) {
+        if (this != DISABLED && shouldCommit()) {
+            this.deviceId = deviceId;
+            this.sequence = sequence;
+            this.button = button;
+            this.action = action;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ru.aloyenz.t501.driver.profiling;
+
+import jdk.jfr.*;
+
+/**
+ * USB interrupt transfer of a single report. In blocking mode the duration is the whole transfer call,
+ * in async mode the event only marks completion time.
+ */
+@Name("ru.aloyenz.t501.Transfer")
+@Label("Transfer")
+@Category({"T501 Driver", "Input"})
+@StackTrace(false)
+public class TransferEvent extends Event {
+
+    private static final TransferEvent DISABLED = new TransferEvent();
+
+    @Label("Device")
+    String deviceId;
+
+    @Label("Sequence")
+    long sequence;
+
+    @Label("Length")
+    @DataAmount
+    int length;
+
+    /** Begins the event, or returns a shared no-op instance if nothing is recording */
+    public static TransferEvent start() {
+        if (!Profiler.isRecording()) {
+            return DISABLED;
+        }
+
+        TransferEvent event = new TransferEvent();
+        event.begin();
+        return event;
+    }
+
+    public void commit(String deviceId, long sequence, int length) {
+        if (this != DISABLED && shouldCommit()) {
+            this.deviceId = deviceId;
+            this.sequence = sequence;
+            this.length = length;
+            commit();
+        }
+    }
+}
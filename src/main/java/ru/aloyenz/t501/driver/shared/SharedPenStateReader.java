@@ -0,0 +1,159 @@
+package ru.aloyenz.t501.driver.shared;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the pen state a tablet publishes to its shared state file, like {@code /dev/shm/t501_pen_1-2}.
+ * Uses nothing but the JDK, so it can be copied to any tool.
+ * <p>
+ * The file is {@link #SIZE} bytes, little-endian, at the offsets below. It's written with a seqlock:
+ * {@link #VERSION} is odd while the state is being written and grows by 2 with every published report.
+ * A reader copies the fields between two reads of the version and retries if they differ,
+ * so the driver never waits for readers.
+ */
+public class SharedPenStateReader {
+
+    public static final int MAGIC = 0x31303554; // "T501"
+    public static final int LAYOUT = 1;
+    public static final int SIZE = 64;
+
+    // Offsets of the fields
+    public static final int MAGIC_OFFSET = 0;
+    public static final int LAYOUT_OFFSET = 4;
+    /** long, seqlock version, 0 - nothing published yet */
+    public static final int VERSION = 8;
+    /** long, number of the report from its tablet */
+    public static final int SEQUENCE = 16;
+    /** long, CLOCK_MONOTONIC nanoseconds ({@link System#nanoTime()}) when the report was received */
+    public static final int NANOS = 24;
+    /** int, position as decoded from the report, before smoothing and prediction */
+    public static final int X = 32;
+    public static final int Y = 36;
+    /** int, pressure as reported by the tablet */
+    public static final int RAW_PRESSURE = 40;
+    /** int, 0 ~ 1024 after the pressure curve, before smoothing */
+    public static final int PRESSURE = 44;
+    /** int, degrees: -90 ~ 90, before smoothing */
+    public static final int TILT_X = 48;
+    public static final int TILT_Y = 52;
+    /** int, bits below */
+    public static final int FLAGS = 56;
+    /** int, bit mask of pressed tablet buttons, 1 = pressed */
+    public static final int TABLET_BUTTONS = 60;
+
+    // Bits of FLAGS
+    public static final int HOVERING = 1;
+    public static final int TOUCHING = 1 << 1;
+    public static final int BUTTON_PLUS = 1 << 2;
+    public static final int BUTTON_MINUS = 1 << 3;
+    public static final int ON_SPECIAL_BUTTON = 1 << 4;
+    /** Cleared when the tablet is disconnected, the rest of the state is the last one */
+    public static final int CONNECTED = 1 << 5;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer buffer;
+
+    public SharedPenStateReader(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Maps the shared state file of a tablet.
+     *
+     * @throws IOException if the file can't be mapped or it's not a shared pen state
+     */
+    public static SharedPenStateReader open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < SIZE) {
+                throw new IOException("Not a shared pen state: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(LAYOUT_OFFSET) != LAYOUT) {
+            throw new IOException("Unsupported shared pen state: " + path);
+        }
+
+        return new SharedPenStateReader(buffer);
+    }
+
+    /**
+     * Version of the latest published state. Cheap check whether anything changed since the last {@link #read}.
+     */
+    public long version() {
+        return (long) LONGS.getAcquire(buffer, VERSION) & ~1L;
+    }
+
+    /**
+     * Copies the latest published state. Spins only while the driver is writing it, which is a few nanoseconds.
+     *
+     * @return null if nothing is published yet
+     */
+    public State read() {
+        while (true) {
+            long version = (long) LONGS.getAcquire(buffer, VERSION);
+            if (version == 0) {
+                return null;
+            }
+            if ((version & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            State state = new State(version,
+                    buffer.getLong(SEQUENCE), buffer.getLong(NANOS),
+                    buffer.getInt(X), buffer.getInt(Y),
+                    buffer.getInt(RAW_PRESSURE), buffer.getInt(PRESSURE),
+                    buffer.getInt(TILT_X), buffer.getInt(TILT_Y),
+                    buffer.getInt(FLAGS), buffer.getInt(TABLET_BUTTONS));
+
+            // Fields must be read before the version is checked again
+            VarHandle.loadLoadFence();
+            if ((long) LONGS.getOpaque(buffer, VERSION) == version) {
+                return state;
+            }
+        }
+    }
+
+    /**
+     * Pen state of a single report.
+     */
+    public record State(long version, long sequence, long nanos, int x, int y, int rawPressure, int pressure,
+                        int tiltX, int tiltY, int flags, int tabletButtons) {
+
+        public boolean hovering() {
+            return (flags & HOVERING) != 0;
+        }
+
+        public boolean touching() {
+            return (flags & TOUCHING) != 0;
+        }
+
+        public boolean buttonPlusPressed() {
+            return (flags & BUTTON_PLUS) != 0;
+        }
+
+        public boolean buttonMinusPressed() {
+            return (flags & BUTTON_MINUS) != 0;
+        }
+
+        public boolean onSpecialButton() {
+            return (flags & ON_SPECIAL_BUTTON) != 0;
+        }
+
+        public boolean connected() {
+            return (flags & CONNECTED) != 0;
+        }
+    }
+}
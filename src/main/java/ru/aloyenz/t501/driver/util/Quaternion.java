@@ -1,4 +0,0 @@
-package ru.aloyenz.t501.driver.util;
-
-public record Quaternion<F, S, T, FO>(F first, S second, T third, FO fourth) {
-}
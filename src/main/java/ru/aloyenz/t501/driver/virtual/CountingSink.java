@@ -0,0 +1,69 @@
+package ru.aloyenz.t501.driver.virtual;
+
+/**
+ * Sink which only counts calls and events, for measuring the pipeline without kernel writes.
+ * <p>
+ * Counters are plain fields: they are exact if every kind of output is written by a single thread
+ * (one tablet, mouse events from the mouse scheduler), and must be read after writers are stopped.
+ */
+public class CountingSink implements InputSink {
+
+    private long penFrames = 0;
+    private long penLeaves = 0;
+    private long keyboardBatches = 0;
+    private long keyboardKeys = 0;
+    private long mouseBatches = 0;
+    private long mouseEvents = 0;
+
+    @Override
+    public void penFrame(int x, int y, int pressure, boolean touch, int tiltX, int tiltY,
+                         boolean stylusPlusPressed, boolean stylusMinusPressed) {
+        penFrames++;
+    }
+
+    @Override
+    public void penLeave() {
+        penLeaves++;
+    }
+
+    @Override
+    public void keyboardKeys(int[] keyCodes, boolean[] pressed, int count) {
+        keyboardBatches++;
+        keyboardKeys += count;
+    }
+
+    @Override
+    public void mouseEvents(int[] codes, boolean[] isRel, int[] values, int count) {
+        mouseBatches++;
+        mouseEvents += count;
+    }
+
+    public long penFrames() {
+        return penFrames;
+    }
+
+    public long penLeaves() {
+        return penLeaves;
+    }
+
+    public long keyboardBatches() {
+        return keyboardBatches;
+    }
+
+    public long keyboardKeys() {
+        return keyboardKeys;
+    }
+
+    public long mouseBatches() {
+        return mouseBatches;
+    }
+
+    public long mouseEvents() {
+        return mouseEvents;
+    }
+
+    /** All calls of the sink */
+    public long total() {
+        return penFrames + penLeaves + keyboardBatches + mouseBatches;
+    }
+}
@@ -0,0 +1,23 @@
+package ru.aloyenz.t501.driver.virtual;
+
+/**
+ * Destination of everything the driver emits: pen frames, keyboard key batches and mouse event batches.
+ * Arrays passed to the sink are reused by callers, so implementations must not keep them.
+ */
+public interface InputSink {
+
+    void penFrame(int x, int y, int pressure, boolean touch, int tiltX, int tiltY,
+                  boolean stylusPlusPressed, boolean stylusMinusPressed);
+
+    /** Stylus left the hover range */
+    void penLeave();
+
+    /** Writes first {@code count} key events */
+    void keyboardKeys(int[] keyCodes, boolean[] pressed, int count);
+
+    /** Writes first {@code count} mouse button or REL_ events */
+    void mouseEvents(int[] codes, boolean[] isRel, int[] values, int count);
+
+    /** Removes virtual devices of the sink. Nothing is written after it */
+    default void close() {}
+}
@@ -7,94 +7,205 @@ import ru.aloyenz.t501.driver.DriverMain;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
 
+/**
+ * Extracts native libraries of virtual devices from the jar.
+ * <p>
+ * Sizes and hashes of the bundled libraries are precomputed by the build ({@code natives.properties}).
+ * Size, modification time and hash of every extracted library are written to a stamp file next to it,
+ * so on a regular start nothing is hashed: libraries are checked with a single stat call.
+ * Libraries not matching the stamp are rehashed and, if they differ, replaced atomically.
+ */
 public class NativesExtractor {
 
     private static final Logger logger = LoggerFactory.getLogger(NativesExtractor.class);
 
+    private static final String RESOURCE_PREFIX = "native-build/ru/aloyenz/t501/driver/virtual/";
+    // Generated by the generateNativesManifest Gradle task
+    private static final String MANIFEST = RESOURCE_PREFIX + "natives.properties";
+    private static final String STAMP = "natives.stamp";
+
+    private static final List<String> LIBRARIES = List.of("libvpen", "libvmouse", "libvkeyboard");
+
     public static void extract() throws IOException {
-        replaceLibIfNeeded("libvpen");
-        replaceLibIfNeeded("libvmouse");
-        replaceLibIfNeeded("libvkeyboard");
+        extract(DriverMain.getNativePathPrefix());
     }
 
-    private static void replaceLibIfNeeded(String libName) throws IOException {
-        String resourcePath = getResourceLibPath(libName);
+    /**
+     * Extracts libraries missing or outdated in the directory.
+     *
+     * @param outputPrefix path prefix of extracted libraries, like the one of {@link DriverMain#getNativePathPrefix()}
+     */
+    public static void extract(String outputPrefix) throws IOException {
+        Properties manifest = loadManifest();
+        Properties stamp = loadProperties(Path.of(outputPrefix + STAMP));
 
-        String resourceHash = getResourceFileHash(resourcePath);
-        String outputHash;
-        try {
-            outputHash = getOutputLibHash(libName);
-        } catch (RuntimeException e) {
-            // File not found or error reading, extract the library
-            logger.warn("Native library '{}' is missing. Extracting it.", libName);
-            extractLibrary(libName);
+        // Not Properties.store: its date comment loads time zone data, which is slower than the check itself
+        StringBuilder newStamp = new StringBuilder("# Extracted native libraries\n");
+        List<String> unchecked = new ArrayList<>();
+        for (String libName : LIBRARIES) {
+            FileStamp expected = FileStamp.of(manifest, libName);
+            FileStamp stamped = FileStamp.of(stamp, libName);
+
+            if (expected.matches(stamped) && stamped.isStampOf(getOutputLibPath(outputPrefix, libName))) {
+                stamped.append(newStamp, libName);
+            } else {
+                unchecked.add(libName);
+            }
+        }
+
+        if (unchecked.isEmpty()) {
             return;
         }
 
-        if (!resourceHash.equals(outputHash)) {
-            // Replacing
-            logger.warn("Native library '{}' is outdated or missing. Replacing it.", libName);
-            extractLibrary(libName);
+        // Hashing and extracting in parallel, every library is a separate file
+        Extraction[] extractions = new Extraction[unchecked.size()];
+        for (int i = 0; i < extractions.length; i++) {
+            String libName = unchecked.get(i);
+            extractions[i] = new Extraction(libName, FileStamp.of(manifest, libName),
+                    getOutputLibPath(outputPrefix, libName));
+            extractions[i].start();
+        }
+
+        for (Extraction extraction : extractions) {
+            try {
+                extraction.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while extracting native libraries", e);
+            }
+
+            if (extraction.failure != null) {
+                throw extraction.failure;
+            }
+            extraction.result.append(newStamp, extraction.libName);
+        }
+
+        Path stampPath = Path.of(outputPrefix + STAMP);
+        Path temp = temporaryFor(stampPath);
+        try {
+            Files.writeString(temp, newStamp, StandardCharsets.ISO_8859_1, StandardOpenOption.CREATE_NEW);
+            Files.move(temp, stampPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
         }
     }
 
+    private static FileStamp replaceLibIfNeeded(String libName, FileStamp expected, Path output) throws IOException {
+        // Outdated stamp does not mean the library is outdated, for example after copying the directory
+        if (Files.isRegularFile(output) && Files.size(output) == expected.size()) {
+            FileStamp actual;
+            try (InputStream in = Files.newInputStream(output)) {
+                actual = copy(in, null);
+            }
+
+            if (expected.matches(actual)) {
+                return FileStamp.ofFile(output, actual.sha256());
+            }
+        }
+
+        // Replacing
+        logger.warn("Native library '{}' is outdated or missing. Replacing it.", libName);
+        extractLibrary(libName, expected, output);
+
+        return FileStamp.ofFile(output, expected.sha256());
+    }
+
     private static String getResourceLibPath(String libName) {
-        return "native-build/ru/aloyenz/t501/driver/virtual/" + libName + ".so";
+        return RESOURCE_PREFIX + libName + ".so";
     }
 
-    private static String getOutputLibPath(String libName) {
-        return DriverMain.getNativePathPrefix() + libName + ".so";
+    private static Path getOutputLibPath(String outputPrefix, String libName) {
+        return Path.of(outputPrefix + libName + ".so");
     }
 
-    private static String getOutputLibHash(String libName) {
-        String outputPath = getOutputLibPath(libName);
+    private static Properties loadManifest() throws IOException {
+        Properties manifest = new Properties();
+        try (InputStream in = NativesExtractor.class.getClassLoader().getResourceAsStream(MANIFEST)) {
+            if (in != null) {
+                manifest.load(in);
+                return manifest;
+            }
+        }
+
+        // For example, resources were built without the Gradle task
+        logger.warn("Native libraries manifest is not found. Hashing bundled libraries.");
+        for (String libName : LIBRARIES) {
+            getResourceFileHash(getResourceLibPath(libName)).store(manifest, libName);
+        }
 
-        try (InputStream in = Files.newInputStream(Paths.get(outputPath))) {
-            // Calculate hash
-            return calculateHash(in);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to calculate hash for output file: " + outputPath, e);
+        return manifest;
+    }
+
+    private static Properties loadProperties(Path path) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        } catch (NoSuchFileException ignored) {
+            // Nothing is extracted yet
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Failed to read {}: {}. Checking all native libraries.", path, e.getMessage());
         }
+
+        return properties;
     }
 
-    private static String getResourceFileHash(String path) {
+    private static FileStamp getResourceFileHash(String path) {
         try (InputStream in = NativesExtractor.class.getClassLoader().getResourceAsStream(path)) {
             if (in == null) {
                 throw new FileNotFoundException("Resource not found: " + path);
             }
 
             // Calculate hash
-            return calculateHash(in);
+            return copy(in, null);
         } catch (Exception e) {
             throw new RuntimeException("Failed to calculate hash for resource: " + path, e);
         }
     }
 
-    private static String calculateHash(InputStream in) throws IOException, NoSuchAlgorithmException {
-        MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+    /**
+     * Calculates size and hash of the stream, copying it to the output stream if it's not null.
+     */
+    private static FileStamp copy(InputStream in, OutputStream out) throws IOException {
+        MessageDigest digest = newDigest();
         byte[] buffer = new byte[8192];
+        long size = 0;
         int bytesRead;
         while ((bytesRead = in.read(buffer)) != -1) {
             digest.update(buffer, 0, bytesRead);
+            if (out != null) {
+                out.write(buffer, 0, bytesRead);
+            }
+            size += bytesRead;
         }
-        byte[] hashBytes = digest.digest();
 
-        // Convert to hex string
-        StringBuilder sb = new StringBuilder();
-        for (byte b : hashBytes) {
-            sb.append(String.format("%02x", b));
+        return new FileStamp(size, 0, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
         }
-        return sb.toString();
     }
 
-    private static void extractLibrary(String libName) throws IOException {
+    private static void extractLibrary(String libName, FileStamp expected, Path output) throws IOException {
         String resourcesPath = getResourceLibPath(libName);
-        String outputPath = getOutputLibPath(libName);
 
         // Reading the library from resources
         try (InputStream in = NativesExtractor.class.getClassLoader().getResourceAsStream(resourcesPath)) {
@@ -102,8 +213,110 @@ public class NativesExtractor {
                 throw new FileNotFoundException("Resource not found: " + resourcesPath);
             }
 
-            // Writing all bytes to the output file
-            Files.copy(in, java.nio.file.Paths.get(outputPath), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            Path temp = temporaryFor(output);
+            try {
+                FileStamp written;
+                try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW)) {
+                    written = copy(in, out);
+                }
+
+                if (!expected.matches(written)) {
+                    throw new IOException("Native library '" + libName + "' in the jar doesn't match its manifest");
+                }
+
+                Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Temporary file next to the target. It's renamed over the target when written,
+     * so the target is never partially written, and a library loaded by a running driver keeps its old version.
+     */
+    private static Path temporaryFor(Path target) {
+        // Not Files.createTempFile: initializing its random generator costs more than the extraction
+        return target.resolveSibling(target.getFileName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+    }
+
+    private static final class Extraction extends Thread {
+
+        private final String libName;
+        private final FileStamp expected;
+        private final Path output;
+
+        // Read after join
+        private FileStamp result;
+        private IOException failure;
+
+        private Extraction(String libName, FileStamp expected, Path output) {
+            super("T501 natives extractor " + libName);
+            this.libName = libName;
+            this.expected = expected;
+            this.output = output;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result = replaceLibIfNeeded(libName, expected, output);
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException("Failed to extract native library '" + libName + "': " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Size, modification time (millis, 0 if unknown) and SHA-256 of a library.
+     */
+    private record FileStamp(long size, long modified, String sha256) {
+
+        static FileStamp of(Properties properties, String libName) {
+            try {
+                return new FileStamp(
+                        Long.parseLong(properties.getProperty(libName + ".size", "-1")),
+                        Long.parseLong(properties.getProperty(libName + ".modified", "0")),
+                        properties.getProperty(libName + ".sha256", ""));
+            } catch (NumberFormatException e) {
+                return new FileStamp(-1, 0, "");
+            }
+        }
+
+        static FileStamp ofFile(Path path, String sha256) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis(), sha256);
+        }
+
+        /** True if both describe the same content */
+        boolean matches(FileStamp other) {
+            return size >= 0 && !sha256.isEmpty() && size == other.size && sha256.equals(other.sha256);
+        }
+
+        /** True if the file was not changed since it was stamped */
+        boolean isStampOf(Path path) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return attributes.isRegularFile() && attributes.size() == size
+                        && attributes.lastModifiedTime().toMillis() == modified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void store(Properties properties, String libName) {
+            properties.setProperty(libName + ".size", Long.toString(size));
+            properties.setProperty(libName + ".modified", Long.toString(modified));
+            properties.setProperty(libName + ".sha256", sha256);
+        }
+
+        /** Appends the stamp in the format of properties */
+        void append(StringBuilder properties, String libName) {
+            properties.append(libName).append(".size=").append(size).append('\n');
+            properties.append(libName).append(".modified=").append(modified).append('\n');
+            properties.append(libName).append(".sha256=").append(sha256).append('\n');
         }
     }
 }
@@ -0,0 +1,72 @@
+package ru.aloyenz.t501.driver.virtual;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sink which keeps every call with copies of its arguments, so tests can assert the exact output.
+ * May be used from several threads.
+ */
+public class RecordingSink implements InputSink {
+
+    public sealed interface Output permits PenFrame, PenLeave, KeyBatch, MouseBatch {}
+
+    public record PenFrame(int x, int y, int pressure, boolean touch, int tiltX, int tiltY,
+                           boolean stylusPlusPressed, boolean stylusMinusPressed) implements Output {}
+
+    public record PenLeave() implements Output {}
+
+    public record Key(int keyCode, boolean pressed) {}
+
+    public record KeyBatch(List<Key> keys) implements Output {}
+
+    public record MouseEvent(int code, boolean isRel, int value) {}
+
+    public record MouseBatch(List<MouseEvent> events) implements Output {}
+
+    private final List<Output> outputs = new ArrayList<>();
+
+    @Override
+    public void penFrame(int x, int y, int pressure, boolean touch, int tiltX, int tiltY,
+                         boolean stylusPlusPressed, boolean stylusMinusPressed) {
+        add(new PenFrame(x, y, pressure, touch, tiltX, tiltY, stylusPlusPressed, stylusMinusPressed));
+    }
+
+    @Override
+    public void penLeave() {
+        add(new PenLeave());
+    }
+
+    @Override
+    public void keyboardKeys(int[] keyCodes, boolean[] pressed, int count) {
+        List<Key> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(new Key(keyCodes[i], pressed[i]));
+        }
+
+        add(new KeyBatch(List.copyOf(keys)));
+    }
+
+    @Override
+    public void mouseEvents(int[] codes, boolean[] isRel, int[] values, int count) {
+        List<MouseEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(new MouseEvent(codes[i], isRel[i], values[i]));
+        }
+
+        add(new MouseBatch(List.copyOf(events)));
+    }
+
+    /** Copy of everything written so far, in order */
+    public synchronized List<Output> outputs() {
+        return List.copyOf(outputs);
+    }
+
+    public synchronized void clear() {
+        outputs.clear();
+    }
+
+    private synchronized void add(Output output) {
+        outputs.add(output);
+    }
+}
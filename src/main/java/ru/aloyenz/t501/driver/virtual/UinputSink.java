@@ -0,0 +1,118 @@
+package ru.aloyenz.t501.driver.virtual;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aloyenz.t501.driver.metrics.Metrics;
+
+/**
+ * Writes to the virtual uinput pen, keyboard and mouse of a single tablet.
+ * <p>
+ * Pen is written by the thread emitting samples of the tablet and mouse by its mouse scheduler,
+ * but every device is still written under its own lock: keyboard may be replaced meanwhile,
+ * and the tablet may be disconnected while its last transfer completes.
+ * Failed writes are counted by {@link Metrics}.
+ */
+public class UinputSink implements InputSink {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UinputSink.class);
+
+    private final Object penLock = new Object();
+    private final Object keyboardLock = new Object();
+    private final Object mouseLock = new Object();
+
+    private final long penHandle;
+    private long keyboardHandle;
+    private final long mouseHandle;
+
+    private boolean closed = false;
+    // Only the first failed write is logged, the next ones are just counted
+    private volatile boolean failureReported = false;
+
+    /**
+     * @param penHandle handle returned by {@link VPen#initialize}
+     * @param keyboardHandle handle returned by {@link VKeyboard#initialize}
+     * @param mouseHandle handle returned by {@link VMouse#initialize}
+     */
+    public UinputSink(long penHandle, long keyboardHandle, long mouseHandle) {
+        this.penHandle = penHandle;
+        this.keyboardHandle = keyboardHandle;
+        this.mouseHandle = mouseHandle;
+    }
+
+    @Override
+    public void penFrame(int x, int y, int pressure, boolean touch, int tiltX, int tiltY,
+                         boolean stylusPlusPressed, boolean stylusMinusPressed) {
+        synchronized (penLock) {
+            if (!closed) {
+                check(VPen.writeFrame(penHandle, x, y, pressure, touch, tiltX, tiltY,
+                        stylusPlusPressed, stylusMinusPressed), Metrics.PEN);
+            }
+        }
+    }
+
+    @Override
+    public void penLeave() {
+        synchronized (penLock) {
+            if (!closed) {
+                check(VPen.penLeave(penHandle), Metrics.PEN);
+            }
+        }
+    }
+
+    @Override
+    public void keyboardKeys(int[] keyCodes, boolean[] pressed, int count) {
+        synchronized (keyboardLock) {
+            if (!closed) {
+                check(VKeyboard.keyboardKeyEvent(keyboardHandle, keyCodes, pressed, count), Metrics.KEYBOARD);
+            }
+        }
+    }
+
+    /**
+     * Replaces the virtual keyboard with a new one, for example with more keys.
+     * Keyboard events wait for it, and the old keyboard is removed.
+     */
+    public void replaceKeyboard(long handle) {
+        synchronized (keyboardLock) {
+            VKeyboard.shutdown(keyboardHandle);
+            keyboardHandle = handle;
+        }
+    }
+
+    @Override
+    public void mouseEvents(int[] codes, boolean[] isRel, int[] values, int count) {
+        synchronized (mouseLock) {
+            if (!closed) {
+                check(VMouse.mouseEvent(mouseHandle, codes, isRel, values, count), Metrics.MOUSE);
+            }
+        }
+    }
+
+    private void check(int result, int device) {
+        if (result < 0) {
+            Metrics.uinputWriteFailed(device);
+            if (!failureReported) {
+                failureReported = true;
+                LOGGER.warn("Failed to write to a virtual device: {}. Next failures are only counted", result);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (penLock) {
+            synchronized (keyboardLock) {
+                synchronized (mouseLock) {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+
+                    VPen.shutdown(penHandle);
+                    VKeyboard.shutdown(keyboardHandle);
+                    VMouse.shutdown(mouseHandle);
+                }
+            }
+        }
+    }
+}
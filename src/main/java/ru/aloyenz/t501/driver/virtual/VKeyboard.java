@@ -8,7 +8,10 @@ public class VKeyboard {
 
     public static native long initialize(String keyboardName, int[] keycodes);
 
-    public static native int keyboardKeyEvent(long descriptor, int[] keyCodes, boolean[] pressed);
+    /**
+     * Writes first {@code count} key events of the arrays, so callers can reuse bigger arrays.
+     */
+    public static native int keyboardKeyEvent(long descriptor, int[] keyCodes, boolean[] pressed, int count);
 
     public static native void shutdown(long handle);
 }
@@ -9,8 +9,12 @@ public class VMouse {
 
     public static native long initialize(String mouseName);
 
+    /**
+     * Writes first {@code count} events of the arrays and a single SYN_REPORT,
+     * so callers can reuse bigger arrays.
+     */
     public static native int mouseEvent(long descriptor,
-                                        int[] codes, boolean[] isRel, int[] values);
+                                        int[] codes, boolean[] isRel, int[] values, int count);
 
     public static native void shutdown(long handle);
 }
@@ -14,6 +14,16 @@ public class VPen {
                                            int tiltX, int tiltY,
                                            boolean stylusPlusPressed, boolean stylusMinusPressed);
 
+    /**
+     * Same as {@link #writePosition}, but writes the whole frame with a single syscall
+     * and sends only values changed since the previous frame of this device.
+     */
+    public static native int writeFrame(long descriptor,
+                                        int x, int y,
+                                        int pressure, boolean touch,
+                                        int tiltX, int tiltY,
+                                        boolean stylusPlusPressed, boolean stylusMinusPressed);
+
     //public static native int buttonEvent(long descriptor, int buttonCode, boolean pressed);
 
     public static native int penLeave(long descriptor);
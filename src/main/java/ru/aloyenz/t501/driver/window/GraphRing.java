@@ -0,0 +1,90 @@
+package ru.aloyenz.t501.driver.window;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free ring of samples for {@link RealTimeGraph}: every sample is a row of {@code long} values, one per channel.
+ * <p>
+ * Any thread may write without locks and allocations: {@link #claim()} a sample, {@link #put} its values
+ * and {@link #publish} it. Writers never wait for the reader, the oldest samples are overwritten instead.
+ * Every slot has a stamp, so the reader can tell published samples from unfinished and overwritten ones.
+ */
+public final class GraphRing {
+
+    /** Results of {@link #read} */
+    public static final int READ = 0;
+    public static final int PENDING = 1;
+    public static final int LOST = 2;
+
+    private final int channels;
+    private final int mask;
+    private final long[] values;
+    // Position + 1 of the sample published in the slot, negative while it's written
+    private final AtomicLongArray stamps;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * @param capacity count of kept samples, rounded up to a power of two
+     */
+    public GraphRing(int capacity, int channels) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+        this.channels = channels;
+        this.mask = size - 1;
+        this.values = new long[size * channels];
+        this.stamps = new AtomicLongArray(size);
+    }
+
+    /** Reserves the next sample. Its values must be put and the sample published by the same thread */
+    public long claim() {
+        long position = next.getAndIncrement();
+        stamps.set((int) (position & mask), -(position + 1));
+        // The reader must see the slot as unfinished before its values change
+        VarHandle.storeStoreFence();
+        return position;
+    }
+
+    public void put(long position, int channel, long value) {
+        values[(int) (position & mask) * channels + channel] = value;
+    }
+
+    /** Makes the sample visible to the reader */
+    public void publish(long position) {
+        stamps.setRelease((int) (position & mask), position + 1);
+    }
+
+    /** Position after the last claimed sample */
+    public long end() {
+        return next.get();
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    /**
+     * Copies values of the sample to the array.
+     *
+     * @return {@link #READ} if the sample is copied, {@link #PENDING} if it's not published yet,
+     * {@link #LOST} if it's overwritten by newer samples
+     */
+    public int read(long position, long[] out) {
+        int slot = (int) (position & mask);
+        long stamp = stamps.getAcquire(slot);
+        if (stamp != position + 1) {
+            return Math.abs(stamp) > position + 1 ? LOST : PENDING;
+        }
+
+        System.arraycopy(values, slot * channels, out, 0, channels);
+
+        // Values must be read before the stamp is checked again
+        VarHandle.acquireFence();
+        return stamps.get(slot) == stamp ? READ : LOST;
+    }
+}
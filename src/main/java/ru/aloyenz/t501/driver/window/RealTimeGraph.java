@@ -2,41 +2,135 @@ package ru.aloyenz.t501.driver.window;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
+/**
+ * Live diagnostics view of pen samples: pressure, position, tilt, time between samples and emission latency.
+ * <p>
+ * Samples come from a {@link GraphRing}, which is drained by a Swing timer. Only the last {@link #HISTORY}
+ * samples are kept, in a primitive array. Every pane is decimated to its pixel width keeping the min and max
+ * of every column, so short spikes stay visible, and fixed ranges aside, it's scaled to the visible samples.
+ * Nothing is repainted while no samples come.
+ */
 public class RealTimeGraph extends JPanel {
 
-    private final LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
-    private final int MAX_POINTS = 200;
-    private final java.util.List<Integer> points = new java.util.ArrayList<>();
+    /** Channels of the samples */
+    public static final int PRESSURE = 0;
+    public static final int X = 1;
+    public static final int Y = 2;
+    public static final int TILT_X = 3;
+    public static final int TILT_Y = 4;
+    /** Time between received reports of consecutive written samples, µs */
+    public static final int INTERVAL = 5;
+    /** Time from receiving the report to writing its sample, µs */
+    public static final int LATENCY = 6;
+    public static final int CHANNELS = 7;
 
-    private int currentMax = Integer.MIN_VALUE;
-    private int currentMin = Integer.MAX_VALUE;
+    private static final int HISTORY = 4096;
+    private static final int REFRESH_MS = 50;
 
-    public RealTimeGraph() {
-        new Timer(50, e -> {
-            Integer value;
-            boolean changed = false;
-            while ((value = queue.poll()) != null) {
-                points.add(value);
-                if (points.size() > MAX_POINTS) points.remove(0);
+    private static final Color[] COLORS = {Color.GREEN, new Color(0x4FC3F7), Color.ORANGE};
 
-                if (value > currentMax) {
-                    currentMax = value;
-                    changed = true;
-                }
-                if (value < currentMin) {
-                    currentMin = value;
-                    changed = true;
-                }
+    private final Pane[] panes = {
+            new Pane("Pressure", 0, 1024, PRESSURE),
+            new Pane("X / Y", 0, 4096, X, Y),
+            new Pane("Tilt X / Y", -90, 90, TILT_X, TILT_Y),
+            new Pane("Sample interval, µs", 0, 0, INTERVAL),
+            new Pane("Emission latency, µs", 0, 0, LATENCY)
+    };
+
+    private final GraphRing ring;
+    private final Timer timer;
+    private long position;
+    private long lost = 0;
+
+    // Last samples, oldest first from head
+    private final long[] history = new long[HISTORY * CHANNELS];
+    private final long[] row = new long[CHANNELS];
+    private int head = 0;
+    private int count = 0;
+
+    // Min and max of every pixel column, reused by every pane
+    private int[] columnMin = new int[0];
+    private int[] columnMax = new int[0];
+
+    public RealTimeGraph(GraphRing ring) {
+        this.ring = ring;
+        this.position = ring.end();
+
+        setPreferredSize(new Dimension(900, 150 * panes.length));
+        timer = new Timer(REFRESH_MS, e -> {
+            if (drain()) {
+                repaint();
+            }
+        });
+        timer.start();
+    }
+
+    /**
+     * Opens the graph in a window. Must be called on the event dispatch thread.
+     *
+     * @param onClose called when the window is closed
+     */
+    public static JFrame open(GraphRing ring, Runnable onClose) {
+        RealTimeGraph graph = new RealTimeGraph(ring);
+
+        JFrame frame = new JFrame("T501 diagnostics");
+        frame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        frame.add(graph);
+        frame.pack();
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                graph.timer.stop();
+                onClose.run();
+            }
+        });
+        frame.setVisible(true);
+
+        return frame;
+    }
+
+    // Moves new samples of the ring to the history. Returns true if there are any
+    boolean drain() {
+        long end = ring.end();
+        if (end - position > ring.capacity()) {
+            lost += end - position - ring.capacity();
+            position = end - ring.capacity();
+        }
+
+        boolean added = false;
+        for (; position < end; position++) {
+            int result = ring.read(position, row);
+            if (result == GraphRing.PENDING) {
+                // Still written, taken on the next refresh
+                break;
+            }
+            if (result == GraphRing.LOST) {
+                lost++;
+                continue;
             }
-            if (changed) repaint(); // если изменился масштаб, перерисовываем
-            else if (!points.isEmpty()) repaint();
-        }).start();
+
+            System.arraycopy(row, 0, history, ((head + count) % HISTORY) * CHANNELS, CHANNELS);
+            if (count < HISTORY) {
+                count++;
+            } else {
+                head = (head + 1) % HISTORY;
+            }
+            added = true;
+        }
+
+        return added;
+    }
+
+    // Value of the channel of the index-th oldest kept sample
+    long value(int index, int channel) {
+        return history[((head + index) % HISTORY) * CHANNELS + channel];
     }
 
-    public void addValue(int value) {
-        queue.offer(value);
+    int count() {
+        return count;
     }
 
     @Override
@@ -45,29 +139,112 @@ public class RealTimeGraph extends JPanel {
         g.setColor(Color.BLACK);
         g.fillRect(0, 0, getWidth(), getHeight());
 
-        g.setColor(Color.GREEN);
-        if (points.size() < 2) return;
+        int paneHeight = getHeight() / panes.length;
+        for (int i = 0; i < panes.length; i++) {
+            paint(g, panes[i], i * paneHeight, paneHeight);
+        }
+
+        if (lost > 0) {
+            g.setColor(Color.RED);
+            g.drawString("Samples not drawn: " + lost, getWidth() - 200, 14);
+        }
+    }
 
+    private void paint(Graphics g, Pane pane, int top, int height) {
         int width = getWidth();
-        int height = getHeight();
-        int step = width / MAX_POINTS;
-        if (step < 1) step = 1;
+        if (columnMin.length < width) {
+            columnMin = new int[width];
+            columnMax = new int[width];
+        }
+
+        long min = pane.min();
+        long max = pane.max();
+        if (min == max) {
+            // Scaled to the visible samples, so old spikes don't flatten new ones
+            for (int i = 0; i < count; i++) {
+                max = Math.max(max, value(i, pane.channels()[0]));
+            }
+            max = Math.max(1, max + max / 10);
+        }
+
+        g.setColor(Color.DARK_GRAY);
+        g.drawLine(0, top + height - 1, width, top + height - 1);
+
+        for (int c = 0; c < pane.channels().length && count > 0; c++) {
+            int channel = pane.channels()[c];
+            int columns = decimate(channel, width, min, max, top, height);
+
+            g.setColor(COLORS[c % COLORS.length]);
+            for (int column = 0; column < columns; column++) {
+                // Connected to the previous column, so a steep edge is not drawn as separate dots
+                int from = columnMin[column];
+                int to = columnMax[column];
+                if (column > 0) {
+                    from = Math.min(from, columnMax[column - 1]);
+                    to = Math.max(to, columnMin[column - 1]);
+                }
+                g.drawLine(column, from, column, to);
+            }
+        }
+
+        g.setColor(Color.LIGHT_GRAY);
+        StringBuilder label = new StringBuilder(pane.name()).append(": ");
+        for (int c = 0; c < pane.channels().length; c++) {
+            if (c > 0) {
+                label.append(" / ");
+            }
+            label.append(count > 0 ? value(count - 1, pane.channels()[c]) : "-");
+        }
+        label.append("   (").append(min).append(" ~ ").append(max).append(')');
+        g.drawString(label.toString(), 4, top + 14);
+    }
 
-        for (int i = 1; i < points.size(); i++) {
-            int x1 = (i - 1) * step;
-            int x2 = i * step;
+    /**
+     * Fills min and max screen Y of every column with the samples falling into it.
+     *
+     * @return count of filled columns
+     */
+    private int decimate(int channel, int width, long min, long max, int top, int height) {
+        // Fewer samples than pixels are stretched, more are squeezed
+        int columns = Math.min(width, Math.max(1, count));
+        for (int column = 0; column < columns; column++) {
+            int from = (int) ((long) column * count / columns);
+            int to = Math.max(from + 1, (int) ((long) (column + 1) * count / columns));
 
-            // нормализация по текущему диапазону
-            int y1 = normalize(points.get(i - 1), currentMin, currentMax, height);
-            int y2 = normalize(points.get(i), currentMin, currentMax, height);
+            long low = Long.MAX_VALUE;
+            long high = Long.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                long value = value(i, channel);
+                low = Math.min(low, value);
+                high = Math.max(high, value);
+            }
+
+            // Screen Y grows downwards
+            columnMin[column] = toScreen(high, min, max, top, height);
+            columnMax[column] = toScreen(low, min, max, top, height);
+        }
 
-            g.drawLine(x1, y1, x2, y2);
+        if (columns < width) {
+            // Stretching the columns to the whole width
+            for (int column = width - 1; column >= 0; column--) {
+                int source = (int) ((long) column * columns / width);
+                columnMin[column] = columnMin[source];
+                columnMax[column] = columnMax[source];
+            }
+            columns = width;
         }
+
+        return columns;
     }
 
-    private int normalize(int value, int min, int max, int height) {
-        if (max == min) return height / 2; // чтобы не делить на 0
-        double scaled = (double)(value - min) / (max - min);
-        return height - (int)(scaled * height);
+    private static int toScreen(long value, long min, long max, int top, int height) {
+        double scaled = (double) (Math.max(min, Math.min(max, value)) - min) / (max - min);
+        // Leaving the top line for the label
+        return top + height - 1 - (int) (scaled * (height - 18));
     }
+
+    /**
+     * Channels drawn together. Equal min and max mean the range is taken from the visible samples.
+     */
+    private record Pane(String name, long min, long max, int... channels) {}
 }
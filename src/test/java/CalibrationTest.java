@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.config.CurveType;
+import ru.aloyenz.t501.driver.device.Calibration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CalibrationTest {
+
+    @Test
+    public void testLinearTablesMatchDirectComputation() {
+        Configuration configuration = new Configuration();
+        Calibration calibration = Calibration.build(configuration);
+
+        int min = configuration.fullPressureValue;
+        int max = configuration.hoverAfterRawPressure;
+        for (int raw = 0; raw < 1 << 16; raw++) {
+            int normalized = (int) ((max - raw) * 1024.0 / (max - min));
+            assertEquals(Math.max(0, Math.min(1024, normalized)), calibration.pressure(raw), "Raw pressure " + raw);
+        }
+
+        for (int raw = 0; raw < 1 << 8; raw++) {
+            int degrees = (int) ((raw - 128) * 90.0 / 128.0);
+            assertEquals(Math.max(-90, Math.min(90, degrees)), calibration.tilt((byte) raw), "Raw tilt " + raw);
+        }
+    }
+
+    @Test
+    public void testCurvesKeepEndsAndContact() {
+        Configuration configuration = new Configuration();
+        int min = configuration.fullPressureValue;
+        int max = configuration.hoverAfterRawPressure;
+        int middle = (min + max) / 2;
+
+        for (CurveType type : CurveType.values()) {
+            configuration.pressureCurve.type = type;
+            configuration.pressureCurve.gamma = 2.0;
+            Calibration calibration = Calibration.build(configuration);
+
+            assertEquals(0, calibration.pressure(max), type + " at hover");
+            assertEquals(1, calibration.pressure(max - 1), type + " at the lightest contact");
+            assertEquals(1024, calibration.pressure(min), type + " at full press");
+
+            // Every curve here is softer than linear or linear
+            assertTrue(calibration.pressure(middle) <= 512, type + " at half press");
+
+            for (int raw = min; raw < max; raw++) {
+                assertTrue(calibration.pressure(raw) >= calibration.pressure(raw + 1), type + " is monotonic");
+            }
+        }
+
+        configuration.pressureCurve.type = CurveType.GAMMA;
+        assertEquals(256, Calibration.build(configuration).pressure(middle), 4);
+    }
+
+    @Test
+    public void testInvalidCurveFallsBackToLinear() {
+        Configuration configuration = new Configuration();
+        int linear = Calibration.build(configuration).pressure(1000);
+
+        configuration.pressureCurve.type = CurveType.PIECEWISE;
+        configuration.pressureCurve.points = new double[][] { {0.5, 0.5}, {0.2, 0.9} };
+        configuration.tiltCurve.type = CurveType.BEZIER;
+        configuration.tiltCurve.bezier = new double[] { 2.0, 0.0 };
+        Calibration calibration = Calibration.build(configuration);
+
+        assertEquals(linear, calibration.pressure(1000));
+        assertEquals(45, calibration.tilt((byte) 192));
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.config.ConfigWatcher;
+import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.config.KeyBinding;
+import ru.aloyenz.t501.driver.device.ConfigSnapshot;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConfigReloadTest {
+
+    private static Path directory;
+
+    @BeforeAll
+    public static void init() throws Exception {
+        // Every test initializes the configuration from its own file
+        directory = TestFixtures.initKeycodes("t501_reload");
+    }
+
+    @Test
+    public void testWatcherPassesOnlyValidChanges() throws Exception {
+        File file = directory.resolve("watched.json").toFile();
+        file.deleteOnExit();
+        Configuration.init(file);
+        String original = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+        assertTrue(original.contains("\"read_thread_delay_ms\": 0"));
+
+        LinkedBlockingQueue<Configuration> reloaded = new LinkedBlockingQueue<>();
+        try (ConfigWatcher watcher = new ConfigWatcher(file, reloaded::add)) {
+            watcher.start();
+
+            write(file, original.replace("\"read_thread_delay_ms\": 0", "\"read_thread_delay_ms\": 7"));
+            Configuration changed = reloaded.poll(10, TimeUnit.SECONDS);
+            assertNotNull(changed);
+            assertEquals(7, changed.readThreadDelayMs);
+
+            // Half-written file
+            write(file, original.substring(0, original.length() / 2));
+            assertNull(reloaded.poll(1, TimeUnit.SECONDS));
+
+            write(file, original.replace("\"read_thread_delay_ms\": 0", "\"read_thread_delay_ms\": 9"));
+            changed = reloaded.poll(10, TimeUnit.SECONDS);
+            assertNotNull(changed);
+            assertEquals(9, changed.readThreadDelayMs);
+        }
+    }
+
+    @Test
+    public void testSnapshotTellsWhenKeyboardNeedsMoreKeys() {
+        Configuration configuration = new Configuration();
+        ConfigSnapshot snapshot = ConfigSnapshot.compile(configuration);
+        int[] keyboardKeycodes = snapshot.bindings().neededKeycodes();
+        assertTrue(snapshot.bindings().isCoveredBy(keyboardKeycodes));
+
+        // Fewer keys: the same keyboard is fine
+        Configuration fewer = new Configuration();
+        fewer.keyboardConfiguration.b = new KeyBinding[0];
+        assertTrue(ConfigSnapshot.compile(fewer).bindings().isCoveredBy(keyboardKeycodes));
+
+        Configuration more = new Configuration();
+        more.keyboardConfiguration.b = new KeyBinding[] { new KeyBinding("KEY_Q") };
+        more.sampleRingCapacity = 64;
+        assertFalse(ConfigSnapshot.compile(more).bindings().isCoveredBy(keyboardKeycodes));
+
+        assertEquals(List.of("sample_ring_capacity"), configuration.restartRequiredChanges(more));
+    }
+
+    @Test
+    public void testSnapshotIsNotChangedWithItsSource() {
+        Configuration configuration = new Configuration();
+        configuration.hoverOutputRate = 100;
+        configuration.prediction.lookaheadMs = 8;
+        ConfigSnapshot snapshot = ConfigSnapshot.compile(configuration);
+
+        configuration.hoverOutputRate = 200;
+        configuration.prediction.lookaheadMs = 16;
+        configuration.smoothing.x.alpha = 0.1;
+
+        assertEquals(100, snapshot.configuration().hoverOutputRate);
+        assertEquals(8.0, snapshot.configuration().prediction.lookaheadMs);
+        assertEquals(0.5, snapshot.configuration().smoothing.x.alpha);
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+    }
+}
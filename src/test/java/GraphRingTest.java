@@ -0,0 +1,119 @@
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.device.DeviceReader;
+import ru.aloyenz.t501.driver.device.MouseScheduler;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.ReportRecorder;
+import ru.aloyenz.t501.driver.device.ReportReplayer;
+import ru.aloyenz.t501.driver.device.T501Device;
+import ru.aloyenz.t501.driver.virtual.RecordingSink;
+import ru.aloyenz.t501.driver.window.GraphRing;
+import ru.aloyenz.t501.driver.window.RealTimeGraph;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GraphRingTest {
+
+    private static final int CHANNELS = 4;
+
+    @Test
+    public void testReaderNeverSeesTornSamples() throws Exception {
+        GraphRing ring = new GraphRing(64, CHANNELS);
+        int samples = 200_000;
+
+        Thread[] writers = new Thread[2];
+        for (int w = 0; w < writers.length; w++) {
+            long base = (long) w << 40;
+            writers[w] = new Thread(() -> {
+                for (int i = 0; i < samples; i++) {
+                    long slot = ring.claim();
+                    for (int c = 0; c < CHANNELS; c++) {
+                        ring.put(slot, c, base + i * CHANNELS + c);
+                    }
+                    ring.publish(slot);
+                }
+            });
+            writers[w].start();
+        }
+
+        long[] row = new long[CHANNELS];
+        long position = 0;
+        long read = 0;
+        while (writers[0].isAlive() || writers[1].isAlive() || position < ring.end()) {
+            long end = ring.end();
+            position = Math.max(position, end - ring.capacity());
+            for (; position < end; position++) {
+                int result = ring.read(position, row);
+                if (result == GraphRing.PENDING) {
+                    break;
+                }
+                if (result == GraphRing.READ) {
+                    for (int c = 1; c < CHANNELS; c++) {
+                        assertEquals(row[0] + c, row[c], "Torn sample at " + position);
+                    }
+                    read++;
+                }
+            }
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(2L * samples, ring.end());
+        assertTrue(read > 0);
+    }
+
+    @Test
+    public void testOverwrittenAndUnpublishedSamples() {
+        GraphRing ring = new GraphRing(4, CHANNELS);
+        long[] row = new long[CHANNELS];
+
+        long first = ring.claim();
+        assertEquals(GraphRing.PENDING, ring.read(first, row));
+        ring.put(first, 0, 42);
+        ring.publish(first);
+        assertEquals(GraphRing.READ, ring.read(first, row));
+        assertEquals(42, row[0]);
+
+        for (int i = 0; i < 4; i++) {
+            ring.publish(ring.claim());
+        }
+        assertEquals(GraphRing.LOST, ring.read(first, row));
+    }
+
+    @Test
+    public void testReaderCopiesWrittenPenSamples() throws Exception {
+        Path directory = TestFixtures.initEnvironment("t501_graph");
+
+        Path capture = directory.resolve("capture.bin");
+        T501Device device = TestFixtures.device("1-1");
+        try (ReportRecorder recorder = new ReportRecorder(capture)) {
+            for (int i = 0; i < 100; i++) {
+                recorder.record(device, TestFixtures.report(1000 + i, 2000, 900), ReportDecoder.STYLUS_REPORT_LENGTH, i * 5_000_000L);
+            }
+        }
+
+        RecordingSink sink = new RecordingSink();
+        DeviceReader reader = new DeviceReader(sink, new MouseScheduler(sink));
+        GraphRing ring = new GraphRing(256, RealTimeGraph.CHANNELS);
+        reader.setGraph(ring);
+        new ReportReplayer(capture, reader::applyInput, null, 1).replay();
+
+        assertEquals(100, ring.end());
+        long[] row = new long[RealTimeGraph.CHANNELS];
+        for (int i = 0; i < 100; i++) {
+            assertEquals(GraphRing.READ, ring.read(i, row));
+            assertEquals(1000 + i, row[RealTimeGraph.X]);
+            assertEquals(2000, row[RealTimeGraph.Y]);
+            assertTrue(row[RealTimeGraph.PRESSURE] > 0);
+            assertTrue(row[RealTimeGraph.LATENCY] >= 0);
+        }
+        assertEquals(5000, row[RealTimeGraph.INTERVAL]);
+
+        // Closed diagnostics get nothing
+        reader.setGraph(null);
+        new ReportReplayer(capture, reader::applyInput, null, 0).replay();
+        assertEquals(100, ring.end());
+    }
+}
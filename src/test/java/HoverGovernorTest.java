@@ -0,0 +1,149 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.device.ConfigSnapshot;
+import ru.aloyenz.t501.driver.device.DeviceConnectionListener;
+import ru.aloyenz.t501.driver.device.DeviceReader;
+import ru.aloyenz.t501.driver.device.MouseScheduler;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.ReportRecorder;
+import ru.aloyenz.t501.driver.device.ReportReplayer;
+import ru.aloyenz.t501.driver.device.T501Device;
+import ru.aloyenz.t501.driver.virtual.RecordingSink;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HoverGovernorTest {
+
+    // 200 reports per second
+    private static final long PERIOD_NANOS = 5_000_000L;
+
+    private static final int HOVER = 1500;
+    private static final int TOUCH = 900;
+
+    @BeforeAll
+    public static void init() throws Exception {
+        TestFixtures.initEnvironment("t501_hover");
+    }
+
+    @Test
+    public void testHoverIsCappedAndContactIsNot() {
+        Stroke stroke = new Stroke(60);
+
+        // A second of hovering, then a stroke
+        for (int i = 0; i < 200; i++) {
+            stroke.report(1000 + i, HOVER, 0x02);
+        }
+        for (int i = 0; i < 100; i++) {
+            stroke.report(1200 + i, TOUCH, 0x02);
+        }
+        List<RecordingSink.PenFrame> frames = stroke.frames();
+
+        long hoverFrames = frames.stream().filter(frame -> !frame.touch()).count();
+        assertTrue(hoverFrames >= 59 && hoverFrames <= 62, hoverFrames + " hover frames in a second");
+
+        // The last hover position goes right before the contact, and every contact report is written
+        RecordingSink.PenFrame lastHover = frames.get((int) hoverFrames - 1);
+        assertEquals(1199, lastHover.x());
+        assertEquals(100, frames.size() - hoverFrames);
+        assertEquals(1200, frames.get((int) hoverFrames).x());
+        assertTrue(frames.get((int) hoverFrames).touch());
+
+        assertEquals(200 - hoverFrames, stroke.device.skippedHoverReports());
+    }
+
+    @Test
+    public void testButtonChangePassesImmediately() {
+        Stroke stroke = new Stroke(60);
+
+        stroke.report(1000, HOVER, 0x02);
+        stroke.report(1001, HOVER, 0x02);
+        stroke.report(1002, HOVER, 0x02);
+        // Stylus button
+        stroke.report(1003, HOVER, 0x04);
+        stroke.report(1004, HOVER, 0x04);
+
+        List<RecordingSink.PenFrame> frames = stroke.frames();
+        assertEquals(List.of(1000, 1002, 1003), frames.stream().map(RecordingSink.PenFrame::x).toList());
+        assertFalse(frames.get(1).stylusPlusPressed());
+        assertTrue(frames.get(2).stylusPlusPressed());
+    }
+
+    @Test
+    public void testZeroRateWritesEveryReport() {
+        Stroke stroke = new Stroke(0);
+        for (int i = 0; i < 50; i++) {
+            stroke.report(1000 + i, HOVER, 0x02);
+        }
+
+        assertEquals(50, stroke.frames().size());
+        assertEquals(0, stroke.device.skippedHoverReports());
+    }
+
+    private static final class Stroke {
+
+        private final int hoverOutputRate;
+        private final List<ByteBuffer> reports = new ArrayList<>();
+        private final RecordingSink sink = new RecordingSink();
+        private T501Device device;
+
+        Stroke(int hoverOutputRate) {
+            this.hoverOutputRate = hoverOutputRate;
+        }
+
+        void report(int x, int rawPressure, int stylusButtons) {
+            reports.add(TestFixtures.report(x, 2000, rawPressure, stylusButtons, TestFixtures.ALL_RELEASED));
+        }
+
+        // Replays the reports as fast as possible, the governor sees their recorded time anyway
+        List<RecordingSink.PenFrame> frames() {
+            try {
+                File file = Files.createTempFile("t501_hover", ".bin").toFile();
+                file.deleteOnExit();
+
+                T501Device recorded = TestFixtures.device("1-1");
+                try (ReportRecorder recorder = new ReportRecorder(file.toPath())) {
+                    for (int i = 0; i < reports.size(); i++) {
+                        recorder.record(recorded, reports.get(i), ReportDecoder.STYLUS_REPORT_LENGTH, i * PERIOD_NANOS);
+                    }
+                }
+
+                Configuration configuration = new Configuration();
+                configuration.hoverOutputRate = hoverOutputRate;
+
+                ConfigSnapshot previous = ConfigSnapshot.current();
+                ConfigSnapshot.publish(ConfigSnapshot.compile(configuration));
+                try {
+                    DeviceReader reader = new DeviceReader(sink, new MouseScheduler(sink));
+                    new ReportReplayer(file.toPath(), reader::applyInput, new DeviceConnectionListener() {
+                        @Override
+                        public void onDeviceConnected(T501Device connected) {
+                            device = connected;
+                        }
+
+                        @Override
+                        public void onDeviceDisconnected(T501Device disconnected) {}
+                    }, 0).replay();
+                } finally {
+                    ConfigSnapshot.publish(previous);
+                }
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+
+            List<RecordingSink.PenFrame> frames = new ArrayList<>();
+            for (RecordingSink.Output output : sink.outputs()) {
+                if (output instanceof RecordingSink.PenFrame frame) {
+                    frames.add(frame);
+                }
+            }
+            return frames;
+        }
+    }
+}
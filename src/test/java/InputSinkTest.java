@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.device.BindingTable;
+import ru.aloyenz.t501.driver.device.CompiledKeys;
+import ru.aloyenz.t501.driver.device.DeviceReader;
+import ru.aloyenz.t501.driver.device.MouseScheduler;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.T501Device;
+import ru.aloyenz.t501.driver.virtual.CountingSink;
+import ru.aloyenz.t501.driver.virtual.RecordingSink;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InputSinkTest {
+
+    @BeforeAll
+    public static void init() throws Exception {
+        TestFixtures.initEnvironment("t501_sink");
+    }
+
+    @Test
+    public void testRecordingSinkReceivesExactEventStream() {
+        RecordingSink sink = new RecordingSink();
+        DeviceReader reader = new DeviceReader(sink, new MouseScheduler(sink));
+        // No USB handle and no sample ring: reports are written inline
+        T501Device device = TestFixtures.device("test");
+
+        // Bit 0 of the button state is the last tablet button, pressed buttons are zero bits
+        int pressed = TestFixtures.ALL_RELEASED & ~1;
+
+        apply(reader, device, report(1000, 2000, 1450, TestFixtures.ALL_RELEASED)); // Hover
+        apply(reader, device, report(1010, 2010, 677, TestFixtures.ALL_RELEASED));  // Full contact
+        apply(reader, device, report(1020, 2020, 677, pressed));
+        apply(reader, device, report(1030, 2030, 1450, TestFixtures.ALL_RELEASED));
+        apply(reader, device, report(0, 0, 0, TestFixtures.ALL_RELEASED));          // Out of range
+
+        List<RecordingSink.Output> expected = new ArrayList<>();
+        expected.add(new RecordingSink.PenFrame(1000, 2000, 0, false, 0, 0, false, false));
+        expected.add(new RecordingSink.PenFrame(1010, 2010, 1024, true, 0, 0, false, false));
+        expected.add(new RecordingSink.PenFrame(1020, 2020, 1024, true, 0, 0, false, false));
+        expected.add(new RecordingSink.KeyBatch(keys(BindingTable.getInstance().tabletButton(15), true)));
+        expected.add(new RecordingSink.PenFrame(1030, 2030, 0, false, 0, 0, false, false));
+        expected.add(new RecordingSink.KeyBatch(keys(BindingTable.getInstance().tabletButton(15), false)));
+        expected.add(new RecordingSink.PenLeave());
+
+        assertEquals(expected, sink.outputs());
+
+        sink.clear();
+        assertTrue(sink.outputs().isEmpty());
+    }
+
+    @Test
+    public void testCountingSinkCountsEveryWrite() {
+        CountingSink sink = new CountingSink();
+        DeviceReader reader = new DeviceReader(sink, new MouseScheduler(sink));
+        T501Device device = TestFixtures.device("test");
+
+        int strokes = 1000;
+        for (int i = 0; i < strokes; i++) {
+            apply(reader, device, report(i, i, 1450, TestFixtures.ALL_RELEASED));
+            apply(reader, device, report(i, i, 900, TestFixtures.ALL_RELEASED));
+            apply(reader, device, report(i, i, 0, TestFixtures.ALL_RELEASED));
+        }
+
+        assertEquals(strokes * 2L, sink.penFrames());
+        assertEquals(strokes, sink.penLeaves());
+        assertEquals(0, sink.keyboardBatches());
+        assertEquals(strokes * 3L, sink.total());
+    }
+
+    private static void apply(DeviceReader reader, T501Device device, ByteBuffer report) {
+        reader.applyInput(device, report, ReportDecoder.STYLUS_REPORT_LENGTH);
+    }
+
+    private static List<RecordingSink.Key> keys(CompiledKeys keys, boolean pressed) {
+        List<RecordingSink.Key> result = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (!keys.isMouse(i) && keys.keyCode(i) != 0) {
+                result.add(new RecordingSink.Key(keys.keyCode(i), pressed));
+            }
+        }
+        return result;
+    }
+
+    private static ByteBuffer report(int x, int y, int rawPressure, int tabletButtons) {
+        return TestFixtures.report(x, y, rawPressure, TestFixtures.NO_STYLUS_BUTTONS, tabletButtons);
+    }
+}
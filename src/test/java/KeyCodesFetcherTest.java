@@ -1,13 +1,20 @@
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.aloyenz.t501.driver.device.KeyCode;
 import ru.aloyenz.t501.driver.device.KeyCodesFetcher;
+import ru.aloyenz.t501.driver.device.KeycodeIndex;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 public class KeyCodesFetcherTest {
 
     private static final Logger log = LoggerFactory.getLogger(KeyCodesFetcherTest.class);
@@ -38,4 +45,44 @@ public class KeyCodesFetcherTest {
             throw new RuntimeException("Could not load keycodes from predefined cache: " + e.getMessage());
         }
     }
+
+    @Test
+    public void testBinaryCache() throws IOException {
+        Path directory = Files.createTempDirectory("t501-keycodes");
+        String jsonCache = directory.resolve("keycodes.json").toString();
+        String binaryCache = directory.resolve("keycodes.bin").toString();
+
+        KeyCodesFetcher.saveKeycodeCacheFromResources(jsonCache);
+        KeyCodesFetcher.loadKeycodesFromCache(jsonCache);
+        Map<String, KeyCode> fromJson = KeyCodesFetcher.getKeycodes();
+
+        KeyCodesFetcher.storeIndexToFile(new File(binaryCache));
+        KeyCodesFetcher.loadKeycodesFromCache(binaryCache);
+        KeycodeIndex index = KeyCodesFetcher.getIndex();
+
+        assertEquals(fromJson.size(), index.size());
+        for (Map.Entry<String, KeyCode> entry : fromJson.entrySet()) {
+            assertEquals(entry.getValue().keyCode(), index.keyCode(entry.getKey()), entry.getKey());
+        }
+        assertEquals(-1, index.keyCode("KEY_NOT_EXISTING"));
+    }
+
+    @Test
+    public void testBundledIndex() throws IOException {
+        Path directory = Files.createTempDirectory("t501-keycodes");
+
+        // The index is generated from the main keycodes.json, test resources have another one
+        JsonObject fromJson = JsonParser.parseString(
+                Files.readString(Path.of("src/main/resources/keycodes.json"))).getAsJsonObject();
+
+        // No cache and no headers: the index generated at build time is used
+        KeyCodesFetcher.load(directory.resolve("keycodes.bin").toString(), null, false);
+        KeycodeIndex index = KeyCodesFetcher.getIndex();
+
+        assertFalse(Files.exists(directory.resolve("keycodes.bin")));
+        assertEquals(fromJson.size(), index.size());
+        for (String name : fromJson.keySet()) {
+            assertEquals(fromJson.getAsJsonObject(name).get("key_code").getAsInt(), index.keyCode(name), name);
+        }
+    }
 }
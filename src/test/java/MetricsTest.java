@@ -0,0 +1,135 @@
+import org.junit.jupiter.api.Test;
+import org.usb4java.LibUsb;
+import ru.aloyenz.t501.driver.device.DeviceReader;
+import ru.aloyenz.t501.driver.device.MouseScheduler;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.ReportRecorder;
+import ru.aloyenz.t501.driver.device.ReportReplayer;
+import ru.aloyenz.t501.driver.device.T501Device;
+import ru.aloyenz.t501.driver.metrics.Histogram;
+import ru.aloyenz.t501.driver.metrics.Metrics;
+import ru.aloyenz.t501.driver.metrics.MetricsServer;
+import ru.aloyenz.t501.driver.virtual.RecordingSink;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+    private static final int WARMUP_UPDATES = 50_000;
+    private static final int MEASURED_UPDATES = 100_000;
+
+    @Test
+    public void testScrapeCountsReplayedReports() throws Exception {
+        Path directory = TestFixtures.initEnvironment("t501_metrics");
+
+        Path capture = directory.resolve("capture.bin");
+        T501Device device = TestFixtures.device("1-1");
+        try (ReportRecorder recorder = new ReportRecorder(capture)) {
+            for (int i = 0; i < 50; i++) {
+                recorder.record(device, TestFixtures.report(1000 + i, 2000, 900), ReportDecoder.STYLUS_REPORT_LENGTH, i * 5_000_000L);
+            }
+        }
+
+        long reports = Metrics.REPORTS.sum();
+        long frames = Metrics.PEN_FRAMES.sum();
+        long latencies = Metrics.EMISSION_LATENCY.count();
+
+        RecordingSink sink = new RecordingSink();
+        DeviceReader reader = new DeviceReader(sink, new MouseScheduler(sink));
+        new ReportReplayer(capture, reader::applyInput, null, 0).replay();
+
+        assertEquals(reports + 50, Metrics.REPORTS.sum());
+        assertEquals(frames + 50, Metrics.PEN_FRAMES.sum());
+        assertEquals(latencies + 50, Metrics.EMISSION_LATENCY.count());
+
+        Metrics.usbError(LibUsb.ERROR_PIPE);
+        Metrics.usbError(-1000);
+
+        MetricsServer server = MetricsServer.start(0);
+        try {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.port() + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            assertTrue(response.headers().firstValue("Content-Type").orElseThrow().startsWith("text/plain"));
+
+            String text = response.body();
+            assertTrue(text.contains("# TYPE t501_reports_total counter\n"));
+            assertTrue(text.contains("\nt501_reports_total " + Metrics.REPORTS.sum() + "\n"));
+            assertTrue(text.contains("t501_usb_errors_total{error=\"" + LibUsb.errorName(LibUsb.ERROR_PIPE) + "\"} "));
+            assertFalse(text.contains("t501_usb_errors_total{error=\"LIBUSB_ERROR_OTHER\"} 0\n"));
+            assertTrue(text.contains("# TYPE t501_emission_latency_seconds histogram\n"));
+            assertTrue(text.contains("t501_emission_latency_seconds_bucket{le=\"+Inf\"} "
+                    + Metrics.EMISSION_LATENCY.count() + "\n"));
+            assertTrue(text.contains("t501_emission_latency_seconds_count " + Metrics.EMISSION_LATENCY.count() + "\n"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testHistogramBucketsAreCumulative() throws Exception {
+        Histogram histogram = new Histogram("test_seconds", "Test", 1_000_000L, 10_000_000L);
+        histogram.observe(500_000L);
+        histogram.observe(1_000_000L);
+        histogram.observe(5_000_000L);
+        histogram.observe(50_000_000L);
+
+        assertEquals(4, histogram.count());
+
+        Metrics.gauge("t501_test_gauge", "Test", () -> 7);
+        MetricsServer server = MetricsServer.start(0);
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create("http://127.0.0.1:" + server.port() + "/metrics");
+
+            String text = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString()).body();
+            assertTrue(text.contains("# TYPE t501_test_gauge gauge\nt501_test_gauge 7\n"));
+
+            HttpResponse<String> post = client.send(
+                    HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString("x")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(405, post.statusCode());
+        } finally {
+            server.stop();
+        }
+
+        // Written by the same code as the driver ones
+        StringBuilder text = new StringBuilder();
+        Metrics.write(text);
+        assertTrue(text.indexOf("t501_connect_duration_seconds_bucket{le=\"5.0\"} ") >= 0);
+    }
+
+    @Test
+    public void testUpdatesDoNotAllocate() {
+        Histogram histogram = new Histogram("test_seconds", "Test", 1_000L, 10_000L, 100_000L);
+
+        for (int i = 0; i < WARMUP_UPDATES; i++) {
+            update(histogram, i);
+        }
+
+        long allocated = TestFixtures.allocatedBytes(() -> {
+            for (int i = 0; i < MEASURED_UPDATES; i++) {
+                update(histogram, i);
+            }
+        });
+
+        assertEquals(0, allocated, "Bytes allocated by " + MEASURED_UPDATES + " updates");
+        assertEquals(WARMUP_UPDATES + MEASURED_UPDATES, histogram.count());
+    }
+
+    private static void update(Histogram histogram, int i) {
+        Metrics.REPORTS.increment();
+        Metrics.TRANSFER_TIMEOUTS.increment();
+        Metrics.usbError(LibUsb.ERROR_IO);
+        Metrics.uinputWriteFailed(Metrics.PEN);
+        histogram.observe(i * 3L);
+    }
+}
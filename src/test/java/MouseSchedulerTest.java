@@ -0,0 +1,202 @@
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.device.MouseScheduler;
+import ru.aloyenz.t501.driver.virtual.RecordingSink;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MouseSchedulerTest {
+
+    // Linux input event codes
+    private static final int BTN_LEFT = 0x110;
+    private static final int BTN_RIGHT = 0x111;
+    private static final int REL_WHEEL = 0x08;
+
+    // Long enough to never repeat in tests which don't wait for repeats
+    private static final int NO_REPEAT_DELAY_MS = 60_000;
+
+    @Test
+    public void testPressAndReleaseArePaired() {
+        RecordingSink sink = new RecordingSink();
+        MouseScheduler scheduler = new MouseScheduler(sink);
+        scheduler.start(NO_REPEAT_DELAY_MS, 30);
+        try {
+            scheduler.press(BTN_LEFT, false, 1);
+            awaitEvents(sink, 1);
+            scheduler.release(BTN_LEFT, false);
+            awaitEvents(sink, 2);
+        } finally {
+            scheduler.stop();
+        }
+
+        assertEquals(List.of(
+                new RecordingSink.MouseEvent(BTN_LEFT, false, 1),
+                new RecordingSink.MouseEvent(BTN_LEFT, false, 0)
+        ), events(sink));
+    }
+
+    @Test
+    public void testDuplicateBindingIsHeldUntilLastRelease() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        MouseScheduler scheduler = new MouseScheduler(sink);
+        scheduler.start(NO_REPEAT_DELAY_MS, 30);
+        try {
+            // The same button bound to two tablet buttons
+            scheduler.press(BTN_LEFT, false, 1);
+            scheduler.press(BTN_LEFT, false, 1);
+            awaitEvents(sink, 1);
+
+            scheduler.release(BTN_LEFT, false);
+            Thread.sleep(100);
+            assertEquals(List.of(new RecordingSink.MouseEvent(BTN_LEFT, false, 1)), events(sink));
+
+            scheduler.release(BTN_LEFT, false);
+            awaitEvents(sink, 2);
+        } finally {
+            scheduler.stop();
+        }
+
+        assertEquals(new RecordingSink.MouseEvent(BTN_LEFT, false, 0), events(sink).get(1));
+    }
+
+    @Test
+    public void testRelEventIsRepeatedAfterDelayWithRate() throws Exception {
+        int delayMs = 100;
+        int rate = 50;
+        long periodNanos = 1_000_000_000L / rate;
+        // Tolerance for the time between the press and its handling by the scheduler thread
+        long slackNanos = 5_000_000L;
+
+        TimedSink sink = new TimedSink();
+        MouseScheduler scheduler = new MouseScheduler(sink);
+        scheduler.start(delayMs, rate);
+        int repeated;
+        long pressed;
+        try {
+            pressed = System.nanoTime();
+            scheduler.press(REL_WHEEL, true, -1);
+            awaitEvents(sink, 8);
+
+            scheduler.release(REL_WHEEL, true);
+            // Release is drained before the next repeat is due
+            Thread.sleep(periodNanos / 1_000_000L);
+            repeated = events(sink).size();
+            Thread.sleep(200);
+            assertEquals(repeated, events(sink).size(), "Repeated after release");
+        } finally {
+            scheduler.stop();
+        }
+
+        // REL_ events have no release, only repeats of the pressed value
+        for (RecordingSink.MouseEvent event : events(sink)) {
+            assertEquals(new RecordingSink.MouseEvent(REL_WHEEL, true, -1), event);
+        }
+
+        // Repeats are scheduled from the press, a late write of the pressed event doesn't move them
+        List<Long> times = sink.times();
+        assertTrue(times.get(1) - pressed >= delayMs * 1_000_000L - slackNanos, "First repeat before the delay");
+        for (int i = 1; i < times.size(); i++) {
+            long expected = delayMs * 1_000_000L + (i - 1) * periodNanos;
+            assertTrue(times.get(i) - pressed >= expected - slackNanos, "Repeat #" + i + " too early");
+        }
+
+        // Late wake ups are not accumulated, so repeats keep the rate on average
+        long repeatsNanos = times.get(times.size() - 1) - times.get(1);
+        assertTrue(repeatsNanos / (times.size() - 2) < periodNanos * 2, "Repeats are too slow");
+    }
+
+    @Test
+    public void testFullQueueWaitsForScheduler() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        MouseScheduler scheduler = new MouseScheduler(sink);
+
+        // Not started yet, so nothing drains the queue of 256 events
+        int pairs = 200;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < pairs; i++) {
+                scheduler.press(BTN_LEFT, false, 1);
+                scheduler.release(BTN_LEFT, false);
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive(), "Producer didn't wait for a free slot");
+
+        scheduler.start(NO_REPEAT_DELAY_MS, 30);
+        try {
+            producer.join(5_000);
+            assertFalse(producer.isAlive());
+            awaitEvents(sink, pairs * 2);
+        } finally {
+            scheduler.stop();
+        }
+
+        // Every event is written once, in order
+        List<RecordingSink.MouseEvent> events = events(sink);
+        assertEquals(pairs * 2, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(new RecordingSink.MouseEvent(BTN_LEFT, false, i % 2 == 0 ? 1 : 0), events.get(i));
+        }
+    }
+
+    @Test
+    public void testStopReleasesHeldButtons() {
+        RecordingSink sink = new RecordingSink();
+        MouseScheduler scheduler = new MouseScheduler(sink);
+        scheduler.start(NO_REPEAT_DELAY_MS, 30);
+
+        scheduler.press(BTN_LEFT, false, 1);
+        scheduler.press(BTN_RIGHT, false, 1);
+        scheduler.press(REL_WHEEL, true, 1);
+        awaitEvents(sink, 3);
+        scheduler.stop();
+
+        List<RecordingSink.MouseEvent> events = events(sink);
+        assertEquals(5, events.size());
+        // REL_ events have nothing to release
+        assertEquals(List.of(
+                new RecordingSink.MouseEvent(BTN_LEFT, false, 0),
+                new RecordingSink.MouseEvent(BTN_RIGHT, false, 0)
+        ), events.subList(3, 5));
+    }
+
+    private static void awaitEvents(RecordingSink sink, int count) {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (events(sink).size() < count) {
+            assertTrue(System.nanoTime() < deadline, "Scheduler didn't write events in time: " + events(sink));
+            Thread.onSpinWait();
+        }
+    }
+
+    /** Mouse events of every batch, in order */
+    private static List<RecordingSink.MouseEvent> events(RecordingSink sink) {
+        List<RecordingSink.MouseEvent> events = new ArrayList<>();
+        for (RecordingSink.Output output : sink.outputs()) {
+            if (output instanceof RecordingSink.MouseBatch batch) {
+                events.addAll(batch.events());
+            }
+        }
+
+        return events;
+    }
+
+    /** Keeps the time of every mouse batch, every batch here has a single event */
+    private static final class TimedSink extends RecordingSink {
+
+        private final List<Long> times = new ArrayList<>();
+
+        @Override
+        public void mouseEvents(int[] codes, boolean[] isRel, int[] values, int count) {
+            synchronized (this) {
+                times.add(System.nanoTime());
+            }
+            super.mouseEvents(codes, isRel, values, count);
+        }
+
+        synchronized List<Long> times() {
+            return List.copyOf(times);
+        }
+    }
+}
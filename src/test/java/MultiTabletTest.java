@@ -0,0 +1,228 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.aloyenz.t501.driver.device.DeviceConnectionListener;
+import ru.aloyenz.t501.driver.device.DeviceReader;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.SampleEmitterThreads;
+import ru.aloyenz.t501.driver.device.T501Device;
+import ru.aloyenz.t501.driver.device.VirtualDeviceRegistry;
+import ru.aloyenz.t501.driver.virtual.CountingSink;
+import ru.aloyenz.t501.driver.virtual.InputSink;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Synthetic tablets without USB: reports are fed to the same reader, sample rings and emitter threads as live ones.
+ */
+public class MultiTabletTest {
+
+    private static final Logger log = LoggerFactory.getLogger(MultiTabletTest.class);
+
+    private static final int TABLETS = 8;
+    // 4 times the report rate of the tablet
+    private static final int REPORTS_PER_SECOND = 1000;
+    private static final int REPORTS = 1000;
+    private static final int WARMUP_REPORTS = 20_000;
+    private static final int RING_CAPACITY = 64;
+
+    // Range of X coordinates of every tablet, so samples of another tablet are recognized
+    private static final int X_RANGE = 400;
+
+    @BeforeAll
+    public static void init() throws Exception {
+        TestFixtures.initEnvironment("t501_multi");
+    }
+
+    /**
+     * Every sample reaches the devices of its tablet, checked by {@link #run}. Latency and duration
+     * depend on the machine, so they are only logged: MultiTabletBenchmark measures them.
+     */
+    @Test
+    public void testEightTabletsKeepEverySample() throws Exception {
+        // As fast as possible, so the measured run is not slowed down by compilation
+        run(WARMUP_REPORTS, 0);
+
+        long start = System.nanoTime();
+        LatencySink[] sinks = run(REPORTS, 1_000_000_000L / REPORTS_PER_SECOND);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        for (int i = 0; i < TABLETS; i++) {
+            log.info("Tablet {}: p99 latency {} us", i, sinks[i].percentile(0.99) / 1000);
+        }
+        log.info("{} paced reports of every tablet took {} s, {} s expected",
+                REPORTS, String.format("%.3f", seconds), REPORTS / (double) REPORTS_PER_SECOND);
+    }
+
+    @Test
+    public void testReconnectedTabletGetsItsVirtualDevices() {
+        List<CountingSink> sinks = new ArrayList<>();
+        VirtualDeviceRegistry registry = new VirtualDeviceRegistry(number -> {
+            CountingSink sink = new CountingSink();
+            sinks.add(sink);
+            return sink;
+        }, 500, 30);
+        DeviceReader reader = new DeviceReader();
+
+        assertTrue(registry.prepare());
+        assertEquals(1, registry.size());
+
+        T501Device first = TestFixtures.device("1-1");
+        T501Device second = TestFixtures.device("1-2");
+        registry.onDeviceConnected(first);
+        registry.onDeviceConnected(second);
+        // The first tablet gets the prepared devices
+        assertEquals(2, registry.size());
+
+        registry.onDeviceDisconnected(first);
+        T501Device firstAgain = TestFixtures.device("1-1");
+        registry.onDeviceConnected(firstAgain);
+        assertEquals(2, registry.size());
+
+        reader.applyInput(firstAgain, TestFixtures.report(100, 100, 900), ReportDecoder.STYLUS_REPORT_LENGTH);
+        reader.applyInput(second, TestFixtures.report(100, 100, 900), ReportDecoder.STYLUS_REPORT_LENGTH);
+        reader.applyInput(second, TestFixtures.report(100, 100, 900), ReportDecoder.STYLUS_REPORT_LENGTH);
+
+        assertEquals(1, sinks.get(0).penFrames());
+        assertEquals(2, sinks.get(1).penFrames());
+        // Pen of the disconnected tablet left the screen
+        assertEquals(1, sinks.get(0).penLeaves());
+
+        // A new tablet takes free devices of an unplugged one instead of creating more
+        registry.onDeviceDisconnected(second);
+        registry.onDeviceConnected(TestFixtures.device("1-3"));
+        assertEquals(2, registry.size());
+
+        registry.close();
+    }
+
+    /**
+     * Connects {@link #TABLETS} tablets, feeds {@code reports} contact samples to every one and disconnects them.
+     *
+     * @param period time between reports of a tablet, 0 - as fast as possible
+     */
+    private static LatencySink[] run(int reports, long period) throws InterruptedException {
+        LatencySink[] sinks = new LatencySink[TABLETS];
+        VirtualDeviceRegistry registry = new VirtualDeviceRegistry(number -> {
+            sinks[number - 1] = new LatencySink(number - 1, reports);
+            return sinks[number - 1];
+        }, 500, 30);
+
+        DeviceReader reader = new DeviceReader();
+        DeviceConnectionListener listener = DeviceConnectionListener.of(registry,
+                new SampleEmitterThreads(reader, RING_CAPACITY));
+
+        T501Device[] devices = new T501Device[TABLETS];
+        for (int i = 0; i < TABLETS; i++) {
+            devices[i] = TestFixtures.device("1-" + (i + 1));
+            listener.onDeviceConnected(devices[i]);
+        }
+        assertEquals(TABLETS, registry.size());
+
+        Thread[] producers = new Thread[TABLETS];
+        long start = System.nanoTime();
+        for (int i = 0; i < TABLETS; i++) {
+            int tablet = i;
+            producers[i] = new Thread(() -> produce(reader, devices[tablet], sinks[tablet], start, period),
+                    "tablet " + tablet);
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // Waits for emitters to write queued samples
+        for (T501Device device : devices) {
+            listener.onDeviceDisconnected(device);
+        }
+        registry.close();
+
+        for (int i = 0; i < TABLETS; i++) {
+            assertEquals(0, sinks[i].foreignFrames, "Tablet " + i + " wrote samples of another one");
+            // Unpaced producers fill the ring faster than emitters drain it, then they wait instead of dropping
+            assertEquals(0, devices[i].samples().dropped(), "Tablet " + i + " dropped samples");
+            assertEquals(reports, sinks[i].frames, "Tablet " + i + " lost samples");
+            assertEquals(reports, devices[i].penFrames());
+        }
+
+        return sinks;
+    }
+
+    private static void produce(DeviceReader reader, T501Device device, LatencySink sink, long start, long period) {
+        int tablet = sink.tablet;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+
+        for (int i = 0; i < sink.sent.length; i++) {
+            long deadline = start + i * period;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+
+            // Contact samples are never coalesced, so every one of them must be written
+            TestFixtures.write(buffer, tablet * X_RANGE + i % X_RANGE, i % 4096, 900, TestFixtures.NO_STYLUS_BUTTONS,
+                    TestFixtures.ALL_RELEASED, TestFixtures.PERPENDICULAR, TestFixtures.PERPENDICULAR);
+
+            long now = System.nanoTime();
+            sink.sent[i] = now;
+            reader.applyInput(device, buffer, ReportDecoder.STYLUS_REPORT_LENGTH);
+        }
+    }
+
+    /**
+     * Virtual devices of a tablet measuring time from the report to the written sample.
+     * Written only by the emitter thread of the tablet, read after it's stopped.
+     */
+    private static final class LatencySink implements InputSink {
+
+        private final int tablet;
+        // Time every report was applied, written by the producer before the sample is queued
+        private final long[] sent;
+        private final long[] latencies;
+
+        private int frames = 0;
+        private int foreignFrames = 0;
+
+        private LatencySink(int tablet, int reports) {
+            this.tablet = tablet;
+            this.sent = new long[reports];
+            this.latencies = new long[reports];
+        }
+
+        @Override
+        public void penFrame(int x, int y, int pressure, boolean touch, int tiltX, int tiltY,
+                             boolean stylusPlusPressed, boolean stylusMinusPressed) {
+            if (x / X_RANGE != tablet) {
+                foreignFrames++;
+                return;
+            }
+
+            if (frames < latencies.length) {
+                latencies[frames] = System.nanoTime() - sent[frames];
+            }
+            frames++;
+        }
+
+        @Override
+        public void penLeave() {}
+
+        @Override
+        public void keyboardKeys(int[] keyCodes, boolean[] pressed, int count) {}
+
+        @Override
+        public void mouseEvents(int[] codes, boolean[] isRel, int[] values, int count) {}
+
+        long percentile(double percentile) {
+            long[] sorted = Arrays.copyOf(latencies, Math.min(frames, latencies.length));
+            Arrays.sort(sorted);
+            return sorted[(int) (sorted.length * percentile)];
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.device.PenReport;
+import ru.aloyenz.t501.driver.device.PenSampleRing;
+import ru.aloyenz.t501.driver.metrics.Metrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PenSampleRingTest {
+
+    @Test
+    public void testHoverSamplesAreCoalesced() {
+        PenSampleRing ring = new PenSampleRing(16);
+        PenReport report = new PenReport();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(ring.offer(hover(report, i)));
+        }
+        assertEquals(5, ring.occupancy());
+
+        PenReport out = new PenReport();
+        assertTrue(ring.take(out));
+        assertEquals(4, out.x);
+        assertEquals(4, ring.coalesced());
+        assertEquals(0, ring.occupancy());
+    }
+
+    @Test
+    public void testContactAndButtonTransitionsAreKept() {
+        PenSampleRing ring = new PenSampleRing(16);
+        PenReport report = new PenReport();
+
+        ring.offer(hover(report, 0));
+        ring.offer(hover(report, 1));
+        ring.offer(touch(report, 2));
+        ring.offer(touch(report, 3));
+        ring.offer(hover(report, 4));
+        // Tablet button pressed while hovering
+        hover(report, 5).tabletButtons = (short) 0xFFFE;
+        ring.offer(report);
+        ring.offer(report);
+
+        PenReport out = new PenReport();
+        int[] expected = {1, 2, 3, 4, 5};
+        for (int x : expected) {
+            assertTrue(ring.take(out));
+            assertEquals(x, out.x);
+        }
+
+        assertEquals(2, ring.coalesced());
+        assertEquals((short) 0xFFFE, out.tabletButtons);
+    }
+
+    @Test
+    public void testFullRingReplacesNewestHoverSample() {
+        PenSampleRing ring = new PenSampleRing(4);
+        PenReport report = new PenReport();
+        long replaced = Metrics.SAMPLES_REPLACED.sum();
+
+        for (int i = 0; i < 6; i++) {
+            assertTrue(ring.offer(hover(report, i)));
+        }
+
+        assertEquals(4, ring.occupancy());
+        assertEquals(4, ring.maxOccupancy());
+        assertEquals(2, ring.replaced());
+        assertEquals(replaced + 2, Metrics.SAMPLES_REPLACED.sum());
+        assertEquals(0, ring.dropped());
+
+        // The newest position is not lost
+        PenReport out = new PenReport();
+        assertTrue(ring.take(out));
+        assertEquals(5, out.x);
+    }
+
+    @Test
+    public void testFullRingKeepsContactSampleUntilSlotIsFree() throws InterruptedException {
+        PenSampleRing ring = new PenSampleRing(2);
+        PenReport report = new PenReport();
+
+        assertTrue(ring.offer(touch(report, 0)));
+        assertTrue(ring.offer(touch(report, 1)));
+        long waits = Metrics.SAMPLE_WAITS.sum();
+
+        boolean[] offered = new boolean[1];
+        Thread producer = new Thread(() -> offered[0] = ring.offer(touch(new PenReport(), 2)));
+        producer.start();
+        producer.join(50);
+        // Waits for the consumer instead of dropping the sample
+        assertTrue(producer.isAlive());
+
+        PenReport out = new PenReport();
+        assertTrue(ring.take(out));
+        producer.join();
+
+        assertTrue(offered[0]);
+        assertEquals(1, ring.waits());
+        assertEquals(waits + 1, Metrics.SAMPLE_WAITS.sum());
+        assertEquals(0, ring.dropped());
+        for (int x = 1; x <= 2; x++) {
+            assertTrue(ring.take(out));
+            assertEquals(x, out.x);
+        }
+    }
+
+    @Test
+    public void testSamplesPassBetweenThreadsInOrder() throws InterruptedException {
+        PenSampleRing ring = new PenSampleRing(8);
+        int count = 100_000;
+        int[] lastX = {-1};
+        int[] touches = {0};
+        boolean[] ordered = {true};
+
+        Thread consumer = new Thread(() -> {
+            PenReport out = new PenReport();
+            while (ring.take(out)) {
+                if (out.x <= lastX[0]) {
+                    ordered[0] = false;
+                }
+                if (out.touching) {
+                    touches[0]++;
+                }
+                lastX[0] = out.x;
+            }
+        });
+        consumer.start();
+
+        PenReport report = new PenReport();
+        for (int i = 0; i < count; i++) {
+            // Every contact sample must reach the consumer
+            assertTrue(ring.offer(i % 2 == 0 ? touch(report, i) : hover(report, i)));
+        }
+        ring.close();
+        consumer.join();
+
+        assertTrue(ordered[0]);
+        assertEquals(count / 2, touches[0]);
+        assertEquals(count - 1, lastX[0]);
+        assertEquals(0, ring.dropped());
+    }
+
+    private static PenReport hover(PenReport report, int x) {
+        report.x = x;
+        report.hovering = true;
+        report.touching = false;
+        report.pressure = 0;
+        report.tabletButtons = (short) 0xFFFF;
+        return report;
+    }
+
+    private static PenReport touch(PenReport report, int x) {
+        hover(report, x);
+        report.touching = true;
+        report.pressure = 512;
+        return report;
+    }
+}
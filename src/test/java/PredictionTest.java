@@ -0,0 +1,162 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.config.PredictionConfiguration;
+import ru.aloyenz.t501.driver.device.ConfigSnapshot;
+import ru.aloyenz.t501.driver.device.PenPredictor;
+import ru.aloyenz.t501.driver.device.PenReport;
+import ru.aloyenz.t501.driver.device.PredictionEvaluator;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.ReportRecorder;
+import ru.aloyenz.t501.driver.device.T501Device;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PredictionTest {
+
+    // 200 reports per second
+    private static final long PERIOD_NANOS = 5_000_000L;
+
+    @BeforeAll
+    public static void init() throws Exception {
+        TestFixtures.initEnvironment("t501_prediction");
+        ConfigSnapshot.publish(ConfigSnapshot.compile(Configuration.getInstance()));
+    }
+
+    @Test
+    public void testPredictionRemovesMostOfTheLagOfSmoothStroke() throws Exception {
+        // Circle of radius 1000 at 2 radians per second: 2000 units per second
+        int reports = 400;
+        int[] x = new int[reports];
+        int[] y = new int[reports];
+        for (int i = 0; i < reports; i++) {
+            double angle = 2 * i * PERIOD_NANOS / 1e9;
+            x[i] = (int) Math.round(2000 + 1000 * Math.cos(angle));
+            y[i] = (int) Math.round(2000 + 1000 * Math.sin(angle));
+        }
+
+        List<PredictionEvaluator.Result> results =
+                PredictionEvaluator.evaluate(capture(x, y), new PredictionConfiguration(), 8, 16);
+
+        for (PredictionEvaluator.Result result : results) {
+            assertTrue(result.samples() > reports * 3 / 4, "Compared " + result.samples() + " reports");
+            assertEquals(2.0 * result.lookaheadMs(), result.meanLag(), 1.0);
+            assertTrue(result.meanError() < result.meanLag() / 3,
+                    "Error " + result.meanError() + ", lag " + result.meanLag() + " at " + result.lookaheadMs() + " ms");
+        }
+    }
+
+    @Test
+    public void testContactStartAndEndAreNotPredicted() {
+        PredictionConfiguration prediction = prediction(16);
+        PenPredictor predictor = new PenPredictor();
+        PenReport report = new PenReport();
+
+        // Hovering at 2 units per ms is predicted
+        long nanos = 0;
+        int x = 1000;
+        for (int i = 0; i < 10; i++) {
+            apply(predictor, report, x += 10, false, nanos += PERIOD_NANOS, prediction);
+        }
+        assertTrue(report.x > x, "Hovering pen at " + x + " is predicted at " + report.x);
+
+        // Touch starts a new stroke
+        apply(predictor, report, x += 10, true, nanos += PERIOD_NANOS, prediction);
+        assertEquals(x, report.x);
+        apply(predictor, report, x += 10, true, nanos += PERIOD_NANOS, prediction);
+        assertEquals(x, report.x);
+        apply(predictor, report, x += 10, true, nanos += PERIOD_NANOS, prediction);
+        assertTrue(report.x > x);
+
+        // And so does lifting
+        apply(predictor, report, x += 10, false, nanos += PERIOD_NANOS, prediction);
+        assertEquals(x, report.x);
+
+        // Pause too
+        for (int i = 0; i < 10; i++) {
+            apply(predictor, report, x += 10, false, nanos += PERIOD_NANOS, prediction);
+        }
+        apply(predictor, report, x += 10, false, nanos += 200_000_000L, prediction);
+        assertEquals(x, report.x);
+    }
+
+    @Test
+    public void testTurningPenDoesNotOvershoot() {
+        PredictionConfiguration prediction = prediction(16);
+        PenPredictor predictor = new PenPredictor();
+        PenReport report = new PenReport();
+
+        // Straight to 1400 and back at 2 units per ms
+        long nanos = 0;
+        int x = 1000;
+        for (; x <= 1400; x += 10) {
+            apply(predictor, report, x, true, nanos += PERIOD_NANOS, prediction);
+        }
+        // Nothing tells the turn at 1400 from a straight stroke yet, but every next report does
+        for (x = 1390; x > 1000; x -= 10) {
+            apply(predictor, report, x, true, nanos += PERIOD_NANOS, prediction);
+            assertTrue(report.x <= 1400, "Predicted " + report.x + " at " + x + " after the turn");
+        }
+    }
+
+    @Test
+    public void testPredictionDoesNotAllocate() {
+        PredictionConfiguration prediction = prediction(16);
+        PenPredictor predictor = new PenPredictor();
+        PenReport report = new PenReport();
+
+        long nanos = 0;
+        for (int i = 0; i < 50_000; i++) {
+            apply(predictor, report, 1000 + (i & 255) * 10, (i & 1023) < 512, nanos += PERIOD_NANOS, prediction);
+        }
+
+        long warmedUpNanos = nanos;
+        long allocated = TestFixtures.allocatedBytes(() -> {
+            long measuredNanos = warmedUpNanos;
+            for (int i = 0; i < 100_000; i++) {
+                apply(predictor, report, 1000 + (i & 255) * 10, (i & 1023) < 512, measuredNanos += PERIOD_NANOS,
+                        prediction);
+            }
+        });
+
+        assertEquals(0, allocated, "Bytes allocated by 100000 reports");
+    }
+
+    private static PredictionConfiguration prediction(double lookaheadMs) {
+        PredictionConfiguration prediction = new PredictionConfiguration();
+        prediction.lookaheadMs = lookaheadMs;
+        return prediction;
+    }
+
+    private static void apply(PenPredictor predictor, PenReport report, int x, boolean touching, long nanos,
+                              PredictionConfiguration prediction) {
+        report.x = x;
+        report.y = 2000;
+        report.hovering = true;
+        report.touching = touching;
+        report.pressure = touching ? 512 : 0;
+        report.onSpecialButton = false;
+
+        predictor.apply(report, nanos, prediction);
+    }
+
+    private static Path capture(int[] x, int[] y) throws Exception {
+        File file = Files.createTempFile("t501_prediction", ".bin").toFile();
+        file.deleteOnExit();
+
+        T501Device device = TestFixtures.device("1-1");
+        try (ReportRecorder recorder = new ReportRecorder(file.toPath())) {
+            for (int i = 0; i < x.length; i++) {
+                recorder.record(device, TestFixtures.report(x[i], y[i], 900), ReportDecoder.STYLUS_REPORT_LENGTH, i * PERIOD_NANOS);
+            }
+            recorder.record(device, TestFixtures.report(0, 0, 0), ReportDecoder.STYLUS_REPORT_LENGTH, x.length * PERIOD_NANOS);
+        }
+
+        return file.toPath();
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.device.DeviceInformation;
+import ru.aloyenz.t501.driver.device.ReportRecorder;
+import ru.aloyenz.t501.driver.device.ReportReplayer;
+import ru.aloyenz.t501.driver.device.T501Device;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReportCaptureTest {
+
+    private static final int PACKET_SIZE = 64;
+    private static final long LAST_REPORT_NANOS = 50_000_000L;
+
+    @Test
+    public void testReplayReturnsRecordedReports() throws Exception {
+        File file = Files.createTempFile("t501_capture", ".bin").toFile();
+        file.deleteOnExit();
+
+        T501Device first = new T501Device("1-1", null, new DeviceInformation((byte) 1, (byte) 0x81, PACKET_SIZE));
+        T501Device second = new T501Device("1-2", null, new DeviceInformation((byte) 1, (byte) 0x81, PACKET_SIZE));
+
+        try (ReportRecorder recorder = new ReportRecorder(file.toPath())) {
+            recorder.record(first, report(1), 15, 0);
+            recorder.record(second, report(2), 15, 1_000_000L);
+            recorder.record(first, report(3), 8, LAST_REPORT_NANOS);
+        }
+
+        // Every record is a header and the report bytes
+        assertEquals(Long.BYTES + 3 * (Long.BYTES + Byte.BYTES + Short.BYTES) + 15 + 15 + 8, file.length());
+
+        List<String> replayed = new ArrayList<>();
+        long start = System.nanoTime();
+        long[] lastReplayedNanos = new long[1];
+        long count = new ReportReplayer(file.toPath(), (device, buffer, length) -> {
+            lastReplayedNanos[0] = System.nanoTime();
+            StringBuilder line = new StringBuilder(device.id()).append(':');
+            for (int i = 0; i < length; i++) {
+                line.append(buffer.get(i)).append(',');
+            }
+            replayed.add(line.toString());
+        }, null, 1).replay();
+
+        assertEquals(3, count);
+        assertEquals(List.of(
+                expected("replay-0", 1, 15),
+                expected("replay-1", 2, 15),
+                expected("replay-0", 3, 8)
+        ), replayed);
+
+        // Original timing is kept: a report is never replayed earlier than recorded, later depends on the machine
+        long lastMs = (lastReplayedNanos[0] - start) / 1_000_000;
+        assertTrue(lastMs >= LAST_REPORT_NANOS / 1_000_000, "Last report was replayed after " + lastMs + " ms");
+    }
+
+    private static ByteBuffer report(int seed) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(PACKET_SIZE);
+        for (int i = 0; i < PACKET_SIZE; i++) {
+            buffer.put(i, (byte) (seed * 31 + i));
+        }
+        return buffer;
+    }
+
+    private static String expected(String id, int seed, int length) {
+        StringBuilder line = new StringBuilder(id).append(':');
+        for (int i = 0; i < length; i++) {
+            line.append((byte) (seed * 31 + i)).append(',');
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.device.DeviceReader;
+import ru.aloyenz.t501.driver.device.MouseScheduler;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.T501Device;
+import ru.aloyenz.t501.driver.virtual.CountingSink;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReportDecodeAllocationTest {
+
+    private static final int WARMUP_REPORTS = 200_000;
+    private static final int MEASURED_REPORTS = 100_000;
+
+    // Pressed bits of tablet buttons (1 = released) bound by default: Ctrl, mouse scroll, B
+    private static final int CTRL = 0x0010;
+    private static final int SCROLL = 0x0004;
+    private static final int KEY_B = 0x0800;
+
+    @BeforeAll
+    public static void init() throws Exception {
+        TestFixtures.initEnvironment("t501_allocation");
+    }
+
+    @Test
+    public void testReadingDoesNotAllocate() throws Exception {
+        // Hover, light contact, full contact with tilt, stylus button,
+        // then every bound kind of tablet button is pressed, held and released
+        ByteBuffer[] reports = new ByteBuffer[] {
+                report(1000, 2000, 1300, 0x80, 0x80, 0x02, 0),
+                report(1010, 2010, 1100, 0x70, 0x90, 0x02, 0),
+                report(1020, 2020, 700, 0x10, 0xF0, 0x02, 0),
+                report(1030, 2030, 900, 0x80, 0x80, 0x04, 0),
+                report(1040, 2040, 1300, 0x80, 0x80, 0x02, CTRL),
+                report(1050, 2050, 900, 0x80, 0x80, 0x02, CTRL),
+                report(1060, 2060, 1300, 0x80, 0x80, 0x02, 0),
+                report(1070, 2070, 1300, 0x80, 0x80, 0x02, SCROLL),
+                report(1080, 2080, 1300, 0x80, 0x80, 0x02, SCROLL),
+                report(1090, 2090, 1300, 0x80, 0x80, 0x02, 0),
+                report(1100, 2100, 1300, 0x80, 0x80, 0x02, KEY_B | CTRL),
+                report(1110, 2110, 1300, 0x80, 0x80, 0x02, KEY_B),
+                report(1120, 2120, 1300, 0x80, 0x80, 0x02, 0),
+                report(1130, 2130, 700, 0x60, 0xA0, 0x02, 0),
+                report(1140, 2140, 1300, 0x80, 0x80, 0x02, 0),
+                report(1150, 2150, 900, 0x80, 0x80, 0x04, 0)
+        };
+
+        CountingSink sink = new CountingSink();
+        MouseScheduler mouseScheduler = new MouseScheduler(sink);
+        mouseScheduler.start(500, 30);
+        DeviceReader reader = new DeviceReader(sink, mouseScheduler);
+        // No sample ring: the whole steady-state path runs on this thread
+        T501Device device = TestFixtures.device("1-1");
+
+        try {
+            for (int i = 0; i < WARMUP_REPORTS; i++) {
+                reader.applyInput(device, reports[i & 15], ReportDecoder.STYLUS_REPORT_LENGTH);
+            }
+
+            long allocated = TestFixtures.allocatedBytes(() -> {
+                for (int i = 0; i < MEASURED_REPORTS; i++) {
+                    reader.applyInput(device, reports[i & 15], ReportDecoder.STYLUS_REPORT_LENGTH);
+                }
+            });
+
+            assertEquals(0, allocated, "Bytes allocated by " + MEASURED_REPORTS + " reports");
+        } finally {
+            mouseScheduler.stop();
+        }
+
+        // Checking that reports were written to be sure that nothing was optimized away
+        assertEquals(WARMUP_REPORTS + MEASURED_REPORTS, sink.penFrames());
+        // Ctrl and B are pressed and released every 16 reports
+        assertTrue(sink.keyboardBatches() >= (WARMUP_REPORTS + MEASURED_REPORTS) / 16 * 4);
+    }
+
+    private static ByteBuffer report(int x, int y, int rawPressure, int tiltX, int tiltY, int stylusButtons,
+                                     int pressedTabletButtons) {
+        return TestFixtures.report(x, y, rawPressure, stylusButtons, TestFixtures.ALL_RELEASED & ~pressedTabletButtons,
+                tiltX, tiltY);
+    }
+}
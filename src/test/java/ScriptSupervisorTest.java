@@ -0,0 +1,147 @@
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.bash.ScriptAction;
+import ru.aloyenz.t501.driver.bash.ScriptOutput;
+import ru.aloyenz.t501.driver.bash.ScriptSupervisor;
+import ru.aloyenz.t501.driver.config.special.ScriptOverflowPolicy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScriptSupervisorTest {
+
+    @Test
+    public void testOverflowPolicies() throws Exception {
+        Path directory = Files.createTempDirectory("t501-scripts");
+        ScriptSupervisor supervisor = new ScriptSupervisor(4);
+
+        ScriptOverflowPolicy[] policies = ScriptOverflowPolicy.values();
+        for (int button = 0; button < policies.length; button++) {
+            ScriptAction action = appendAndSleep(directory.resolve(policies[button].name()), policies[button], 0);
+
+            // The first press runs, the others come while it's running
+            assertTrue(supervisor.run(button, action));
+            for (int i = 0; i < 4; i++) {
+                boolean accepted = switch (policies[button]) {
+                    case DROP -> false;
+                    case COALESCE -> true;
+                    case QUEUE -> i < 2;
+                };
+                assertEquals(accepted, supervisor.run(button, action));
+            }
+        }
+
+        assertEquals(3, supervisor.activeCount());
+        // COALESCE: 1, QUEUE: 2
+        assertEquals(3, supervisor.queuedCount());
+
+        awaitIdle(supervisor, 10_000);
+        assertEquals(1, runs(directory.resolve("DROP")));
+        assertEquals(2, runs(directory.resolve("COALESCE")));
+        assertEquals(3, runs(directory.resolve("QUEUE")));
+    }
+
+    @Test
+    public void testScriptsWaitingForPermitAreNotRunning() throws Exception {
+        Path directory = Files.createTempDirectory("t501-scripts");
+        ScriptSupervisor supervisor = new ScriptSupervisor(1);
+
+        for (int button = 0; button < 3; button++) {
+            assertTrue(supervisor.run(button,
+                    appendAndSleep(directory.resolve("button" + button), ScriptOverflowPolicy.DROP, 0)));
+        }
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (supervisor.runningCount() + supervisor.waitingCount() < 3) {
+            assertTrue(System.currentTimeMillis() < deadline, "Scripts are not started");
+            Thread.sleep(5);
+        }
+        assertEquals(3, supervisor.activeCount());
+        assertEquals(1, supervisor.runningCount());
+        assertEquals(2, supervisor.waitingCount());
+
+        awaitIdle(supervisor, 10_000);
+        assertEquals(0, supervisor.runningCount());
+        assertEquals(0, supervisor.waitingCount());
+    }
+
+    @Test
+    public void testTimeoutKillsScript() throws Exception {
+        Path file = Files.createTempDirectory("t501-scripts").resolve("timeout");
+        ScriptSupervisor supervisor = new ScriptSupervisor(1);
+
+        long start = System.nanoTime();
+        supervisor.run(0, new ScriptAction(new String[][] {
+                { "sh", "-c", "sleep 10; echo done >> " + file }
+        }, ScriptOverflowPolicy.DROP, 0, 200));
+
+        awaitIdle(supervisor, 5_000);
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testShellWorkersRunScripts() throws Exception {
+        Path file = Files.createTempDirectory("t501-scripts").resolve("quoted");
+        ScriptSupervisor supervisor = new ScriptSupervisor(1, 1);
+        try {
+            // Arguments reach the script as is
+            String argument = "it's \"quoted\" $HOME `id` ; a\nb";
+            assertEquals(0, supervisor.execute(new String[] {
+                    "sh", "-c", "printf %s \"$1\" > \"$2\"", "_", argument, file.toString()
+            }, 0));
+            assertEquals(argument, Files.readString(file));
+
+            assertEquals(3, supervisor.execute(new String[] { "sh", "-c", "echo out; echo err >&2; exit 3" }, 0));
+
+            // Timed out script is killed with its shell, the next script gets a new one
+            long start = System.nanoTime();
+            assertNotEquals(0, supervisor.execute(new String[] { "sleep", "10" }, 200));
+            assertTrue(System.nanoTime() - start < 5_000_000_000L);
+            assertEquals(0, supervisor.execute(new String[] { "true" }, 0));
+
+            // Builtins and exit change only the subshell of their script
+            assertEquals(0, supervisor.execute(new String[] { "cd", file.getParent().toString() }, 0));
+            assertEquals(0, supervisor.execute(new String[] { "export", "T501_LEAKED=1" }, 0));
+            assertEquals(4, supervisor.execute(new String[] { "exit", "4" }, 0));
+            assertEquals(0, supervisor.execute(new String[] {
+                    "sh", "-c", "pwd -P > \"$1\"; printf %s \"${T501_LEAKED:-none}\" >> \"$1\"", "_", file.toString()
+            }, 0));
+            assertEquals(Path.of("").toRealPath() + "\nnone", Files.readString(file));
+        } finally {
+            supervisor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOutputKeepsLastLines() {
+        ScriptOutput output = new ScriptOutput(4);
+        for (int i = 0; i < 10; i++) {
+            output.add("line " + i);
+        }
+
+        assertEquals(List.of("line 6", "line 7", "line 8", "line 9"), output.lines());
+        assertEquals(6, output.dropped());
+    }
+
+    private static ScriptAction appendAndSleep(Path file, ScriptOverflowPolicy policy, long timeoutMs) {
+        return new ScriptAction(new String[][] {
+                { "sh", "-c", "echo run >> " + file + "; sleep 0.3" }
+        }, policy, 2, timeoutMs);
+    }
+
+    private static int runs(Path file) throws IOException {
+        return Files.readAllLines(file).size();
+    }
+
+    private static void awaitIdle(ScriptSupervisor supervisor, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (supervisor.activeCount() > 0 || supervisor.queuedCount() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "Scripts are still running");
+            Thread.sleep(20);
+        }
+    }
+}
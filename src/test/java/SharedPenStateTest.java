@@ -0,0 +1,204 @@
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.config.SmoothingType;
+import ru.aloyenz.t501.driver.device.ConfigSnapshot;
+import ru.aloyenz.t501.driver.device.DeviceConnectionListener;
+import ru.aloyenz.t501.driver.device.DeviceReader;
+import ru.aloyenz.t501.driver.device.MouseScheduler;
+import ru.aloyenz.t501.driver.device.PenReport;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.ReportRecorder;
+import ru.aloyenz.t501.driver.device.ReportReplayer;
+import ru.aloyenz.t501.driver.device.SharedPenState;
+import ru.aloyenz.t501.driver.device.SharedPenStates;
+import ru.aloyenz.t501.driver.device.T501Device;
+import ru.aloyenz.t501.driver.shared.SharedPenStateReader;
+import ru.aloyenz.t501.driver.virtual.RecordingSink;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedPenStateTest {
+
+    @Test
+    public void testReaderNeverSeesTornStates() throws Exception {
+        Path file = Files.createTempFile("t501_pen", ".state");
+        file.toFile().deleteOnExit();
+
+        SharedPenState state = SharedPenState.create(file);
+        SharedPenStateReader reader = SharedPenStateReader.open(file);
+        assertNull(reader.read());
+
+        int reports = 1_000_000;
+        Thread writer = new Thread(() -> {
+            PenReport report = new PenReport();
+            for (int i = 1; i <= reports; i++) {
+                report.sequence = i;
+                report.x = i;
+                report.y = i * 2;
+                report.pressure = i * 3;
+                report.tiltX = -i;
+                state.publish(report);
+            }
+        });
+        writer.start();
+
+        long lastVersion = 0;
+        long read = 0;
+        while (writer.isAlive()) {
+            SharedPenStateReader.State current = reader.read();
+            if (current == null) {
+                continue;
+            }
+
+            int i = (int) current.sequence();
+            assertEquals(i, current.x(), "Torn state");
+            assertEquals(i * 2, current.y(), "Torn state");
+            assertEquals(i * 3, current.pressure(), "Torn state");
+            assertEquals(-i, current.tiltX(), "Torn state");
+            assertTrue(current.version() >= lastVersion);
+            lastVersion = current.version();
+            read++;
+        }
+        writer.join();
+
+        assertTrue(read > 0);
+        assertEquals(reports, reader.read().sequence());
+        assertEquals(2L * reports, reader.version());
+    }
+
+    @Test
+    public void testOnlyOwnLeftOverFileIsReused() throws Exception {
+        Path directory = Files.createTempDirectory("t501_shm");
+        directory.toFile().deleteOnExit();
+        Path file = directory.resolve("t501_pen_1-1");
+
+        PenReport report = new PenReport();
+        report.x = 1000;
+        SharedPenState.create(file).publish(report);
+        assertEquals(PosixFilePermissions.fromString("rw-r--r--"),
+                Files.getPosixFilePermissions(file, LinkOption.NOFOLLOW_LINKS));
+
+        // Own file continues its versions
+        SharedPenState.create(file).publish(report);
+        assertEquals(4, SharedPenStateReader.open(file).version());
+
+        // Anybody could have written it
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-rw-rw-"));
+        SharedPenState.create(file);
+        assertNull(SharedPenStateReader.open(file).read());
+        assertEquals(0, SharedPenStateReader.open(file).version());
+
+        // Link target is left untouched
+        Path target = directory.resolve("target");
+        Files.writeString(target, "target");
+        Files.delete(file);
+        Files.createSymbolicLink(file, target);
+        SharedPenState.create(file).publish(report);
+        assertFalse(Files.isSymbolicLink(file));
+        assertEquals("target", Files.readString(target));
+        assertEquals(1000, SharedPenStateReader.open(file).read().x());
+
+        Files.delete(file);
+        Files.delete(target);
+    }
+
+    @Test
+    public void testDeviceStateIsPublished() throws Exception {
+        Path directory = TestFixtures.initEnvironment("t501_shared");
+
+        Path capture = directory.resolve("capture.bin");
+        T501Device device = TestFixtures.device("1-1");
+        try (ReportRecorder recorder = new ReportRecorder(capture)) {
+            recorder.record(device, TestFixtures.report(1000, 2000, 1500), ReportDecoder.STYLUS_REPORT_LENGTH, 0);
+            recorder.record(device, TestFixtures.report(1010, 2000, 900, TestFixtures.STYLUS_PLUS,
+                    TestFixtures.ALL_RELEASED), ReportDecoder.STYLUS_REPORT_LENGTH, 5_000_000L);
+        }
+
+        Path states = directory.resolve("shm");
+        Files.createDirectory(states);
+        SharedPenStates sharedStates = new SharedPenStates(states);
+
+        // Checked right before the replayed device is disconnected
+        AtomicReference<SharedPenStateReader.State> connected = new AtomicReference<>();
+        RecordingSink sink = new RecordingSink();
+        DeviceReader reader = new DeviceReader(sink, new MouseScheduler(sink));
+        new ReportReplayer(capture, reader::applyInput, new DeviceConnectionListener() {
+            @Override
+            public void onDeviceConnected(T501Device device) {
+                sharedStates.onDeviceConnected(device);
+            }
+
+            @Override
+            public void onDeviceDisconnected(T501Device device) {
+                try {
+                    connected.set(SharedPenStateReader.open(device.sharedState().path()).read());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                sharedStates.onDeviceDisconnected(device);
+            }
+        }, 0).replay();
+
+        Path file = SharedPenStates.file(states, "replay-0");
+        assertTrue(Files.exists(file));
+
+        SharedPenStateReader.State state = connected.get();
+        assertNotNull(state);
+        assertTrue(state.connected());
+        assertEquals(1010, state.x());
+        assertEquals(2000, state.y());
+        assertEquals(900, state.rawPressure());
+        assertTrue(state.pressure() > 0);
+        assertTrue(state.hovering());
+        assertTrue(state.touching());
+        assertTrue(state.buttonPlusPressed());
+        assertFalse(state.buttonMinusPressed());
+        assertEquals(0, state.tabletButtons());
+        // Two published reports
+        assertEquals(4, state.version());
+
+        // Last state stays after disconnection
+        SharedPenStateReader.State last = SharedPenStateReader.open(file).read();
+        assertFalse(last.connected());
+        assertEquals(1010, last.x());
+
+        sharedStates.close();
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testDecodedStateIsPublishedBeforeSmoothing() throws Exception {
+        Path directory = TestFixtures.initEnvironment("t501_shared_smoothing");
+        SharedPenStates sharedStates = new SharedPenStates(directory);
+        T501Device device = TestFixtures.device("1-1");
+        sharedStates.onDeviceConnected(device);
+
+        Configuration configuration = new Configuration();
+        configuration.smoothing.x.type = SmoothingType.EMA;
+        configuration.smoothing.x.alpha = 0.1;
+
+        ConfigSnapshot previous = ConfigSnapshot.current();
+        ConfigSnapshot.publish(ConfigSnapshot.compile(configuration));
+        RecordingSink sink = new RecordingSink();
+        try {
+            DeviceReader reader = new DeviceReader(sink, new MouseScheduler(sink));
+            reader.applyInput(device, TestFixtures.report(1000, 2000, 1300), ReportDecoder.STYLUS_REPORT_LENGTH);
+            reader.applyInput(device, TestFixtures.report(2000, 2000, 1300), ReportDecoder.STYLUS_REPORT_LENGTH);
+        } finally {
+            ConfigSnapshot.publish(previous);
+        }
+
+        // The virtual pen gets the smoothed position, overlays the decoded one
+        RecordingSink.PenFrame written = (RecordingSink.PenFrame) sink.outputs().get(1);
+        assertTrue(written.x() < 2000);
+        assertEquals(2000, SharedPenStateReader.open(device.sharedState().path()).read().x());
+
+        sharedStates.close();
+    }
+}
@@ -0,0 +1,153 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.config.SmoothingConfiguration;
+import ru.aloyenz.t501.driver.config.SmoothingType;
+import ru.aloyenz.t501.driver.device.ConfigSnapshot;
+import ru.aloyenz.t501.driver.device.DeviceReader;
+import ru.aloyenz.t501.driver.device.MouseScheduler;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.ReportRecorder;
+import ru.aloyenz.t501.driver.device.ReportReplayer;
+import ru.aloyenz.t501.driver.device.T501Device;
+import ru.aloyenz.t501.driver.virtual.RecordingSink;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SmoothingFilterTest {
+
+    // 200 reports per second
+    private static final long PERIOD_NANOS = 5_000_000L;
+    private static final int REPORTS = 200;
+
+    // Units per second
+    private static final double SPEED = 20_000;
+
+    @BeforeAll
+    public static void init() throws Exception {
+        TestFixtures.initEnvironment("t501_smoothing");
+    }
+
+    @Test
+    public void testOneEuroLagsLessThanEmaOnFastStroke() throws Exception {
+        int[] raw = new int[REPORTS];
+        for (int i = 0; i < REPORTS; i++) {
+            raw[i] = 1000 + (int) (SPEED * i * PERIOD_NANOS / 1e9);
+        }
+        File capture = capture(raw);
+
+        double emaLag = lagMs(raw, replay(capture, smoothing(SmoothingType.EMA)));
+        double oneEuroLag = lagMs(raw, replay(capture, smoothing(SmoothingType.ONE_EURO)));
+        double noLag = lagMs(raw, replay(capture, new SmoothingConfiguration()));
+
+        // EMA with alpha 0.5 lags by one report
+        assertEquals(5.0, emaLag, 0.5);
+        assertTrue(oneEuroLag < 2.0, "One Euro lag " + oneEuroLag + " ms");
+        assertEquals(0.0, noLag, 0.01);
+    }
+
+    @Test
+    public void testOneEuroRemovesJitterOfRestingPen() throws Exception {
+        Random random = new Random(501);
+        int[] raw = new int[REPORTS];
+        for (int i = 0; i < REPORTS; i++) {
+            raw[i] = 10_000 + random.nextInt(9) - 4;
+        }
+
+        List<RecordingSink.PenFrame> frames = replay(capture(raw), smoothing(SmoothingType.ONE_EURO));
+
+        // Filter needs some reports to settle
+        double rawDeviation = deviation(raw, REPORTS / 4);
+        int[] filtered = frames.stream().mapToInt(RecordingSink.PenFrame::x).toArray();
+        double filteredDeviation = deviation(filtered, REPORTS / 4);
+
+        assertTrue(filteredDeviation < rawDeviation / 4,
+                "Deviation " + filteredDeviation + " of filtered, " + rawDeviation + " of raw");
+    }
+
+    private static SmoothingConfiguration smoothing(SmoothingType type) {
+        SmoothingConfiguration smoothing = new SmoothingConfiguration();
+        smoothing.x.type = type;
+        smoothing.y.type = type;
+        return smoothing;
+    }
+
+    private static File capture(int[] x) throws Exception {
+        File file = Files.createTempFile("t501_stroke", ".bin").toFile();
+        file.deleteOnExit();
+
+        T501Device device = TestFixtures.device("1-1");
+        try (ReportRecorder recorder = new ReportRecorder(file.toPath())) {
+            for (int i = 0; i < x.length; i++) {
+                recorder.record(device, report(x[i], 900), ReportDecoder.STYLUS_REPORT_LENGTH, i * PERIOD_NANOS);
+            }
+            recorder.record(device, report(0, 0), ReportDecoder.STYLUS_REPORT_LENGTH, x.length * PERIOD_NANOS);
+        }
+
+        return file;
+    }
+
+    private static List<RecordingSink.PenFrame> replay(File capture, SmoothingConfiguration smoothing) throws Exception {
+        Configuration configuration = new Configuration();
+        configuration.smoothing = smoothing;
+
+        ConfigSnapshot previous = ConfigSnapshot.current();
+        ConfigSnapshot.publish(ConfigSnapshot.compile(configuration));
+
+        RecordingSink sink = new RecordingSink();
+        try {
+            DeviceReader reader = new DeviceReader(sink, new MouseScheduler(sink));
+            // Max speed: the filter sees the recorded time of reports anyway
+            new ReportReplayer(capture.toPath(), reader::applyInput, null, 0).replay();
+        } finally {
+            ConfigSnapshot.publish(previous);
+        }
+
+        List<RecordingSink.PenFrame> frames = new ArrayList<>();
+        for (RecordingSink.Output output : sink.outputs()) {
+            if (output instanceof RecordingSink.PenFrame frame) {
+                frames.add(frame);
+            }
+        }
+        assertEquals(REPORTS, frames.size());
+        assertEquals(new RecordingSink.PenLeave(), sink.outputs().get(sink.outputs().size() - 1));
+
+        return frames;
+    }
+
+    // Mean delay of the filtered position in the second half of the stroke
+    private static double lagMs(int[] raw, List<RecordingSink.PenFrame> frames) {
+        double sum = 0;
+        int count = 0;
+        for (int i = REPORTS / 2; i < REPORTS; i++) {
+            sum += (raw[i] - frames.get(i).x()) / SPEED * 1000;
+            count++;
+        }
+        return sum / count;
+    }
+
+    private static double deviation(int[] values, int from) {
+        double mean = 0;
+        for (int i = from; i < values.length; i++) {
+            mean += values[i];
+        }
+        mean /= values.length - from;
+
+        double variance = 0;
+        for (int i = from; i < values.length; i++) {
+            variance += (values[i] - mean) * (values[i] - mean);
+        }
+        return Math.sqrt(variance / (values.length - from));
+    }
+
+    private static ByteBuffer report(int x, int rawPressure) {
+        return TestFixtures.report(x, 2000, rawPressure);
+    }
+}
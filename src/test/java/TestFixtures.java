@@ -0,0 +1,105 @@
+import ru.aloyenz.t501.driver.config.Configuration;
+import ru.aloyenz.t501.driver.device.ConfigSnapshot;
+import ru.aloyenz.t501.driver.device.DeviceInformation;
+import ru.aloyenz.t501.driver.device.KeyCodesFetcher;
+import ru.aloyenz.t501.driver.device.ReportDecoder;
+import ru.aloyenz.t501.driver.device.T501Device;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Driver environment and T501 stylus reports shared by tests.
+ */
+final class TestFixtures {
+
+    /** Tablet buttons, 1 = released */
+    static final int ALL_RELEASED = 0xFFFF;
+
+    /** Stylus buttons byte */
+    static final int NO_STYLUS_BUTTONS = 0x02;
+    static final int STYLUS_PLUS = 0x04;
+
+    /** Raw tilt of a stylus perpendicular to the tablet */
+    static final int PERPENDICULAR = 0x80;
+
+    private TestFixtures() {}
+
+    /**
+     * Loads bundled keycodes, default configuration and bindings the same way as on driver start,
+     * from a new temporary directory.
+     *
+     * @return the directory, for more temporary files
+     */
+    static Path initEnvironment(String prefix) throws Exception {
+        Path directory = initKeycodes(prefix);
+
+        Configuration.init(directory.resolve("config.json").toFile());
+        ConfigSnapshot.publish(ConfigSnapshot.compile(Configuration.getInstance()));
+
+        return directory;
+    }
+
+    /**
+     * Loads bundled keycodes from a new temporary directory, configuration is left to the test.
+     */
+    static Path initKeycodes(String prefix) throws Exception {
+        Path directory = Files.createTempDirectory(prefix);
+        directory.toFile().deleteOnExit();
+
+        String keycodesCache = directory.resolve("keycodes.json").toString();
+        KeyCodesFetcher.saveKeycodeCacheFromResources(keycodesCache);
+        KeyCodesFetcher.loadKeycodesFromCache(keycodesCache);
+
+        return directory;
+    }
+
+    /** Tablet without USB handle, with the endpoint of T501 */
+    static T501Device device(String id) {
+        return new T501Device(id, null, new DeviceInformation((byte) 1, (byte) 0x81, 64));
+    }
+
+    /** Report of a perpendicular stylus without pressed buttons */
+    static ByteBuffer report(int x, int y, int rawPressure) {
+        return report(x, y, rawPressure, NO_STYLUS_BUTTONS, ALL_RELEASED);
+    }
+
+    static ByteBuffer report(int x, int y, int rawPressure, int stylusButtons, int tabletButtons) {
+        return report(x, y, rawPressure, stylusButtons, tabletButtons, PERPENDICULAR, PERPENDICULAR);
+    }
+
+    static ByteBuffer report(int x, int y, int rawPressure, int stylusButtons, int tabletButtons,
+                             int tiltX, int tiltY) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        write(buffer, x, y, rawPressure, stylusButtons, tabletButtons, tiltX, tiltY);
+        return buffer;
+    }
+
+    /** Overwrites the report in the buffer, so a single buffer can be reused for every report */
+    static void write(ByteBuffer buffer, int x, int y, int rawPressure, int stylusButtons, int tabletButtons,
+                      int tiltX, int tiltY) {
+        buffer.put(0, ReportDecoder.STYLUS_REPORT_ID);
+        buffer.putShort(1, (short) x);
+        buffer.putShort(3, (short) y);
+        buffer.putShort(5, (short) rawPressure);
+        buffer.put(9, (byte) stylusButtons);
+        buffer.putShort(11, (short) tabletButtons);
+        buffer.put(13, (byte) tiltX);
+        buffer.put(14, (byte) tiltY);
+    }
+
+    /** Bytes allocated by this thread while running the measured code, warm it up before */
+    static long allocatedBytes(Runnable measured) {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // First call of the bean may allocate by itself
+        threadBean.getCurrentThreadAllocatedBytes();
+
+        long before = threadBean.getCurrentThreadAllocatedBytes();
+        measured.run();
+        return threadBean.getCurrentThreadAllocatedBytes() - before;
+    }
+}
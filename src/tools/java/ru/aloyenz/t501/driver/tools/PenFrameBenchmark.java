@@ -0,0 +1,72 @@
+package ru.aloyenz.t501.driver.tools;
+
+import ru.aloyenz.t501.driver.virtual.VPen;
+
+/**
+ * Compares {@link VPen#writePosition} (one syscall per event) with {@link VPen#writeFrame}
+ * (one syscall per frame, only changed values).
+ * <p>
+ * Creates a real virtual pen, so it needs /dev/uinput access and the native library, and is not a JMH benchmark:
+ * <pre>
+ *     sudo ./gradlew penFrameBenchmark --args="[samples]"
+ * </pre>
+ * Use {@code strace -c -e trace=write -f} to see the syscall count of each phase.
+ */
+public class PenFrameBenchmark {
+
+    public static void main(String[] args) {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        long handle = VPen.initialize("T501 Benchmark Pen");
+        if (handle <= -1) {
+            System.out.println("Failed to initialize virtual pen. Error code: " + handle);
+            return;
+        }
+
+        try {
+            // Warm-up of both paths
+            run(handle, samples / 10, false);
+            run(handle, samples / 10, true);
+
+            long positionTime = run(handle, samples, false);
+            long frameTime = run(handle, samples, true);
+
+            System.out.printf("writePosition: %.1f ns/sample%n", positionTime / (double) samples);
+            System.out.printf("writeFrame:    %.1f ns/sample%n", frameTime / (double) samples);
+            System.out.printf("Speedup: %.2fx%n", positionTime / (double) frameTime);
+        } finally {
+            VPen.penLeave(handle);
+            VPen.shutdown(handle);
+        }
+    }
+
+    /**
+     * Writes a synthetic stroke: X/Y always change, pressure changes every few samples,
+     * tilt and buttons stay the same. That's what a real stroke looks like.
+     */
+    private static long run(long handle, int samples, boolean frames) {
+        int failures = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < samples; i++) {
+            int x = 1000 + (i % 2000);
+            int y = 1000 + (i % 1500);
+            int pressure = 300 + ((i >> 3) % 400);
+
+            int result = frames
+                    ? VPen.writeFrame(handle, x, y, pressure, true, 10, -5, false, false)
+                    : VPen.writePosition(handle, x, y, pressure, true, 10, -5, false, false);
+
+            if (result < 0) {
+                failures++;
+            }
+        }
+
+        long time = System.nanoTime() - start;
+        if (failures > 0) {
+            System.out.println((frames ? "writeFrame" : "writePosition") + " failed " + failures + " times");
+        }
+
+        return time;
+    }
+}
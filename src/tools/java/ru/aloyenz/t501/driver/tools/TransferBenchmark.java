@@ -0,0 +1,140 @@
+package ru.aloyenz.t501.driver.tools;
+
+import org.usb4java.*;
+import ru.aloyenz.t501.driver.DriverMain;
+import ru.aloyenz.t501.driver.device.AsyncDeviceReader;
+import ru.aloyenz.t501.driver.device.DeviceInformation;
+import ru.aloyenz.t501.driver.device.T501Device;
+import ru.aloyenz.t501.driver.device.T501DevicesHandler;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Compares blocking interruptTransfer polling with the async transfer queue.
+ * <p>
+ * Needs a real tablet and root permissions, so it is not a unit test or a JMH benchmark. Run it and keep
+ * the pen moving over the tablet during both phases:
+ * <pre>
+ *     sudo ./gradlew transferBenchmark --args="[seconds per phase] [queue depth]"
+ * </pre>
+ */
+public class TransferBenchmark {
+
+    private static final int MAX_REPORTS = 1 << 20;
+
+    private final long[] timestamps = new long[MAX_REPORTS];
+    private int count = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int queueDepth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        int code = LibUsb.init(null);
+        if (code != LibUsb.SUCCESS) {
+            throw new RuntimeException("Unable to initialize libusb: " + LibUsb.strError(code));
+        }
+
+        T501DevicesHandler handler = new T501DevicesHandler();
+        try {
+            findDevice(handler);
+            if (handler.isEmpty()) {
+                System.out.println("No T501 devices found.");
+                return;
+            }
+
+            T501Device device = handler.devices()[0];
+
+            System.out.println("Blocking phase: move the pen for " + seconds + " seconds...");
+            TransferBenchmark blocking = new TransferBenchmark();
+            blocking.runBlocking(device, device.handle(), device.information(), seconds);
+            blocking.print("blocking");
+
+            System.out.println("Async phase (queue depth " + queueDepth + "): move the pen for " + seconds + " seconds...");
+            TransferBenchmark async = new TransferBenchmark();
+            async.runAsync(device, seconds, queueDepth);
+            async.print("async");
+        } finally {
+            handler.reattachKernelDrivers();
+            LibUsb.exit(null);
+        }
+    }
+
+    private void runBlocking(T501Device device, DeviceHandle handle, DeviceInformation info, int seconds) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(info.packetSize());
+        IntBuffer transferred = IntBuffer.allocate(1);
+
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            int result = LibUsb.interruptTransfer(handle, info.entryPoint(), buffer, transferred, 1000);
+            if (result == LibUsb.SUCCESS) {
+                record(device, buffer, transferred.get(0));
+            }
+            buffer.rewind();
+        }
+    }
+
+    private void runAsync(T501Device device, int seconds, int queueDepth) throws InterruptedException {
+        AsyncDeviceReader reader = new AsyncDeviceReader(this::record, queueDepth);
+        reader.onDeviceConnected(device);
+        reader.start();
+
+        Thread.sleep(seconds * 1000L);
+
+        reader.stop();
+    }
+
+    private void record(T501Device device, ByteBuffer buffer, int length) {
+        // Only stylus reports, same as DeviceReader
+        if (length > 0 && buffer.get(0) == 0x06 && count < MAX_REPORTS) {
+            timestamps[count++] = System.nanoTime();
+        }
+    }
+
+    private void print(String name) {
+        if (count < 2) {
+            System.out.println(name + ": not enough reports received (" + count + ")");
+            return;
+        }
+
+        long[] gaps = new long[count - 1];
+        for (int i = 1; i < count; i++) {
+            gaps[i - 1] = timestamps[i] - timestamps[i - 1];
+        }
+        Arrays.sort(gaps);
+
+        double seconds = (timestamps[count - 1] - timestamps[0]) / 1e9;
+        System.out.printf("%s: %d reports, %.1f reports/s, gap us: mean %.1f, p50 %.1f, p99 %.1f, max %.1f%n",
+                name, count, (count - 1) / seconds,
+                Arrays.stream(gaps).average().orElse(0) / 1000.0,
+                gaps[gaps.length / 2] / 1000.0,
+                gaps[(int) (gaps.length * 0.99)] / 1000.0,
+                gaps[gaps.length - 1] / 1000.0);
+    }
+
+    private static void findDevice(T501DevicesHandler handler) {
+        DeviceList deviceList = new DeviceList();
+        int code = LibUsb.getDeviceList(null, deviceList);
+        if (code < 0) {
+            throw new RuntimeException("Unable to get device list: " + LibUsb.strError(code));
+        }
+
+        try {
+            for (Device device : deviceList) {
+                DeviceDescriptor descriptor = new DeviceDescriptor();
+                if (LibUsb.getDeviceDescriptor(device, descriptor) != LibUsb.SUCCESS) {
+                    continue;
+                }
+
+                String vid = String.format("%04x", descriptor.idProduct() & 0xffff);
+                String hid = String.format("%04x", descriptor.idVendor() & 0xffff);
+                if (vid.equals(DriverMain.VID) && hid.equals(DriverMain.HID)) {
+                    handler.onDeviceConnected(device, descriptor);
+                }
+            }
+        } finally {
+            LibUsb.freeDeviceList(deviceList, true);
+        }
+    }
+}